@@ -0,0 +1,57 @@
+package ru.sibsutis.security.benchmarks;
+
+import org.apache.commons.io.IOUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.sibsutis.security.encrypt.GOST94Digester;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Digester.verifyAll over batches of small signed messages sharing one key
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class BatchVerifyBenchmark {
+
+    private static final int MESSAGE_SIZE = 256;
+
+    @Param({"1", "10", "100", "1000", "10000"})
+    public int batchSize;
+
+    private GOST94Digester digester;
+    private List<byte[]> signedMessages;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        BenchmarkData.silenceStdout();
+        digester = new GOST94Digester(BenchmarkData.gost94Parameters(1024, 256), false);
+        byte[] framedMessage = BenchmarkData.framedMessage(MESSAGE_SIZE);
+        signedMessages = new ArrayList<>(batchSize);
+        for (int i = 0; i < batchSize; i++) {
+            signedMessages.add(IOUtils.toByteArray(digester.digest(new ByteArrayInputStream(framedMessage))));
+        }
+    }
+
+    @Benchmark
+    public boolean[] verifyAll() {
+        return digester.verifyAll(signedMessages);
+    }
+
+}
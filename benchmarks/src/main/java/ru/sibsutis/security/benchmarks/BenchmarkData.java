@@ -0,0 +1,72 @@
+package ru.sibsutis.security.benchmarks;
+
+import ru.sibsutis.security.encrypt.GOST94Parameters;
+import ru.sibsutis.security.io.MessageFraming;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+
+// Inputs shared by the benchmarks. Messages and primes come from fixed seeds, GOST parameters are generated once
+// and cached on disk, so every run measures the same values.
+final class BenchmarkData {
+
+    static final long SEED = 20220501L;
+
+    // Overridden with -Dcryptor.benchmarks.cache=<directory>
+    private static final Path CACHE_DIRECTORY =
+            Paths.get(System.getProperty("cryptor.benchmarks.cache", "target/benchmark-cache"));
+
+    private BenchmarkData() {}
+
+    static byte[] message(int size) {
+        byte[] message = new byte[size];
+        new Random(SEED).nextBytes(message);
+        return message;
+    }
+
+    static byte[] framedMessage(int size) {
+        byte[] message = message(size);
+        byte[] framed = new byte[MessageFraming.HEADER_SIZE + size];
+        System.arraycopy(MessageFraming.header(size), 0, framed, 0, MessageFraming.HEADER_SIZE);
+        System.arraycopy(message, 0, framed, MessageFraming.HEADER_SIZE, size);
+        return framed;
+    }
+
+    static BigInteger prime(int bitLength) {
+        return BigInteger.probablePrime(bitLength, new Random(SEED + bitLength));
+    }
+
+    static BigInteger exponent(int bitLength, int index) {
+        return new BigInteger(bitLength, new Random(SEED + index)).setBit(bitLength - 1);
+    }
+
+    static synchronized GOST94Parameters gost94Parameters(int pBitLength, int qBitLength) throws IOException {
+        Path path = CACHE_DIRECTORY.resolve(String.format("gost94-%s-%s.properties", pBitLength, qBitLength));
+        if (Files.exists(path)) {
+            return GOST94Parameters.load(path);
+        }
+        GOST94Parameters parameters = GOST94Parameters.generate(pBitLength, qBitLength);
+        parameters.save(path);
+        return parameters;
+    }
+
+    // The crypto classes report every step to stdout, which would only flood the benchmark log
+    static void silenceStdout() {
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        }));
+    }
+
+}
@@ -0,0 +1,78 @@
+package ru.sibsutis.security.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.sibsutis.security.encrypt.FixedBaseExponentiator;
+import ru.sibsutis.security.encrypt.GOST94Parameters;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.concurrent.TimeUnit;
+
+// a^k and a^u1 * y^u2 mod p as GOST R34.10-94 computes them: BigInteger.modPow against the fixed-base tables
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FixedBaseBenchmark {
+
+    // "<p bits>:<q bits>"
+    @Param({"1024:256", "2048:256"})
+    public String lengths;
+
+    private BigInteger p;
+    private BigInteger a;
+    private BigInteger y;
+    private BigInteger k;
+    private BigInteger u;
+    private FixedBaseExponentiator aTable;
+    private FixedBaseExponentiator yTable;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        String[] parts = lengths.split(":");
+        int qBitLength = Integer.parseInt(parts[1]);
+        GOST94Parameters parameters = BenchmarkData.gost94Parameters(Integer.parseInt(parts[0]), qBitLength);
+        p = parameters.getP();
+        a = parameters.getA();
+        y = parameters.getY();
+        BigInteger q = parameters.getQ();
+        k = BenchmarkData.exponent(qBitLength, 1).mod(q);
+        u = BenchmarkData.exponent(qBitLength, 2).mod(q);
+        aTable = new FixedBaseExponentiator(a, p, q.bitLength());
+        yTable = new FixedBaseExponentiator(y, p, q.bitLength());
+    }
+
+    @Benchmark
+    public BigInteger modPow() {
+        return a.modPow(k, p);
+    }
+
+    @Benchmark
+    public BigInteger fixedBasePow() {
+        return aTable.pow(k);
+    }
+
+    @Benchmark
+    public BigInteger modPowPair() {
+        return a.modPow(k, p).multiply(y.modPow(u, p)).mod(p);
+    }
+
+    @Benchmark
+    public BigInteger fixedBaseMultiPow() {
+        return FixedBaseExponentiator.multiPow(aTable, k, yTable, u);
+    }
+
+}
@@ -0,0 +1,75 @@
+package ru.sibsutis.security.benchmarks;
+
+import org.apache.commons.io.IOUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.sibsutis.security.encrypt.GOST2012Digester;
+import ru.sibsutis.security.encrypt.GOST2012Keys;
+import ru.sibsutis.security.encrypt.GOST94Digester;
+import ru.sibsutis.security.net.Digester;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// Sign and verify latency of a short message: GOST R34.10-2012 on the 256-bit curve against GOST R34.10-94 with
+// the same 256-bit q, at 1024-bit p and at 3072-bit p, which matches the curve in security
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GOST2012Benchmark {
+
+    // "gost34.10-2012" or "gost34.10-94:<p bits>"
+    @Param({"gost34.10-2012", "gost34.10-94:1024", "gost34.10-94:3072"})
+    public String scheme;
+
+    @Param({"64"})
+    public int messageSize;
+
+    private Digester digester;
+    private byte[] framedMessage;
+    private ByteArrayOutputStream signedMessage;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        BenchmarkData.silenceStdout();
+        String[] parts = scheme.split(":");
+        if (parts.length == 1) {
+            digester = new GOST2012Digester(GOST2012Keys.generate(), "SHA-256", false);
+        } else {
+            digester = new GOST94Digester(
+                    BenchmarkData.gost94Parameters(Integer.parseInt(parts[1]), 256),
+                    "SHA-256",
+                    false
+            );
+        }
+        framedMessage = BenchmarkData.framedMessage(messageSize);
+        signedMessage = new ByteArrayOutputStream();
+        IOUtils.copy(digest(), signedMessage);
+    }
+
+    @Benchmark
+    public ByteArrayInputStream digest() throws IOException {
+        return digester.digest(new ByteArrayInputStream(framedMessage));
+    }
+
+    @Benchmark
+    public ByteArrayOutputStream verify() throws IOException {
+        return digester.verify(signedMessage);
+    }
+
+}
@@ -0,0 +1,70 @@
+package ru.sibsutis.security.benchmarks;
+
+import org.apache.commons.io.IOUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.sibsutis.security.encrypt.GOST94Digester;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// Sign and verify latency of one framed message with cached GOST R34.10-94 parameters
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GOST94Benchmark {
+
+    // "<p bits>:<q bits>"
+    @Param({"1024:256"})
+    public String lengths;
+
+    @Param({"64", "65536", "1048576"})
+    public int messageSize;
+
+    @Param({"MD5", "SHA-256"})
+    public String hashAlgorithm;
+
+    private GOST94Digester digester;
+    private byte[] framedMessage;
+    private ByteArrayOutputStream signedMessage;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        BenchmarkData.silenceStdout();
+        String[] parts = lengths.split(":");
+        digester = new GOST94Digester(
+                BenchmarkData.gost94Parameters(Integer.parseInt(parts[0]), Integer.parseInt(parts[1])),
+                hashAlgorithm,
+                false
+        );
+        framedMessage = BenchmarkData.framedMessage(messageSize);
+        signedMessage = new ByteArrayOutputStream();
+        IOUtils.copy(digest(), signedMessage);
+    }
+
+    @Benchmark
+    public ByteArrayInputStream digest() throws IOException {
+        return digester.digest(new ByteArrayInputStream(framedMessage));
+    }
+
+    @Benchmark
+    public ByteArrayOutputStream verify() throws IOException {
+        return digester.verify(signedMessage);
+    }
+
+}
@@ -0,0 +1,50 @@
+package ru.sibsutis.security.benchmarks;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.sibsutis.security.encrypt.CryptoUtils;
+
+import java.math.BigInteger;
+import java.util.concurrent.TimeUnit;
+
+// One parameter search takes from a fraction of a second to seconds, so every call is a separate sample
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 10)
+@Fork(1)
+public class GOSTParametersBenchmark {
+
+    // "<p bits>:<q bits>"
+    @Param({"512:160", "1024:256"})
+    public String lengths;
+
+    private int pBitLength;
+    private int qBitLength;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        BenchmarkData.silenceStdout();
+        String[] parts = lengths.split(":");
+        pBitLength = Integer.parseInt(parts[0]);
+        qBitLength = Integer.parseInt(parts[1]);
+    }
+
+    @Benchmark
+    public Pair<Pair<BigInteger, BigInteger>, Pair<BigInteger, BigInteger>> generateGOSTParameters() {
+        return CryptoUtils.generateGOSTParameters(pBitLength, qBitLength);
+    }
+
+}
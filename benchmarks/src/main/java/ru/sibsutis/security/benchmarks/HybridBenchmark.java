@@ -0,0 +1,85 @@
+package ru.sibsutis.security.benchmarks;
+
+import org.apache.commons.io.output.NullOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.sibsutis.security.encrypt.HybridCommunicator;
+import ru.sibsutis.security.encrypt.PrimePool;
+import ru.sibsutis.security.encrypt.ShamirCommunicator;
+import ru.sibsutis.security.net.Communicator;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+// One message in the hybrid scheme against the Shamir schemes with the same p. The hybrid send includes the Shamir
+// transfer of its session key. sha moves ~100 bytes per ms, keep it on small messages:
+// java -jar target/benchmarks.jar HybridBenchmark -p scheme=hyb -p messageSize=16777216
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class HybridBenchmark {
+
+    @Param({"512"})
+    public int spLength;
+
+    @Param({"65536"})
+    public int messageSize;
+
+    @Param({"hyb", "shab", "sha"})
+    public String scheme;
+
+    private byte[] message;
+    private Communicator client;
+    private Communicator server;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        BenchmarkData.silenceStdout();
+        message = BenchmarkData.message(messageSize);
+
+        Path cacheFile = Files.createTempFile("hybrid-benchmark", ".primes");
+        cacheFile.toFile().deleteOnExit();
+        String cacheLine = spLength + ":" + BenchmarkData.prime(spLength).toString(16);
+        Files.write(cacheFile, cacheLine.getBytes(StandardCharsets.UTF_8));
+        PrimePool primePool = new PrimePool(1, cacheFile);
+        primePool.load();
+
+        boolean blockMode = !"sha".equals(scheme);
+        ShamirCommunicator shamirClient = ShamirCommunicator.builder(spLength)
+                .setBlockMode(blockMode)
+                .setPrimePool(primePool)
+                .build();
+        ShamirCommunicator shamirServer = ShamirCommunicator.builder(spLength).setBlockMode(blockMode).build();
+        if ("hyb".equals(scheme)) {
+            client = HybridCommunicator.builder(shamirClient).build();
+            server = HybridCommunicator.builder(shamirServer).build();
+        } else {
+            client = shamirClient;
+            server = shamirServer;
+        }
+        send();
+    }
+
+    @Benchmark
+    public void send() throws IOException {
+        client.sendMessage(new ByteArrayInputStream(message), server, NullOutputStream.NULL_OUTPUT_STREAM, false);
+    }
+
+}
@@ -0,0 +1,74 @@
+package ru.sibsutis.security.benchmarks;
+
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.ParseException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.sibsutis.security.cli.CliOption;
+import ru.sibsutis.security.cli.CliProcessor;
+import ru.sibsutis.security.io.Message;
+import ru.sibsutis.security.net.EntityFactory;
+import ru.sibsutis.security.net.Sender;
+
+import javax.naming.OperationNotSupportedException;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// Signed in-memory send through the hybrid scheme, where the AES-GCM pass is cheap enough for the payload copies
+// to show. Allocation per send is the point, run it with the GC profiler:
+// java -jar target/benchmarks.jar MessageCopyBenchmark -prof gc
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MessageCopyBenchmark {
+
+    @Param({"65536", "1048576"})
+    public int messageSize;
+
+    private byte[] framedMessage;
+    private Sender sender;
+
+    @Setup(Level.Trial)
+    public void setUp() throws ParseException, OperationNotSupportedException {
+        BenchmarkData.silenceStdout();
+        framedMessage = BenchmarkData.framedMessage(messageSize);
+        CliProcessor cliProcessor = new CliProcessor(new DefaultParser().parse(
+                CliOption.getOptions(), new String[]{"-c", "hyb", "-sp", "512", "-s", "gost34.10-2012"}
+        ));
+        sender = Sender.builder()
+                .setNeedDigest(true)
+                .setPipelineDepth(0)
+                .build(new EntityFactory(cliProcessor));
+    }
+
+    // Framed array in, payload array out
+    @Benchmark
+    public ByteArrayOutputStream arrays() throws IOException {
+        sender.send(new ByteArrayInputStream(framedMessage));
+        return sender.getSentMessageStream();
+    }
+
+    // Same bytes as a message: signature appended and stripped as segments, delivered into pooled buffers
+    @Benchmark
+    public long buffers() throws IOException {
+        try (Message payload = sender.send(Message.wrap(framedMessage))) {
+            return payload.size();
+        }
+    }
+
+}
@@ -0,0 +1,108 @@
+package ru.sibsutis.security.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.sibsutis.security.io.ChannelOutputStream;
+import ru.sibsutis.security.io.MappedFileInputStream;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+// Message file I/O the way the CLI does it: buffered heap streams by default, mmap and FileChannel with -mm
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MessageIoBenchmark {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    @Param({"1048576", "67108864"})
+    public int fileSize;
+
+    private Path inputFile;
+    private Path outputFile;
+    private byte[] chunk;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        inputFile = Files.createTempFile("io-benchmark", ".in");
+        outputFile = Files.createTempFile("io-benchmark", ".out");
+        chunk = BenchmarkData.message(BUFFER_SIZE);
+        try (OutputStream outputStream = new BufferedOutputStream(Files.newOutputStream(inputFile), BUFFER_SIZE)) {
+            for (int written = 0; written < fileSize; written += chunk.length) {
+                outputStream.write(chunk, 0, Math.min(chunk.length, fileSize - written));
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(inputFile);
+        Files.deleteIfExists(outputFile);
+    }
+
+    @Benchmark
+    public long readHeap() throws IOException {
+        try (InputStream inputStream = new BufferedInputStream(Files.newInputStream(inputFile), BUFFER_SIZE)) {
+            return drain(inputStream);
+        }
+    }
+
+    @Benchmark
+    public long readMapped() throws IOException {
+        try (InputStream inputStream = new MappedFileInputStream(inputFile)) {
+            return drain(inputStream);
+        }
+    }
+
+    @Benchmark
+    public void writeHeap() throws IOException {
+        try (OutputStream outputStream = new BufferedOutputStream(Files.newOutputStream(outputFile), BUFFER_SIZE)) {
+            fill(outputStream);
+        }
+    }
+
+    @Benchmark
+    public void writeChannel() throws IOException {
+        try (OutputStream outputStream = new ChannelOutputStream(outputFile)) {
+            fill(outputStream);
+        }
+    }
+
+    private long drain(InputStream inputStream) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long checksum = 0;
+        int count;
+        while ((count = inputStream.read(buffer)) != -1) {
+            checksum += count + buffer[0];
+        }
+        return checksum;
+    }
+
+    private void fill(OutputStream outputStream) throws IOException {
+        for (int written = 0; written < fileSize; written += chunk.length) {
+            outputStream.write(chunk, 0, Math.min(chunk.length, fileSize - written));
+        }
+    }
+
+}
@@ -0,0 +1,80 @@
+package ru.sibsutis.security.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.sibsutis.security.encrypt.MontgomeryEngine;
+
+import java.math.BigInteger;
+import java.util.concurrent.TimeUnit;
+
+// MontgomeryEngine against BigInteger for a full-size exponent and a single modular multiplication.
+// Run with -prof gc to see the allocation rate of both.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MontgomeryBenchmark {
+
+    @Param({"512", "1024", "2048", "4096"})
+    public int bitLength;
+
+    private BigInteger modulus;
+    private BigInteger base;
+    private BigInteger factor;
+    private BigInteger exponent;
+
+    private MontgomeryEngine engine;
+    private MontgomeryEngine.Workspace workspace;
+    private int[] montgomeryBase;
+    private int[] montgomeryFactor;
+    private int[] result;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        modulus = BenchmarkData.prime(bitLength);
+        base = BenchmarkData.exponent(bitLength, 1).mod(modulus);
+        factor = BenchmarkData.exponent(bitLength, 2).mod(modulus);
+        exponent = BenchmarkData.exponent(bitLength, 3).mod(modulus);
+
+        engine = new MontgomeryEngine(modulus);
+        workspace = engine.newWorkspace();
+        montgomeryBase = engine.toMontgomery(base);
+        montgomeryFactor = engine.toMontgomery(factor);
+        result = engine.newValue();
+    }
+
+    @Benchmark
+    public BigInteger bigIntegerModPow() {
+        return base.modPow(exponent, modulus);
+    }
+
+    @Benchmark
+    public int[] engineModPow() {
+        engine.modPow(montgomeryBase, exponent, result, workspace);
+        return result;
+    }
+
+    @Benchmark
+    public BigInteger bigIntegerMultiply() {
+        return base.multiply(factor).mod(modulus);
+    }
+
+    @Benchmark
+    public int[] engineMultiply() {
+        engine.multiply(montgomeryBase, montgomeryFactor, result, workspace.getScratch());
+        return result;
+    }
+
+}
@@ -0,0 +1,53 @@
+package ru.sibsutis.security.benchmarks;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.sibsutis.security.encrypt.CryptoUtils;
+
+import java.math.BigInteger;
+import java.util.concurrent.TimeUnit;
+
+// CryptoUtils draws its candidates from SecureRandom, so single calls vary a lot:
+// sampling mode reports the spread (p50, p99) and not only the mean
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class PrimeGenerationBenchmark {
+
+    @Param({"256", "512", "1024"})
+    public int bitLength;
+
+    private BigInteger p;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        BenchmarkData.silenceStdout();
+        p = BenchmarkData.prime(bitLength);
+    }
+
+    @Benchmark
+    public BigInteger generateRandomPrime() {
+        return CryptoUtils.generateRandom(bitLength, true);
+    }
+
+    // Shamir key pair for the fixed seeded p
+    @Benchmark
+    public Pair<BigInteger, BigInteger> generateShamir() {
+        return CryptoUtils.generateShamir(p);
+    }
+
+}
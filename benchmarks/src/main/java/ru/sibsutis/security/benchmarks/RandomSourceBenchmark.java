@@ -0,0 +1,89 @@
+package ru.sibsutis.security.benchmarks;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.sibsutis.security.encrypt.CryptoUtils;
+import ru.sibsutis.security.encrypt.RandomSource;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static java.math.BigInteger.ONE;
+
+// Key setup, signature nonce and prime generation with each random source. perCall is the former behavior,
+// a new SecureRandom for every generated value.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 3)
+@Measurement(iterations = 3, time = 3)
+@Fork(1)
+public class RandomSourceBenchmark {
+
+    @Param({"perCall", "secure", "buffered", "seeded"})
+    public String source;
+
+    @Param({"1024"})
+    public int pLength;
+
+    private RandomSource randomSource;
+    private BigInteger p;
+    private BigInteger qMinusOne;
+
+    @Setup
+    public void setUp() {
+        switch (source) {
+            case "perCall":
+                randomSource = new RandomSource() {
+                    @Override
+                    public Random random() {
+                        return new SecureRandom();
+                    }
+
+                    @Override
+                    public String getName() {
+                        return "perCall";
+                    }
+                };
+                break;
+            case "secure":
+                randomSource = RandomSource.secure();
+                break;
+            case "buffered":
+                randomSource = RandomSource.buffered(RandomSource.DEFAULT_BUFFER_SIZE);
+                break;
+            default:
+                randomSource = RandomSource.seeded(BenchmarkData.SEED);
+        }
+        p = BenchmarkData.prime(pLength);
+        qMinusOne = BenchmarkData.prime(256).subtract(ONE);
+    }
+
+    @Benchmark
+    public Pair<BigInteger, BigInteger> shamirKeySetup() {
+        return CryptoUtils.generateShamir(p, randomSource);
+    }
+
+    @Benchmark
+    public BigInteger signatureNonce() {
+        return CryptoUtils.generateRandom(ONE, qMinusOne, false, randomSource);
+    }
+
+    @Benchmark
+    public BigInteger prime256() {
+        return CryptoUtils.generateRandom(256, true, randomSource);
+    }
+
+}
@@ -0,0 +1,85 @@
+package ru.sibsutis.security.benchmarks;
+
+import org.apache.commons.io.output.NullOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.sibsutis.security.encrypt.PrimePool;
+import ru.sibsutis.security.encrypt.RandomSource;
+import ru.sibsutis.security.encrypt.RsaCommunicator;
+import ru.sibsutis.security.encrypt.ShamirCommunicator;
+import ru.sibsutis.security.net.Communicator;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+// One message in the RSA scheme against Shamir block mode with p of the modulus size, keys set up beforehand.
+// rsaNoCrt decrypts with a single c^d mod n instead of the two half-size exponentiations.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class RsaBenchmark {
+
+    @Param({"1024", "2048"})
+    public int keyLength;
+
+    @Param({"4096"})
+    public int messageSize;
+
+    @Param({"rsa", "rsaNoCrt", "shab"})
+    public String scheme;
+
+    private byte[] message;
+    private Communicator client;
+    private Communicator server;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        BenchmarkData.silenceStdout();
+        message = BenchmarkData.message(messageSize);
+
+        if (scheme.startsWith("rsa")) {
+            client = RsaCommunicator.builder(keyLength).build();
+            server = RsaCommunicator.builder(keyLength)
+                    .setRandomSource(RandomSource.seeded(BenchmarkData.SEED))
+                    .setCrt("rsa".equals(scheme))
+                    .build();
+        } else {
+            Path cacheFile = Files.createTempFile("rsa-benchmark", ".primes");
+            cacheFile.toFile().deleteOnExit();
+            String cacheLine = keyLength + ":" + BenchmarkData.prime(keyLength).toString(16);
+            Files.write(cacheFile, cacheLine.getBytes(StandardCharsets.UTF_8));
+            PrimePool primePool = new PrimePool(1, cacheFile);
+            primePool.load();
+
+            client = ShamirCommunicator.builder(keyLength)
+                    .setBlockMode(true)
+                    .setPrimePool(primePool)
+                    .build();
+            server = ShamirCommunicator.builder(keyLength).setBlockMode(true).build();
+        }
+        send();
+    }
+
+    @Benchmark
+    public void send() throws IOException {
+        client.sendMessage(new ByteArrayInputStream(message), server, NullOutputStream.NULL_OUTPUT_STREAM, false);
+    }
+
+}
@@ -0,0 +1,83 @@
+package ru.sibsutis.security.benchmarks;
+
+import org.apache.commons.io.output.NullOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.sibsutis.security.encrypt.PrimePool;
+import ru.sibsutis.security.encrypt.ShamirCommunicator;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+// Time to send one message once p and the session keys are set up, so it is pure block encryption
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class ShamirBenchmark {
+
+    @Param({"256", "512", "1024"})
+    public int spLength;
+
+    @Param({"256", "4096"})
+    public int messageSize;
+
+    @Param({"block", "byte"})
+    public String mode;
+
+    @Param({"1"})
+    public int workers;
+
+    // true sends the blocks through MontgomeryEngine instead of BigInteger.modPow
+    @Param({"false"})
+    public boolean montgomery;
+
+    private byte[] message;
+    private ShamirCommunicator client;
+    private ShamirCommunicator server;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        BenchmarkData.silenceStdout();
+        message = BenchmarkData.message(messageSize);
+
+        // p comes from a pool preloaded with the seeded prime instead of a fresh random one
+        Path cacheFile = Files.createTempFile("shamir-benchmark", ".primes");
+        cacheFile.toFile().deleteOnExit();
+        String cacheLine = spLength + ":" + BenchmarkData.prime(spLength).toString(16);
+        Files.write(cacheFile, cacheLine.getBytes(StandardCharsets.UTF_8));
+        PrimePool primePool = new PrimePool(1, cacheFile);
+        primePool.load();
+
+        client = ShamirCommunicator.builder(spLength)
+                .setBlockMode("block".equals(mode))
+                .setWorkers(workers)
+                .setPrimePool(primePool)
+                .setMontgomery(montgomery)
+                .build();
+        server = ShamirCommunicator.builder(spLength).build();
+        send();
+    }
+
+    @Benchmark
+    public void send() throws IOException {
+        client.sendMessage(new ByteArrayInputStream(message), server, NullOutputStream.NULL_OUTPUT_STREAM, false);
+    }
+
+}
@@ -0,0 +1,104 @@
+package ru.sibsutis.security.benchmarks;
+
+import org.apache.commons.io.output.NullOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.sibsutis.security.encrypt.PrimePool;
+import ru.sibsutis.security.net.ShamirTcpClient;
+import ru.sibsutis.security.net.ShamirTcpServer;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+// One message over the loopback Shamir TCP transport to an in-process server, p and the connection setup included.
+// batchSize 1 with window 1 is the lock-step protocol, one round trip per block.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class TcpShamirBenchmark {
+
+    @Param({"512"})
+    public int spLength;
+
+    @Param({"4096", "65536"})
+    public int messageSize;
+
+    @Param({"1", "64"})
+    public int batchSize;
+
+    @Param({"1", "8"})
+    public int window;
+
+    private byte[] message;
+    private ShamirTcpServer server;
+    private Thread serverThread;
+    private ShamirTcpClient client;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        BenchmarkData.silenceStdout();
+        message = BenchmarkData.message(messageSize);
+
+        server = new ShamirTcpServer(
+                new InetSocketAddress("127.0.0.1", 0),
+                sessionId -> NullOutputStream.NULL_OUTPUT_STREAM,
+                false
+        );
+        serverThread = new Thread(() -> {
+            try {
+                server.serve(0);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, "shamir-tcp-server");
+        serverThread.setDaemon(true);
+        serverThread.start();
+
+        Path cacheFile = Files.createTempFile("tcp-shamir-benchmark", ".primes");
+        cacheFile.toFile().deleteOnExit();
+        String cacheLine = spLength + ":" + BenchmarkData.prime(spLength).toString(16);
+        Files.write(cacheFile, cacheLine.getBytes(StandardCharsets.UTF_8));
+        PrimePool primePool = new PrimePool(1, cacheFile);
+        primePool.load();
+
+        client = ShamirTcpClient.builder(server.getAddress(), spLength)
+                .setBlockMode(true)
+                .setPrimePool(primePool)
+                .setBatchSize(batchSize)
+                .setWindow(window)
+                .build();
+        send();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        server.close();
+        serverThread.join();
+    }
+
+    @Benchmark
+    public long send() throws IOException {
+        return client.send(new ByteArrayInputStream(message), false);
+    }
+
+}
@@ -1,16 +1,38 @@
 package ru.sibsutis.security;
 
 import org.apache.commons.cli.*;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.NullOutputStream;
 import ru.sibsutis.security.cli.CliOption;
 import ru.sibsutis.security.cli.CliProcessor;
+import ru.sibsutis.security.encrypt.RandomSource;
+import ru.sibsutis.security.io.UnframingOutputStream;
+import ru.sibsutis.security.metrics.Metrics;
+import ru.sibsutis.security.metrics.Phase;
+import ru.sibsutis.security.net.BatchProcessor;
+import ru.sibsutis.security.net.Digester;
+import ru.sibsutis.security.net.EngineCache;
 import ru.sibsutis.security.net.EntityFactory;
 import ru.sibsutis.security.net.Sender;
+import ru.sibsutis.security.net.SessionEngine;
+import ru.sibsutis.security.net.SharedResources;
+import ru.sibsutis.security.net.SignatureScheme;
+import ru.sibsutis.security.net.ShamirTcpClient;
+import ru.sibsutis.security.net.ShamirTcpServer;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
-import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.util.List;
 
 public class Cryptor {
 
+    private static final String METRICS_PROPERTY = "cryptor.metrics";
+
     public static void main(String[] args) {
         CommandLineParser parser = new DefaultParser(true);
         Options options = CliOption.getOptions();
@@ -19,52 +41,295 @@ public class Cryptor {
             CommandLine commandLine = parser.parse(options, args);
             CliProcessor cliProcessor = new CliProcessor(commandLine);
 
-            if (cliProcessor.isNeedHelp()) {
-                showHelp(options);
+            // Thin client: the daemon does the work, nothing else is loaded here
+            if (cliProcessor.getDaemonClientAddress() != null) {
+                int exitCode = CryptorClient.forward(cliProcessor.getDaemonClientAddress(), commandLine);
+                if (exitCode != 0) {
+                    System.exit(exitCode);
+                }
+                return;
+            }
+            if (cliProcessor.getDaemonAddress() != null) {
+                CryptorDaemon.serve(cliProcessor.getDaemonAddress(), cliProcessor.isVerbose());
                 return;
             }
+        } catch (ParseException e) {
+            showHelp(options);
+            return;
+        }
+        run(args, null);
+    }
 
-            boolean isVerbose = cliProcessor.isVerbose();
+    // One invocation; the daemon passes its warm resources, a standalone run has none
+    static void run(String[] args, SharedResources sharedResources) {
+        CommandLineParser parser = new DefaultParser(true);
+        Options options = CliOption.getOptions();
 
-            Sender sender;
+        try {
+            CommandLine commandLine = parser.parse(options, args);
+            CliProcessor cliProcessor = new CliProcessor(commandLine);
 
-            try { // Send message
-                EntityFactory entityFactory = new EntityFactory(cliProcessor);
-                sender = Sender.builder()
-                        .setNeedDigest(cliProcessor.isNeedDigest())
-                        .setVerbose(isVerbose)
-                        .build(entityFactory);
-                sender.send(cliProcessor.getMessageStream());
-            } catch (Exception ex) {
-                System.out.println("Cryptor: Cannot send message");
-                if (isVerbose) {
-                    ex.printStackTrace();
-                }
+            if (cliProcessor.isNeedHelp()) {
+                showHelp(options);
                 return;
             }
 
-            // Check out delivered message
-            try (FileOutputStream outputStream = cliProcessor.getOutputFileStream()) {
-                ByteArrayOutputStream deliveredMessageStream = sender.getSentMessageStream();
-                if (outputStream != null) {
-                    deliveredMessageStream.writeTo(outputStream);
+            // Delivered message goes to stdout, so the process logging is moved to stderr
+            PrintStream stdout = System.out;
+            if (cliProcessor.isStandardOutput()) {
+                System.setOut(System.err);
+            }
+
+            // -Dcryptor.metrics=true collects the same statistics for JMX and JFR without printing them
+            if (cliProcessor.isStats() || Boolean.getBoolean(METRICS_PROPERTY)) {
+                Metrics.enable();
+                Metrics.registerMBean(EngineCache.getDefault(), "EngineCache", "default");
+            }
+            if (cliProcessor.isStats() && sharedResources != null) {
+                Metrics.reset();
+            }
+            RandomSource.setCurrent(cliProcessor.getRandomSource());
+            if (cliProcessor.isVerbose()) {
+                System.out.printf("Cryptor: random source '%s'%n", RandomSource.current());
+            }
+
+            try (EntityFactory entityFactory = new EntityFactory(cliProcessor, sharedResources)) {
+                if (cliProcessor.isGostGenerate() && !cliProcessor.hasMessage()) {
+                    generateGOSTParameters(cliProcessor, entityFactory);
+                    return;
+                }
+                if (cliProcessor.getListenAddress() != null) {
+                    listen(cliProcessor, entityFactory, stdout);
+                } else if (cliProcessor.getBatchInput() != null) {
+                    batch(cliProcessor, entityFactory);
+                } else if (cliProcessor.getLoadSessions() > 0) {
+                    load(cliProcessor, entityFactory);
+                } else if (cliProcessor.getRemoteAddress() != null) {
+                    sendRemote(cliProcessor, entityFactory);
                 } else {
-                    System.out.printf(
-                            "Cryptor: Sent message: %s",
-                            deliveredMessageStream.toString("UTF-8")
-                    );
+                    send(cliProcessor, entityFactory, stdout);
                 }
-            } catch (Exception ex) {
-                System.out.println("Cryptor: Cannot check out delivered message");
-                if (isVerbose) {
-                    ex.printStackTrace();
+            } finally {
+                if (cliProcessor.isStats()) {
+                    Metrics.printSummary();
                 }
+                System.setOut(stdout);
             }
         } catch (ParseException e) {
             showHelp(options);
         }
     }
 
+    private static void generateGOSTParameters(CliProcessor cliProcessor, EntityFactory entityFactory) {
+        if (cliProcessor.getGostKeysPath() == null) {
+            System.out.println("Cryptor: gostKeys file has to be specified to generate parameters");
+            return;
+        }
+        boolean gost2012 = cliProcessor.getSignature() == SignatureScheme.GOST_34_10_2012;
+        String what = gost2012 ? "GOST R34.10-2012 keys" : "GOST R34.10-94 parameters";
+        try {
+            if (gost2012) {
+                entityFactory.loadGOST2012Keys();
+            } else {
+                entityFactory.loadGOST94Parameters();
+            }
+            System.out.printf("Cryptor: %s saved to '%s'%n", what, cliProcessor.getGostKeysPath());
+        } catch (Exception ex) {
+            System.out.printf("Cryptor: Cannot generate %s%n", what);
+            if (cliProcessor.isVerbose()) {
+                ex.printStackTrace();
+            }
+        }
+    }
+
+    private static void send(CliProcessor cliProcessor, EntityFactory entityFactory, PrintStream stdout) {
+        boolean isVerbose = cliProcessor.isVerbose();
+
+        Sender sender;
+        InputStream messageStream;
+        OutputStream outputStream;
+
+        try { // Prepare sender and message streams
+            sender = Sender.builder()
+                    .setNeedDigest(cliProcessor.isNeedDigest())
+                    .setVerbose(isVerbose)
+                    .setPipelineDepth(cliProcessor.getPipelineDepth())
+                    .build(entityFactory);
+            messageStream = Metrics.instrument(cliProcessor.openMessageStream(), Phase.READ);
+        } catch (Exception ex) {
+            System.out.println("Cryptor: Cannot send message");
+            if (isVerbose) {
+                ex.printStackTrace();
+            }
+            return;
+        }
+
+        try {
+            outputStream = Metrics.instrument(cliProcessor.openOutputStream(stdout), Phase.WRITE);
+        } catch (Exception ex) {
+            System.out.println("Cryptor: Cannot check out delivered message");
+            if (isVerbose) {
+                ex.printStackTrace();
+            }
+            IOUtils.closeQuietly(messageStream);
+            return;
+        }
+
+        // Send message and check out delivered message
+        try (InputStream input = messageStream; OutputStream output = outputStream) {
+            if (output != null) {
+                sender.send(input, output);
+            } else {
+                ByteArrayOutputStream deliveredMessageStream = new ByteArrayOutputStream();
+                sender.send(input, deliveredMessageStream);
+                System.out.printf(
+                        "Cryptor: Sent message: %s",
+                        deliveredMessageStream.toString("UTF-8")
+                );
+            }
+        } catch (Exception ex) {
+            System.out.println("Cryptor: Cannot send message");
+            if (isVerbose) {
+                ex.printStackTrace();
+            }
+        }
+    }
+
+    // Receives messages from remote cryptors until the sessions limit is reached
+    private static void listen(CliProcessor cliProcessor, EntityFactory entityFactory, PrintStream stdout) {
+        boolean isVerbose = cliProcessor.isVerbose();
+        Digester digester = null;
+        try {
+            if (cliProcessor.isNeedDigest()) {
+                digester = entityFactory.createDigester();
+            }
+        } catch (Exception ex) {
+            System.out.println("Cryptor: Cannot receive messages");
+            if (isVerbose) {
+                ex.printStackTrace();
+            }
+            return;
+        }
+
+        Digester sessionDigester = digester;
+        ShamirTcpServer.SinkFactory sinkFactory = sessionId -> {
+            OutputStream output = cliProcessor.openSessionOutputStream(sessionId, stdout);
+            if (output == null) {
+                output = new ByteArrayOutputStream() {
+                    @Override
+                    public void close() throws IOException {
+                        System.out.printf("Cryptor: Received message: %s%n", toString("UTF-8"));
+                    }
+                };
+            }
+            OutputStream sink = new UnframingOutputStream(Metrics.instrument(output, Phase.WRITE));
+            return sessionDigester != null ? sessionDigester.verifyingStream(sink) : sink;
+        };
+
+        try (ShamirTcpServer server = new ShamirTcpServer(
+                cliProcessor.getListenAddress(),
+                sinkFactory,
+                cliProcessor.getListenMaxPLength(),
+                cliProcessor.getListenWorkers(),
+                isVerbose
+        )) {
+            server.serve(cliProcessor.getSessions());
+        } catch (Exception ex) {
+            System.out.println("Cryptor: Cannot receive messages");
+            if (isVerbose) {
+                ex.printStackTrace();
+            }
+        }
+    }
+
+    private static void sendRemote(CliProcessor cliProcessor, EntityFactory entityFactory) {
+        boolean isVerbose = cliProcessor.isVerbose();
+        InetSocketAddress remoteAddress = cliProcessor.getRemoteAddress();
+        try {
+            ShamirTcpClient client = entityFactory.createShamirTcpClient(remoteAddress);
+            Digester digester = cliProcessor.isNeedDigest() ? entityFactory.createDigester() : null;
+            try (InputStream messageStream = Metrics.instrument(cliProcessor.openMessageStream(), Phase.READ)) {
+                InputStream messageToSend = digester != null ? digester.signingStream(messageStream) : messageStream;
+                long delivered = client.send(messageToSend, isVerbose);
+                System.out.printf("Cryptor: Sent %s bytes to %s%n", delivered, remoteAddress);
+            }
+        } catch (Exception ex) {
+            System.out.println("Cryptor: Cannot send message");
+            if (isVerbose) {
+                ex.printStackTrace();
+            }
+        }
+    }
+
+    private static void batch(CliProcessor cliProcessor, EntityFactory entityFactory) {
+        boolean isVerbose = cliProcessor.isVerbose();
+        try {
+            List<BatchProcessor.Job> jobs = BatchProcessor.resolve(cliProcessor.getBatchInput());
+            Digester digester = cliProcessor.isNeedDigest() ? entityFactory.createDigester() : null;
+            SessionEngine.SenderFactory senderFactory = () -> Sender.builder()
+                    .setNeedDigest(digester != null)
+                    .setDigester(digester)
+                    .setVerbose(isVerbose)
+                    .setPipelineDepth(0)
+                    .build(entityFactory);
+            System.out.printf("Cryptor: %s files in batch '%s'%n", jobs.size(), cliProcessor.getBatchInput());
+            try (BatchProcessor batchProcessor = BatchProcessor.builder(senderFactory)
+                    .setWorkers(cliProcessor.getBatchWorkers())
+                    .setOutputDirectory(cliProcessor.getOutputDirectory())
+                    .setVerbose(isVerbose)
+                    .build()) {
+                batchProcessor.run(jobs);
+            }
+        } catch (Exception ex) {
+            System.out.println("Cryptor: Cannot process batch");
+            if (isVerbose) {
+                ex.printStackTrace();
+            }
+        }
+    }
+
+    // Synthetic load: the message is sent in many concurrent sessions, each with its own communicators
+    private static void load(CliProcessor cliProcessor, EntityFactory entityFactory) {
+        boolean isVerbose = cliProcessor.isVerbose();
+        int sessions = cliProcessor.getLoadSessions();
+        try {
+            byte[] message;
+            try (InputStream messageStream = cliProcessor.openMessageStream()) {
+                message = IOUtils.toByteArray(messageStream);
+            }
+            Digester digester = cliProcessor.isNeedDigest() ? entityFactory.createDigester() : null;
+            SessionEngine.SenderFactory senderFactory = () -> Sender.builder()
+                    .setNeedDigest(digester != null)
+                    .setDigester(digester)
+                    .setPipelineDepth(0)
+                    .build(entityFactory);
+
+            try (SessionEngine engine = SessionEngine.builder(senderFactory)
+                    .setMaxSessions(cliProcessor.getConcurrentSessions())
+                    .build()) {
+                System.out.printf(
+                        "Cryptor: %s sessions of %s bytes, %s at once%n",
+                        sessions, message.length, cliProcessor.getConcurrentSessions()
+                );
+                for (int i = 0; i < sessions; i++) {
+                    engine.submit(new ByteArrayInputStream(message), NullOutputStream.NULL_OUTPUT_STREAM)
+                            .whenComplete((result, ex) -> {
+                                if (ex != null && isVerbose) {
+                                    ex.printStackTrace();
+                                }
+                            });
+                }
+                engine.awaitIdle();
+                engine.printReport();
+            }
+        } catch (Exception ex) {
+            System.out.println("Cryptor: Cannot run load");
+            if (isVerbose) {
+                ex.printStackTrace();
+            }
+        }
+    }
+
     private static void showHelp(Options options) {
         HelpFormatter helpFormatter = new HelpFormatter();
         helpFormatter.printHelp(
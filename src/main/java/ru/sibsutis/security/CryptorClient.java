@@ -0,0 +1,118 @@
+package ru.sibsutis.security;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Option;
+import ru.sibsutis.security.cli.CliOption;
+import ru.sibsutis.security.cli.CliProcessor;
+import ru.sibsutis.security.net.BatchProcessor;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+// Thin client of CryptorDaemon: forwards the options and prints what the daemon answers.
+// Relative paths are resolved here, because the daemon has its own working directory.
+final class CryptorClient {
+
+    private static final Set<CliOption> PATH_OPTIONS = EnumSet.of(
+            CliOption.FILE, CliOption.OUTPUT, CliOption.PRIME_CACHE, CliOption.GOST_KEYS, CliOption.BATCH
+    );
+
+    private CryptorClient() {}
+
+    // Returns the exit code of the invocation
+    static int forward(InetSocketAddress address, CommandLine commandLine) {
+        Path stdinFile = null;
+        try {
+            List<String> args = new ArrayList<>();
+            for (Option option : commandLine.getOptions()) {
+                CliOption cliOption = find(option);
+                if (cliOption == CliOption.DAEMON_CLIENT) {
+                    continue;
+                }
+                args.add("-" + option.getOpt());
+                if (!option.hasArg()) {
+                    continue;
+                }
+                String value = option.getValue();
+                if (cliOption == CliOption.FILE && CliProcessor.STANDARD_STREAM.equals(value)) {
+                    stdinFile = Files.createTempFile("cryptor", ".stdin");
+                    Files.copy(System.in, stdinFile, StandardCopyOption.REPLACE_EXISTING);
+                    value = stdinFile.toString();
+                } else if (PATH_OPTIONS.contains(cliOption) && !CliProcessor.STANDARD_STREAM.equals(value)) {
+                    value = cliOption == CliOption.BATCH && value.startsWith(BatchProcessor.MANIFEST_PREFIX)
+                            ? BatchProcessor.MANIFEST_PREFIX
+                                    + absolutize(value.substring(BatchProcessor.MANIFEST_PREFIX.length()))
+                            : absolutize(value);
+                }
+                args.add(value);
+            }
+            return exchange(address, args.toArray(new String[0]));
+        } catch (IOException e) {
+            System.err.printf("Cryptor: cannot reach daemon on %s: %s%n", address, e.getMessage());
+            return 2;
+        } finally {
+            if (stdinFile != null) {
+                stdinFile.toFile().delete();
+            }
+        }
+    }
+
+    private static int exchange(InetSocketAddress address, String[] args) throws IOException {
+        byte[] token = DaemonProtocol.readToken(address.getPort());
+        try (Socket socket = new Socket(address.getAddress(), address.getPort())) {
+            socket.setTcpNoDelay(true);
+            DaemonProtocol.writeRequest(new DataOutputStream(socket.getOutputStream()), token, args);
+            DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            byte[] buffer = new byte[8192];
+            while (true) {
+                byte channel;
+                try {
+                    channel = input.readByte();
+                } catch (EOFException e) {
+                    throw new IOException("connection closed before the invocation ended");
+                }
+                if (channel == DaemonProtocol.END) {
+                    System.out.flush();
+                    System.err.flush();
+                    return input.readInt();
+                }
+                OutputStream target = channel == DaemonProtocol.STDERR ? System.err : System.out;
+                int remaining = input.readInt();
+                while (remaining > 0) {
+                    int count = Math.min(remaining, buffer.length);
+                    input.readFully(buffer, 0, count);
+                    target.write(buffer, 0, count);
+                    remaining -= count;
+                }
+            }
+        }
+    }
+
+    private static String absolutize(String value) {
+        Path path = Paths.get(value);
+        return path.isAbsolute() ? value : Paths.get("").toAbsolutePath().resolve(value).toString();
+    }
+
+    private static CliOption find(Option option) {
+        return Arrays.stream(CliOption.values())
+                .filter(cliOption -> cliOption.getOption().getOpt().equals(option.getOpt()))
+                .findFirst()
+                .orElse(null);
+    }
+
+}
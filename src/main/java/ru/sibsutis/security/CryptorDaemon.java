@@ -0,0 +1,201 @@
+package ru.sibsutis.security;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.ParseException;
+import ru.sibsutis.security.cli.CliOption;
+import ru.sibsutis.security.net.SharedResources;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.file.Files;
+import java.util.EnumSet;
+import java.util.Set;
+
+// Resident Cryptor: invocations forwarded by CryptorClient run in this JVM, so they skip the JVM startup,
+// the class loading and the JIT warm-up, and share the prime pools and GOST parameters of SharedResources.
+// Every class reports through System.out, so invocations are served one at a time with stdout and stderr
+// redirected to the connection. A client has to send the request within REQUEST_TIMEOUT_MILLIS, so an idle
+// or slow connection cannot hold the others up for longer.
+final class CryptorDaemon {
+
+    private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+    private static final int REQUEST_TIMEOUT_MILLIS = 10_000;
+    private static final int REFUSED_EXIT_CODE = 2;
+
+    // Listening would block the daemon for good, and another daemon or forwarding has no point in it
+    private static final Set<CliOption> LOCAL_OPTIONS = EnumSet.of(
+            CliOption.LISTEN, CliOption.DAEMON, CliOption.DAEMON_CLIENT
+    );
+
+    private CryptorDaemon() {}
+
+    static void serve(InetSocketAddress address, boolean verbose) {
+        // Whoever connects runs Cryptor with the daemon's file access: it stays on the local host and serves
+        // only the clients holding the token
+        if (address.getAddress() == null || !address.getAddress().isLoopbackAddress()) {
+            System.out.printf("Cryptor daemon: %s is not a loopback address%n", address);
+            return;
+        }
+        PrintStream stdout = System.out;
+        PrintStream stderr = System.err;
+        InputStream stdin = System.in;
+        SharedResources sharedResources = new SharedResources();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> closeResources(sharedResources, stderr)));
+
+        try (ServerSocket serverSocket = new ServerSocket(address.getPort(), 50, address.getAddress())) {
+            int port = serverSocket.getLocalPort();
+            byte[] token = DaemonProtocol.createToken(port);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> deleteToken(port)));
+            stdout.printf("Cryptor daemon: listening on %s%n", serverSocket.getLocalSocketAddress());
+            if (verbose) {
+                stdout.printf("Cryptor daemon: access token in '%s'%n", DaemonProtocol.tokenFile(port));
+            }
+            long served = 0;
+            while (!serverSocket.isClosed()) {
+                try (Socket socket = serverSocket.accept()) {
+                    long timeMark = System.nanoTime();
+                    serveInvocation(socket, token, sharedResources);
+                    served++;
+                    if (verbose) {
+                        stdout.printf(
+                                "Cryptor daemon: invocation %s served in %.3f ms%n",
+                                served, (System.nanoTime() - timeMark) / 1e6
+                        );
+                    }
+                } catch (IOException e) {
+                    stdout.printf("Cryptor daemon: invocation failed: %s%n", e.getMessage());
+                    if (verbose) {
+                        e.printStackTrace(stderr);
+                    }
+                } finally {
+                    System.setOut(stdout);
+                    System.setErr(stderr);
+                    System.setIn(stdin);
+                }
+            }
+        } catch (IOException e) {
+            stdout.printf("Cryptor daemon: cannot listen on %s%n", address);
+            if (verbose) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private static void serveInvocation(Socket socket, byte[] token, SharedResources sharedResources)
+            throws IOException {
+        DataInputStream input = new DataInputStream(new BufferedInputStream(
+                new DeadlineInputStream(socket, System.currentTimeMillis() + REQUEST_TIMEOUT_MILLIS)
+        ));
+        DataOutputStream output = new DataOutputStream(
+                new BufferedOutputStream(socket.getOutputStream(), STREAM_BUFFER_SIZE)
+        );
+        String[] args = DaemonProtocol.readRequest(input, token);
+
+        PrintStream invocationOut = new PrintStream(
+                new DaemonProtocol.ChannelOutputStream(output, DaemonProtocol.STDOUT), false, "UTF-8"
+        );
+        PrintStream invocationErr = new PrintStream(
+                new DaemonProtocol.ChannelOutputStream(output, DaemonProtocol.STDERR), false, "UTF-8"
+        );
+        System.setOut(invocationOut);
+        System.setErr(invocationErr);
+        // stdin of the client is spooled to a file by the client itself
+        System.setIn(new ByteArrayInputStream(new byte[0]));
+
+        int exitCode = 0;
+        CliOption localOption = findLocalOption(args);
+        if (localOption != null) {
+            invocationErr.printf(
+                    "Cryptor daemon: -%s is not served by the daemon, run it without -dc%n",
+                    localOption.getOption().getOpt()
+            );
+            exitCode = REFUSED_EXIT_CODE;
+        } else {
+            try {
+                Cryptor.run(args, sharedResources);
+            } catch (RuntimeException | Error e) {
+                e.printStackTrace(invocationErr);
+                exitCode = 1;
+            }
+        }
+        invocationOut.flush();
+        invocationErr.flush();
+        DaemonProtocol.writeEnd(output, exitCode);
+    }
+
+    // Malformed options are left to Cryptor.run, which prints the help
+    private static CliOption findLocalOption(String[] args) {
+        try {
+            CommandLine commandLine = new DefaultParser(true).parse(CliOption.getOptions(), args);
+            for (CliOption option : LOCAL_OPTIONS) {
+                if (commandLine.hasOption(option.getOption().getOpt())) {
+                    return option;
+                }
+            }
+        } catch (ParseException ignored) {
+            // nothing is run for it anyway
+        }
+        return null;
+    }
+
+    private static void deleteToken(int port) {
+        try {
+            Files.deleteIfExists(DaemonProtocol.tokenFile(port));
+        } catch (IOException ignored) {
+            // a stale token is replaced by the next daemon on the port
+        }
+    }
+
+    private static void closeResources(SharedResources sharedResources, PrintStream stderr) {
+        try {
+            sharedResources.close();
+        } catch (IOException e) {
+            stderr.printf("Cryptor daemon: cannot save primes: %s%n", e.getMessage());
+        }
+    }
+
+    // Socket input with one deadline for the whole request: every read waits only for the time left
+    private static final class DeadlineInputStream extends InputStream {
+        private final Socket socket;
+        private final InputStream in;
+        private final long deadline;
+
+        private DeadlineInputStream(Socket socket, long deadline) throws IOException {
+            this.socket = socket;
+            this.in = socket.getInputStream();
+            this.deadline = deadline;
+        }
+
+        @Override
+        public int read() throws IOException {
+            setTimeout();
+            return in.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            setTimeout();
+            return in.read(b, off, len);
+        }
+
+        private void setTimeout() throws IOException {
+            long left = deadline - System.currentTimeMillis();
+            if (left <= 0) {
+                throw new SocketTimeoutException("Cryptor daemon: request timed out");
+            }
+            socket.setSoTimeout((int) left);
+        }
+    }
+
+}
@@ -0,0 +1,144 @@
+package ru.sibsutis.security;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+
+// Wire format between the thin client and the daemon. The request is the access token, the argument count and
+// the arguments as modified UTF-8; the answer is a sequence of [channel: 1][length: 4][bytes] frames for stdout
+// and stderr closed by [END][exit code: 4].
+// Loopback is not a trust boundary: the daemon runs with its owner's file access, so it serves only clients that
+// can read the token file it keeps in an owner-only directory.
+final class DaemonProtocol {
+
+    static final byte END = 0;
+    static final byte STDOUT = 1;
+    static final byte STDERR = 2;
+
+    static final int TOKEN_SIZE = 32;
+
+    private static final int MAX_ARGUMENTS = 1024;
+    private static final String TOKEN_DIRECTORY = ".cryptor";
+
+    private DaemonProtocol() {}
+
+    // ~/.cryptor/daemon-<port>.token
+    static Path tokenFile(int port) {
+        return Paths.get(System.getProperty("user.home"), TOKEN_DIRECTORY, "daemon-" + port + ".token");
+    }
+
+    // New random token saved readable by the owner only, where the file system can tell
+    static byte[] createToken(int port) throws IOException {
+        byte[] token = new byte[TOKEN_SIZE];
+        new SecureRandom().nextBytes(token);
+        Path file = tokenFile(port);
+        Path directory = file.getParent();
+        boolean posix = FileSystems.getDefault().supportedFileAttributeViews().contains("posix");
+        Files.createDirectories(directory);
+        if (posix) {
+            Files.setPosixFilePermissions(directory, PosixFilePermissions.fromString("rwx------"));
+        }
+        Path tempFile = Files.createTempFile(directory, "daemon", ".tmp");
+        try {
+            if (posix) {
+                Files.setPosixFilePermissions(tempFile, PosixFilePermissions.fromString("rw-------"));
+            }
+            Files.write(tempFile, token);
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+        return token;
+    }
+
+    static byte[] readToken(int port) throws IOException {
+        Path file = tokenFile(port);
+        if (!Files.isRegularFile(file)) {
+            throw new IOException(String.format("no daemon token in '%s'", file));
+        }
+        byte[] token = Files.readAllBytes(file);
+        if (token.length != TOKEN_SIZE) {
+            throw new IOException(String.format("daemon token in '%s' is corrupted", file));
+        }
+        return token;
+    }
+
+    static void writeRequest(DataOutputStream output, byte[] token, String[] args) throws IOException {
+        output.write(token);
+        output.writeInt(args.length);
+        for (String arg : args) {
+            output.writeUTF(arg);
+        }
+        output.flush();
+    }
+
+    static String[] readRequest(DataInputStream input, byte[] expectedToken) throws IOException {
+        byte[] token = new byte[TOKEN_SIZE];
+        input.readFully(token);
+        if (!MessageDigest.isEqual(token, expectedToken)) {
+            throw new IOException("Cryptor daemon: access token rejected");
+        }
+        int count = input.readInt();
+        if (count < 0 || count > MAX_ARGUMENTS) {
+            throw new IOException("Cryptor daemon: malformed request");
+        }
+        String[] args = new String[count];
+        for (int i = 0; i < count; i++) {
+            args[i] = input.readUTF();
+        }
+        return args;
+    }
+
+    static void writeEnd(DataOutputStream output, int exitCode) throws IOException {
+        synchronized (output) {
+            output.writeByte(END);
+            output.writeInt(exitCode);
+            output.flush();
+        }
+    }
+
+    // Output of one channel; stdout and stderr share the connection, so frames are written atomically
+    static final class ChannelOutputStream extends OutputStream {
+        private final DataOutputStream output;
+        private final byte channel;
+
+        ChannelOutputStream(DataOutputStream output, byte channel) {
+            this.output = output;
+            this.channel = channel;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return;
+            }
+            synchronized (output) {
+                output.writeByte(channel);
+                output.writeInt(len);
+                output.write(b, off, len);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            synchronized (output) {
+                output.flush();
+            }
+        }
+    }
+
+}
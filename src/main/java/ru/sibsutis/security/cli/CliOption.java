@@ -9,21 +9,93 @@ public enum CliOption {
     MESSAGE("m", "message",
             true, "Message to encryption"),
     FILE("f", "file",
-            true, "Path to the file to be encrypted"),
+            true, "Path to the file to be encrypted, '-' for stdin"),
     CYPHER("c", "cipher",
             true, "Cipher type. Use one of next values:\n" +
-            "sha - Shamir scheme"),
+            "sha - Shamir scheme\n" +
+            "shab - Shamir scheme with block packing\n" +
+            "hyb - Shamir scheme carrying a session key, the message goes in AES-GCM chunks\n" +
+            "rsa - RSA scheme with OAEP block padding"),
     SHAMIR_P_LENGTH("sp", "spLength",
-            true, "Bit count to P parameter Shamir Scheme"),
+            true, "Bit count to P parameter Shamir Scheme, the largest P accepted when listening " +
+            "(4096 by default)"),
+    RSA_KEY_LENGTH("rk", "rsaKeyLength",
+            true, "Bit count of the RSA modulus (2048 by default)"),
+    REKEY_BLOCKS("rkb", "rekeyBlocks",
+            true, "Shamir scheme rekey after the given count of blocks"),
+    REKEY_BYTES("rkby", "rekeyBytes",
+            true, "Shamir scheme rekey after the given count of message bytes"),
+    REKEY_SECONDS("rkt", "rekeySeconds",
+            true, "Shamir scheme rekey after the given count of seconds"),
+    WORKERS("w", "workers",
+            true, "Count of worker threads encrypting Shamir blocks in parallel, or handling incoming sessions " +
+            "when listening (count of processors by default)"),
+    MONTGOMERY("mont", "montgomery",
+            false, "Shamir exponentiation in Montgomery form without BigInteger allocations per block"),
+    PIPELINE_DEPTH("pd", "pipelineDepth",
+            true, "Count of 64 KB chunks queued between send stages running on their own threads, " +
+            "0 runs the stages one after another (8 by default)"),
+    PRIME_CACHE("pc", "primeCache",
+            true, "Path to the file keeping pregenerated Shamir P parameters between runs"),
+    LISTEN("ls", "listen",
+            true, "Receive messages over TCP on [host:]port (localhost by default) and write them to the output, " +
+            "an output directory gets one file per message"),
+    SESSIONS("ss", "sessions",
+            true, "Messages to receive before the listening cryptor stops, 0 for no limit (1 by default)"),
+    REMOTE("rm", "remote",
+            true, "Send the message over TCP to the cryptor listening on [host:]port"),
+    TCP_BATCH("tb", "tcpBatch",
+            true, "Shamir blocks in one TCP frame (64 by default)"),
+    TCP_WINDOW("tw", "tcpWindow",
+            true, "Shamir TCP frames sent before the first answer comes back (8 by default)"),
     OUTPUT("o", "output",
-            true, "Output file path"),
+            true, "Output file path, '-' for stdout"),
+    MMAP("mm", "mmap",
+            false, "Read the message file through memory mapping and write the output file through FileChannel"),
     GOST_Q_LENGTH("gostq", "gostqLength",
             true, "Bit count to Q parameter DSA (GOST R34.10-94)"),
     GOST_P_LENGTH("gostp", "gostpLength",
             true, "Bit count to P parameter DSA (GOST R34.10-94)"),
+    GOST_KEYS("gostk", "gostKeys",
+            true, "Path to the file keeping DSA (GOST R34.10-94) parameters and keys or GOST R34.10-2012 " +
+            "keys, generated and saved if the file doesn't exist"),
+    GOST_GENERATE("gostg", "gostGenerate",
+            false, "Generate new DSA (GOST R34.10-94) parameters and keys or GOST R34.10-2012 keys into the " +
+            "gostKeys file"),
+    PRIME_CERTAINTY("pct", "primeCertainty",
+            true, "Miller-Rabin certainty of the generated GOST R34.10-94 primes, a composite passes with " +
+            "probability below 2^-certainty (100 by default)"),
+    HASH_ALGORITHM("ha", "hashAlgorithm",
+            true, "Message digest algorithm used by the signature (MD5 for GOST R34.10-94 and SHA-256 for " +
+            "GOST R34.10-2012 by default), e.g. SHA-512"),
+    ENGINE_CACHE_TTL("ect", "engineCacheTtl",
+            true, "Seconds a prepared signature engine with its parameters and keys is reused by the later " +
+            "sends of the same process or daemon, 0 keeps it until it is evicted (by default), -1 turns it off"),
+    RANDOM("rnd", "random",
+            true, "Random source: secure (a SecureRandom per thread, by default), buffered (the same read " +
+            "in 4 KB blocks) or a number seeding a reproducible NOT secure source for benchmarks and tests"),
     SIGNATURE("s", "signature",
             true, "Signature type. Use on of next values:\n" +
-            "gost34.10-94 - GOST R34.10-94 scheme"),
+            "gost34.10-94 - GOST R34.10-94 scheme\n" +
+            "gost34.10-2012 - GOST R34.10-2012 scheme on the 256-bit curve id-tc26-gost-3410-2012-256-paramSetB"),
+    BATCH("b", "batch",
+            true, "Send every file of a directory, of a glob such as 'data/**.bin' or listed in an @manifest " +
+            "file; delivered files are mirrored into the output directory"),
+    BATCH_WORKERS("bw", "batchWorkers",
+            true, "Files sent at once in batch mode (count of processors by default)"),
+    LOAD("ld", "load",
+            true, "Send the message in the given count of concurrent sessions and report sessions per second " +
+            "and latency"),
+    CONCURRENT_SESSIONS("cs", "concurrentSessions",
+            true, "Sessions in flight at once under load, the next one waits for a free slot (256 by default)"),
+    DAEMON("dm", "daemon",
+            true, "Stay resident on the loopback [host:]port and serve invocations forwarded with -dc, " +
+            "keeping primes, GOST parameters and the warmed-up JVM between them. Only clients able to read " +
+            "the daemon's token file ~/.cryptor/daemon-<port>.token are served, -ls is not"),
+    DAEMON_CLIENT("dc", "daemonClient",
+            true, "Forward the other options to the daemon on [host:]port instead of running here"),
+    STATS("st", "stats",
+            false, "Collect timings of the crypto phases (also through JMX and JFR) and print them at the end"),
     VERBOSE("v", "verbose",
             false, "Output of the details of the encryption process"),
     HELP("h", "help",
@@ -2,34 +2,64 @@ package ru.sibsutis.security.cli;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.output.CloseShieldOutputStream;
+import ru.sibsutis.security.encrypt.GOST94Digester;
+import ru.sibsutis.security.encrypt.PrimeSearch;
+import ru.sibsutis.security.encrypt.RandomSource;
+import ru.sibsutis.security.encrypt.RekeyPolicy;
+import ru.sibsutis.security.encrypt.RsaCommunicator;
+import ru.sibsutis.security.io.ChannelOutputStream;
+import ru.sibsutis.security.io.MappedFileInputStream;
+import ru.sibsutis.security.io.Message;
+import ru.sibsutis.security.io.MessageFraming;
 import ru.sibsutis.security.net.CipherScheme;
+import ru.sibsutis.security.net.Sender;
+import ru.sibsutis.security.net.SessionEngine;
+import ru.sibsutis.security.net.ShamirTcpClient;
+import ru.sibsutis.security.net.ShamirTcpServer;
 import ru.sibsutis.security.net.SignatureScheme;
 
-import java.io.ByteArrayInputStream;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.nio.ByteBuffer;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.TimeUnit;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 
 public class CliProcessor {
 
+    // File name standing for stdin (-f) or stdout (-o)
+    public static final String STANDARD_STREAM = "-";
+
+    private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+    private static final String DEFAULT_HOST = "localhost";
+    private static final String RANDOM_SECURE = "secure";
+    private static final String RANDOM_BUFFERED = "buffered";
+
     private final CommandLine commandLine;
 
     public CliProcessor(CommandLine commandLine) {
         this.commandLine = commandLine;
     }
 
-    public ByteArrayInputStream getMessageStream() {
+    // Framed message of -m or -f, the payload array is wrapped behind the header without a copy
+    public Message getMessage() {
         if (commandLine.hasOption(CliOption.MESSAGE.getOption())) {
             String message = commandLine.getOptionValue(CliOption.MESSAGE.getOption());
             if (isVerbose()) {
                 System.out.printf("Cryptor: source message '%s'%n", message);
             }
             byte[] messageBytes = message.getBytes(UTF_8);
-            return bytesToInputStream(messageBytes);
+            return Message.framed(messageBytes);
         }
 
         if (commandLine.hasOption(CliOption.FILE.getOption())) {
@@ -37,7 +67,7 @@ public class CliProcessor {
             Path fileToEncryptionPath = Paths.get(fileName).toAbsolutePath();
             try {
                 byte[] messageBytes = FileUtils.readFileToByteArray(fileToEncryptionPath.toFile());
-                ByteArrayInputStream result = bytesToInputStream(messageBytes);
+                Message result = Message.framed(messageBytes);
                 if (isVerbose()) {
                     System.out.printf("Cryptor: source message file '%s'%n", fileToEncryptionPath);
                 }
@@ -53,6 +83,68 @@ public class CliProcessor {
         return null;
     }
 
+    // Streaming counterpart of getMessage: the file is never loaded onto the heap.
+    // stdin has to be spooled to a temporary file first, because the frame header needs the message size.
+    public InputStream openMessageStream() throws IOException {
+        if (commandLine.hasOption(CliOption.MESSAGE.getOption())) {
+            Message message = getMessage();
+            return message == null ? null : message.asInputStream();
+        }
+
+        if (commandLine.hasOption(CliOption.FILE.getOption())) {
+            String fileName = commandLine.getOptionValue(CliOption.FILE.getOption());
+            Path fileToEncryptionPath;
+            if (STANDARD_STREAM.equals(fileName)) {
+                fileToEncryptionPath = Files.createTempFile("cryptor", ".stdin");
+                fileToEncryptionPath.toFile().deleteOnExit();
+                Files.copy(System.in, fileToEncryptionPath, StandardCopyOption.REPLACE_EXISTING);
+                if (isVerbose()) {
+                    System.out.printf("Cryptor: source message spooled from stdin to '%s'%n", fileToEncryptionPath);
+                }
+            } else {
+                fileToEncryptionPath = Paths.get(fileName).toAbsolutePath();
+                if (isVerbose()) {
+                    System.out.printf("Cryptor: source message file '%s'%n", fileToEncryptionPath);
+                }
+            }
+            if (isMemoryMapped()) {
+                MappedFileInputStream mappedStream = new MappedFileInputStream(fileToEncryptionPath);
+                return MessageFraming.frame(mappedStream, mappedStream.size());
+            }
+            long messageSize = Files.size(fileToEncryptionPath);
+            InputStream fileStream = Files.newInputStream(fileToEncryptionPath);
+            return new BufferedInputStream(MessageFraming.frame(fileStream, messageSize), STREAM_BUFFER_SIZE);
+        }
+        throw new IOException("Message to encryption is not specified");
+    }
+
+    public boolean isStandardOutput() {
+        return STANDARD_STREAM.equals(commandLine.getOptionValue(CliOption.OUTPUT.getOption()));
+    }
+
+    // Streaming counterpart of getOutputFileStream, '-' stands for the given stdout
+    public OutputStream openOutputStream(PrintStream stdout) throws IOException {
+        if (isStandardOutput()) {
+            return CloseShieldOutputStream.wrap(stdout);
+        }
+        if (commandLine.hasOption(CliOption.OUTPUT.getOption())) {
+            String fileName = commandLine.getOptionValue(CliOption.OUTPUT.getOption());
+            Path outputFilePath = Paths.get(fileName).toAbsolutePath();
+            OutputStream result = isMemoryMapped()
+                    ? new ChannelOutputStream(outputFilePath)
+                    : new BufferedOutputStream(Files.newOutputStream(outputFilePath), STREAM_BUFFER_SIZE);
+            if (isVerbose()) {
+                System.out.printf("Cryptor: output message file '%s'%n", outputFilePath);
+            }
+            return result;
+        }
+        return null;
+    }
+
+    public boolean isMemoryMapped() {
+        return commandLine.hasOption(CliOption.MMAP.getOption());
+    }
+
     public boolean isVerbose() {
         return commandLine.hasOption(CliOption.VERBOSE.getOption());
     }
@@ -89,6 +181,160 @@ public class CliProcessor {
         return pLength < 1 ? -1 : pLength;
     }
 
+    public int getRsaKeyLength() {
+        if (!commandLine.hasOption(CliOption.RSA_KEY_LENGTH.getOption())) {
+            return RsaCommunicator.DEFAULT_KEY_LENGTH;
+        }
+        int keyLength = getIntValue(CliOption.RSA_KEY_LENGTH, 1);
+        return keyLength < 1 ? -1 : keyLength;
+    }
+
+    public int getWorkers() {
+        int workers = getIntValue(CliOption.WORKERS, 1);
+        return workers < 1 ? 1 : workers;
+    }
+
+    public InetSocketAddress getListenAddress() {
+        return getAddress(CliOption.LISTEN);
+    }
+
+    public InetSocketAddress getDaemonAddress() {
+        return getAddress(CliOption.DAEMON);
+    }
+
+    public InetSocketAddress getDaemonClientAddress() {
+        return getAddress(CliOption.DAEMON_CLIENT);
+    }
+
+    public InetSocketAddress getRemoteAddress() {
+        return getAddress(CliOption.REMOTE);
+    }
+
+    public int getSessions() {
+        if (!commandLine.hasOption(CliOption.SESSIONS.getOption())) {
+            return 1;
+        }
+        int sessions = getIntValue(CliOption.SESSIONS, 0);
+        return sessions < 0 ? 1 : sessions;
+    }
+
+    public int getTcpBatchSize() {
+        if (!commandLine.hasOption(CliOption.TCP_BATCH.getOption())) {
+            return ShamirTcpClient.DEFAULT_BATCH_SIZE;
+        }
+        int batchSize = getIntValue(CliOption.TCP_BATCH, 1);
+        return batchSize < 1 ? ShamirTcpClient.DEFAULT_BATCH_SIZE : batchSize;
+    }
+
+    public int getTcpWindow() {
+        if (!commandLine.hasOption(CliOption.TCP_WINDOW.getOption())) {
+            return ShamirTcpClient.DEFAULT_WINDOW;
+        }
+        int window = getIntValue(CliOption.TCP_WINDOW, 1);
+        return window < 1 ? ShamirTcpClient.DEFAULT_WINDOW : window;
+    }
+
+    // Output of one received message: the output file, a numbered file in the output directory,
+    // stdout for '-' or null to print the message
+    public OutputStream openSessionOutputStream(int sessionId, PrintStream stdout) throws IOException {
+        if (commandLine.hasOption(CliOption.OUTPUT.getOption()) && !isStandardOutput()) {
+            Path outputPath = Paths.get(commandLine.getOptionValue(CliOption.OUTPUT.getOption())).toAbsolutePath();
+            if (Files.isDirectory(outputPath)) {
+                Path outputFilePath = outputPath.resolve(String.format("message-%s.bin", sessionId));
+                if (isVerbose()) {
+                    System.out.printf("Cryptor: output message file '%s'%n", outputFilePath);
+                }
+                return isMemoryMapped()
+                        ? new ChannelOutputStream(outputFilePath)
+                        : new BufferedOutputStream(Files.newOutputStream(outputFilePath), STREAM_BUFFER_SIZE);
+            }
+        }
+        return openOutputStream(stdout);
+    }
+
+    public boolean isStats() {
+        return commandLine.hasOption(CliOption.STATS.getOption());
+    }
+
+    public boolean isMontgomery() {
+        return commandLine.hasOption(CliOption.MONTGOMERY.getOption());
+    }
+
+    public int getPipelineDepth() {
+        if (!commandLine.hasOption(CliOption.PIPELINE_DEPTH.getOption())) {
+            return Sender.DEFAULT_PIPELINE_DEPTH;
+        }
+        int pipelineDepth = getIntValue(CliOption.PIPELINE_DEPTH, 0);
+        return pipelineDepth < 0 ? Sender.DEFAULT_PIPELINE_DEPTH : pipelineDepth;
+    }
+
+    public String getBatchInput() {
+        return commandLine.getOptionValue(CliOption.BATCH.getOption());
+    }
+
+    // Threads handling the frames of incoming Shamir sessions (count of processors by default)
+    public int getListenWorkers() {
+        if (!commandLine.hasOption(CliOption.WORKERS.getOption())) {
+            return Runtime.getRuntime().availableProcessors();
+        }
+        return getWorkers();
+    }
+
+    // Largest p accepted from a remote client: -sp when it is given
+    public int getListenMaxPLength() {
+        int pLength = getSPLength();
+        return pLength > 0 ? pLength : ShamirTcpServer.DEFAULT_MAX_P_LENGTH;
+    }
+
+    public int getBatchWorkers() {
+        if (!commandLine.hasOption(CliOption.BATCH_WORKERS.getOption())) {
+            return Runtime.getRuntime().availableProcessors();
+        }
+        int workers = getIntValue(CliOption.BATCH_WORKERS, 1);
+        return workers < 1 ? Runtime.getRuntime().availableProcessors() : workers;
+    }
+
+    // Output given as a directory path, null without an output or for stdout
+    public Path getOutputDirectory() {
+        if (!commandLine.hasOption(CliOption.OUTPUT.getOption()) || isStandardOutput()) {
+            return null;
+        }
+        return Paths.get(commandLine.getOptionValue(CliOption.OUTPUT.getOption())).toAbsolutePath();
+    }
+
+    // Count of load sessions, 0 when no load is asked for
+    public int getLoadSessions() {
+        if (!commandLine.hasOption(CliOption.LOAD.getOption())) {
+            return 0;
+        }
+        return Math.max(0, getIntValue(CliOption.LOAD, 1));
+    }
+
+    public int getConcurrentSessions() {
+        if (!commandLine.hasOption(CliOption.CONCURRENT_SESSIONS.getOption())) {
+            return SessionEngine.DEFAULT_MAX_SESSIONS;
+        }
+        int sessions = getIntValue(CliOption.CONCURRENT_SESSIONS, 1);
+        return sessions < 1 ? SessionEngine.DEFAULT_MAX_SESSIONS : sessions;
+    }
+
+    public Path getPrimeCachePath() {
+        if (commandLine.hasOption(CliOption.PRIME_CACHE.getOption())) {
+            return Paths.get(commandLine.getOptionValue(CliOption.PRIME_CACHE.getOption())).toAbsolutePath();
+        }
+        return null;
+    }
+
+    public RekeyPolicy getRekeyPolicy() {
+        int blocks = getIntValue(CliOption.REKEY_BLOCKS, 1);
+        int bytes = getIntValue(CliOption.REKEY_BYTES, 1);
+        int seconds = getIntValue(CliOption.REKEY_SECONDS, 1);
+        if (blocks < 1 && bytes < 1 && seconds < 1) {
+            return RekeyPolicy.NEVER;
+        }
+        return new RekeyPolicy(blocks, bytes, seconds);
+    }
+
     public FileOutputStream getOutputFileStream() {
         if (commandLine.hasOption(CliOption.OUTPUT.getOption())) {
             String fileName = commandLine.getOptionValue(CliOption.OUTPUT.getOption());
@@ -119,10 +365,84 @@ public class CliProcessor {
         return pLength < 1 ? -1 : pLength;
     }
 
+    public Path getGostKeysPath() {
+        if (commandLine.hasOption(CliOption.GOST_KEYS.getOption())) {
+            return Paths.get(commandLine.getOptionValue(CliOption.GOST_KEYS.getOption())).toAbsolutePath();
+        }
+        return null;
+    }
+
+    public boolean isGostGenerate() {
+        return commandLine.hasOption(CliOption.GOST_GENERATE.getOption());
+    }
+
+    public PrimeSearch getPrimeSearch() {
+        int certainty = getIntValue(CliOption.PRIME_CERTAINTY, 1);
+        return PrimeSearch.builder()
+                .setCertainty(certainty < 1 ? PrimeSearch.DEFAULT_CERTAINTY : certainty)
+                .build();
+    }
+
+    // Negative when the engine cache is turned off
+    public long getEngineCacheTtlMillis() {
+        if (!commandLine.hasOption(CliOption.ENGINE_CACHE_TTL.getOption())) {
+            return 0;
+        }
+        int ttl = getIntValue(CliOption.ENGINE_CACHE_TTL, -1);
+        return ttl < 0 ? -1 : TimeUnit.SECONDS.toMillis(ttl);
+    }
+
+    public String getHashAlgorithm() {
+        return getHashAlgorithm(GOST94Digester.DEFAULT_HASH_ALGORITHM);
+    }
+
+    public String getHashAlgorithm(String defaultAlgorithm) {
+        return commandLine.getOptionValue(CliOption.HASH_ALGORITHM.getOption(), defaultAlgorithm);
+    }
+
+    public RandomSource getRandomSource() {
+        String value = commandLine.getOptionValue(CliOption.RANDOM.getOption(), RANDOM_SECURE);
+        if (RANDOM_SECURE.equals(value)) {
+            return RandomSource.secure();
+        }
+        if (RANDOM_BUFFERED.equals(value)) {
+            return RandomSource.buffered(RandomSource.DEFAULT_BUFFER_SIZE);
+        }
+        try {
+            return RandomSource.seeded(Long.parseLong(value));
+        } catch (NumberFormatException ex) {
+            System.out.printf("Cryptor: incorrect %s value: %s%n", CliOption.RANDOM.getOption().getLongOpt(), value);
+            return RandomSource.secure();
+        }
+    }
+
+    public boolean hasMessage() {
+        return commandLine.hasOption(CliOption.MESSAGE.getOption())
+                || commandLine.hasOption(CliOption.FILE.getOption());
+    }
+
     public boolean isNeedHelp() {
         return commandLine.hasOption(CliOption.HELP.getOption());
     }
 
+    private InetSocketAddress getAddress(CliOption option) {
+        if (!commandLine.hasOption(option.getOption())) {
+            return null;
+        }
+        String value = commandLine.getOptionValue(option.getOption()).trim();
+        int separator = value.lastIndexOf(':');
+        String host = separator <= 0 ? DEFAULT_HOST : value.substring(0, separator);
+        try {
+            return new InetSocketAddress(host, Integer.parseInt(value.substring(separator + 1)));
+        } catch (Exception ex) {
+            System.out.printf("Cryptor: incorrect %s value: %s%n", option.getOption().getLongOpt(), value);
+            if (isVerbose()) {
+                ex.printStackTrace();
+            }
+        }
+        return null;
+    }
+
     private int getIntValue(CliOption option, int minValue) {
         if (commandLine.hasOption(option.getOption())) {
             String valueString = commandLine.getOptionValue(option.getOption());
@@ -151,13 +471,4 @@ public class CliProcessor {
         return minValue - 1;
     }
 
-    private ByteArrayInputStream bytesToInputStream(byte[] bytes) {
-        byte[] bytesWithSize = ByteBuffer
-                .allocate(4 + bytes.length)
-                .putInt(bytes.length)
-                .put(bytes)
-                .array();
-        return new ByteArrayInputStream(bytesWithSize);
-    }
-
 }
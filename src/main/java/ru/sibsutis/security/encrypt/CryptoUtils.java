@@ -1,104 +1,105 @@
 package ru.sibsutis.security.encrypt;
 
-import com.google.common.math.BigIntegerMath;
 import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.apache.commons.lang3.tuple.Pair;
+import ru.sibsutis.security.metrics.Metrics;
+import ru.sibsutis.security.metrics.Phase;
 
 import java.math.BigInteger;
-import java.math.RoundingMode;
-import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
 
 import static java.math.BigInteger.ONE;
 import static java.math.BigInteger.ZERO;
 
 public final class CryptoUtils {
 
-    private static final long WAIT_TIMEOUT_10000 = 10000L; // 10 seconds
-    private static final long WAIT_TIMEOUT_100 = 100L; // 100 ms
+    public static final long DEFAULT_TIMEOUT_MILLIS = 10000L;
 
     private static final int MAX_BIT_COUNT = 1024;
 
     private static final BigInteger TWO = ONE.add(ONE);
 
-    private static final int CERTAINTY = 100;
-
     private CryptoUtils() {}
 
     public static BigInteger generateRandom(int pLength, boolean prime) {
-        SecureRandom random = new SecureRandom();
+        return generateRandom(pLength, prime, RandomSource.current());
+    }
+
+    public static BigInteger generateRandom(int pLength, boolean prime, RandomSource randomSource) {
         if (prime) {
-            return BigInteger.probablePrime(pLength, random);
+            long timeMark = Metrics.start();
+            BigInteger result = randomSource.probablePrime(pLength);
+            Metrics.stop(Phase.PRIME_GENERATION, timeMark);
+            return result;
         } else {
-            return new BigInteger(pLength, random);
+            return randomSource.nextBigInteger(pLength);
         }
     }
 
     public static BigInteger generateRandom(BigInteger minValue, BigInteger maxValue, boolean prime) {
-        long timeMark = System.currentTimeMillis();
-        SecureRandom random = new SecureRandom();
-        BigInteger p;
-        int minValueLength;
+        return generateRandom(minValue, maxValue, prime, RandomSource.current());
+    }
 
-        if (minValue.compareTo(ZERO) < 0) {
-            minValueLength = 0;
-        } else {
-            minValueLength = BigIntegerMath.log2(minValue, RoundingMode.FLOOR) + 1;
-        }
+    public static BigInteger generateRandom(
+            BigInteger minValue,
+            BigInteger maxValue,
+            boolean prime,
+            RandomSource randomSource
+    ) {
+        return generateRandom(
+                minValue,
+                maxValue,
+                prime,
+                PrimeSearch.builder().setRandomSource(randomSource).build(),
+                Deadline.after(DEFAULT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)
+        );
+    }
 
-        int maxValueLength;
-        if (maxValue.compareTo(ZERO) < 0) {
-            maxValueLength = 0;
-        } else {
-            maxValueLength = BigIntegerMath.log2(maxValue, RoundingMode.FLOOR) + 1;
-        }
-        if (minValueLength != 0 && maxValueLength != 0 && minValue.compareTo(maxValue) > 0) {
+    // Uniform value of [minValue, maxValue] or, for prime, a prime of it; a negative bound is no bound
+    // (up to MAX_BIT_COUNT bits above). null when the range is empty or holds no prime.
+    public static BigInteger generateRandom(
+            BigInteger minValue,
+            BigInteger maxValue,
+            boolean prime,
+            PrimeSearch search,
+            Deadline deadline
+    ) {
+        if (minValue.signum() < 0 && maxValue.signum() < 0) {
             return null;
-        } else if (minValueLength == 0 && maxValueLength == 0) {
+        }
+        BigInteger lower = minValue.signum() < 0 ? ZERO : minValue;
+        BigInteger upper = maxValue.signum() < 0 ? ONE.shiftLeft(MAX_BIT_COUNT).subtract(ONE) : maxValue;
+        if (lower.compareTo(upper) > 0) {
             return null;
         }
-        int realLength;
-
-        while (true) {
-            if (System.currentTimeMillis() - timeMark > WAIT_TIMEOUT_10000) {
-                throw new IllegalStateException("Random prime waiting time out");
-            }
-            if (minValueLength == maxValueLength) {
-                realLength = minValueLength;
-            } else {
-                if (maxValueLength == 0 || maxValueLength > MAX_BIT_COUNT) {
-                    realLength = minValueLength + random.nextInt(MAX_BIT_COUNT - minValueLength);
-                } else {
-                    realLength = minValueLength + random.nextInt(maxValueLength - minValueLength);
-                }
-                if (realLength < 2) {
-                    continue;
-                }
-            }
-            p = generateRandom(realLength, prime);
-            if (minValue.compareTo(ZERO) >= 0 && p.compareTo(minValue) < 0) {
-                continue;
-            }
-            if (maxValue.compareTo(ZERO) >= 0 && p.compareTo(maxValue) > 0) {
-                continue;
-            }
-            break;
+        if (!prime) {
+            return lower.add(search.getRandomSource().nextBelow(upper.subtract(lower).add(ONE)));
+        }
+        long timeMark = Metrics.start();
+        BigInteger p = search.inRange(lower, upper, deadline);
+        if (p == null) {
+            deadline.check("Random prime");
+        } else {
+            Metrics.stop(Phase.PRIME_GENERATION, timeMark);
         }
         return p;
     }
 
     public static Pair<BigInteger, BigInteger> generateShamir(BigInteger p) {
+        return generateShamir(p, RandomSource.current());
+    }
+
+    public static Pair<BigInteger, BigInteger> generateShamir(BigInteger p, RandomSource randomSource) {
         BigInteger pMinusOne = p.subtract(ONE);
 
         BigInteger c;
         BigInteger d;
 
-        long timeMark = System.currentTimeMillis();
+        Deadline deadline = Deadline.after(DEFAULT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
 
         while (true) {
-            if (System.currentTimeMillis() - timeMark > WAIT_TIMEOUT_10000) {
-                throw new IllegalStateException("Shamir scheme waiting time out");
-            }
-            c = generateRandom(pMinusOne.bitLength(), false);
+            deadline.check("Shamir scheme");
+            c = generateRandom(pMinusOne.bitLength(), false, randomSource);
             if (!c.gcd(pMinusOne).equals(ONE)) {
                 continue;
             }
@@ -110,58 +111,57 @@ public final class CryptoUtils {
 
     public static Pair<Pair<BigInteger, BigInteger>, Pair<BigInteger, BigInteger>>
     generateGOSTParameters(int pLength, int qLength) {
-        BigInteger b;
-        BigInteger a;
-        BigInteger p = null;
-        BigInteger q;
+        return generateGOSTParameters(pLength, qLength, RandomSource.current());
+    }
 
-        boolean found;
-        long timeMarkCommon = System.currentTimeMillis();
+    public static Pair<Pair<BigInteger, BigInteger>, Pair<BigInteger, BigInteger>>
+    generateGOSTParameters(int pLength, int qLength, RandomSource randomSource) {
+        return generateGOSTParameters(
+                pLength,
+                qLength,
+                PrimeSearch.builder().setRandomSource(randomSource).build(),
+                Deadline.after(DEFAULT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)
+        );
+    }
+
+    // p = b * q + 1 of pLength bits: b starts from a random even value giving pLength bits and goes up by 2
+    // through the sieved search, a new q is drawn when the b of pLength bits are over
+    public static Pair<Pair<BigInteger, BigInteger>, Pair<BigInteger, BigInteger>>
+    generateGOSTParameters(int pLength, int qLength, PrimeSearch search, Deadline deadline) {
+        RandomSource randomSource = search.getRandomSource();
+        BigInteger pFirst = ONE.shiftLeft(pLength - 1);
+        BigInteger pLimit = ONE.shiftLeft(pLength).subtract(ONE);
+        long metricsMark = Metrics.start();
 
         while (true) {
-            if (System.currentTimeMillis() - timeMarkCommon > WAIT_TIMEOUT_10000) {
-                throw new IllegalStateException("GOST parameters waiting time out");
+            deadline.check("GOST parameters");
+            BigInteger q = generateRandom(qLength, true, randomSource);
+            BigInteger bFirst = pFirst.add(q).subtract(ONE).divide(q);
+            BigInteger bLast = pLimit.subtract(ONE).divide(q);
+            if (bFirst.compareTo(bLast) > 0) {
+                throw new IllegalArgumentException(
+                        String.format("GOST parameters: no %s bit p for %s bit q", pLength, qLength)
+                );
             }
-            q = generateRandom(qLength, true);
-            found = false;
-            b = TWO;
-            while (b.multiply(q).bitLength() < pLength) {
-                b = b.multiply(TWO);
+            BigInteger b = bFirst.add(randomSource.nextBelow(bLast.subtract(bFirst).add(ONE))).clearBit(0);
+            if (b.compareTo(bFirst) < 0) {
+                b = b.add(TWO);
             }
-            BigInteger testExpression = b.multiply(q).add(ONE);
-            while (testExpression.bitLength() == pLength) {
-                if (testExpression.isProbablePrime(CERTAINTY)) {
-                    found = true;
-                    p = testExpression;
-                    break;
-                }
-                b = b.add(ONE);
-                testExpression = b.multiply(q).add(ONE);
+            BigInteger p = search.progression(b.multiply(q).add(ONE), q.shiftLeft(1), pLimit, deadline);
+            if (p == null) {
+                continue;
             }
-            if (found) {
-                BigInteger g;
-                a = TWO;
-                found = false;
-                long timeMarkForA = System.currentTimeMillis();
-
-                while (true) {
-                    if (System.currentTimeMillis() - timeMarkForA > WAIT_TIMEOUT_100) {
-                        break;
-                    }
-                    g = generateRandom(pLength, false);
-                    a = g.modPow(b, p);
-                    if (a.compareTo(ONE) > 0) {
-                        found = true;
-                        break;
-                    }
-                }
-                if (found) {
-                    break;
+            b = p.subtract(ONE).divide(q);
+
+            // a = g^b has order q unless it is 1
+            while (!deadline.isOver()) {
+                BigInteger a = generateRandom(pLength, false, randomSource).modPow(b, p);
+                if (a.compareTo(ONE) > 0) {
+                    Metrics.stop(Phase.GOST_PARAMETERS, metricsMark);
+                    return new ImmutablePair<>(new ImmutablePair<>(p, q), new ImmutablePair<>(b, a));
                 }
             }
         }
-
-        return new ImmutablePair<>(new ImmutablePair<>(p, q), new ImmutablePair<>(b, a));
     }
 
 }
@@ -0,0 +1,53 @@
+package ru.sibsutis.security.encrypt;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+
+// Time limit of a search that can also be cancelled from another thread
+public final class Deadline {
+
+    private final long deadlineNanos;
+    private final boolean bounded;
+    private volatile boolean cancelled;
+
+    private Deadline(long deadlineNanos, boolean bounded) {
+        this.deadlineNanos = deadlineNanos;
+        this.bounded = bounded;
+    }
+
+    public static Deadline after(long timeout, TimeUnit unit) {
+        return new Deadline(System.nanoTime() + unit.toNanos(timeout), true);
+    }
+
+    public static Deadline never() {
+        return new Deadline(0, false);
+    }
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    // Cancelled or out of time
+    public boolean isOver() {
+        return cancelled || bounded && System.nanoTime() - deadlineNanos > 0;
+    }
+
+    public long remainingNanos() {
+        return bounded ? Math.max(0, deadlineNanos - System.nanoTime()) : Long.MAX_VALUE;
+    }
+
+    // Throws CancellationException when cancelled and IllegalStateException when out of time
+    public void check(String what) {
+        if (cancelled) {
+            throw new CancellationException(what + " cancelled");
+        }
+        if (isOver()) {
+            throw new IllegalStateException(what + " waiting time out");
+        }
+    }
+
+}
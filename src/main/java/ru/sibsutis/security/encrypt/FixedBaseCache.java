@@ -0,0 +1,138 @@
+package ru.sibsutis.security.encrypt;
+
+import java.math.BigInteger;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+public final class FixedBaseCache {
+
+    public static final long DEFAULT_MEMORY_LIMIT = 64L * 1024 * 1024;
+
+    // A table costs a few thousand multiplications, so it is built only for bases used again and again
+    public static final int DEFAULT_USES_BEFORE_TABLE = 8;
+
+    private static final int MAX_TRACKED_BASES = 4096;
+
+    private static final FixedBaseCache DEFAULT = new FixedBaseCache(DEFAULT_MEMORY_LIMIT, DEFAULT_USES_BEFORE_TABLE);
+
+    private final long memoryLimit;
+    private final int usesBeforeTable;
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long memoryBytes;
+
+    private long hits;
+    private long misses;
+
+    public FixedBaseCache(long memoryLimit, int usesBeforeTable) {
+        this.memoryLimit = memoryLimit;
+        this.usesBeforeTable = usesBeforeTable;
+    }
+
+    public static FixedBaseCache getDefault() {
+        return DEFAULT;
+    }
+
+    // Returns null while the base isn't worth a table yet, the caller falls back to BigInteger.modPow
+    public FixedBaseExponentiator get(BigInteger base, BigInteger modulus, int maxExponentBits) {
+        Key key = new Key(base, modulus, maxExponentBits);
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                entry = new Entry();
+                entries.put(key, entry);
+                evict();
+            }
+            if (entry.table != null) {
+                hits++;
+                return entry.table;
+            }
+            misses++;
+            if (++entry.uses < usesBeforeTable || entry.building) {
+                return null;
+            }
+            entry.building = true;
+        }
+
+        FixedBaseExponentiator table = new FixedBaseExponentiator(base, modulus, maxExponentBits);
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                return table;
+            }
+            entry.building = false;
+            if (table.getMemoryBytes() <= memoryLimit) {
+                entry.table = table;
+                memoryBytes += table.getMemoryBytes();
+                evict();
+            }
+        }
+        return table;
+    }
+
+    public synchronized long getMemoryBytes() {
+        return memoryBytes;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        memoryBytes = 0;
+    }
+
+    // Least recently used entries go first, the one just touched is the last in the access order
+    private void evict() {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while ((memoryBytes > memoryLimit || entries.size() > MAX_TRACKED_BASES) && iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (entry.table != null) {
+                memoryBytes -= entry.table.getMemoryBytes();
+            }
+            iterator.remove();
+        }
+    }
+
+    private static final class Entry {
+        private int uses;
+        private boolean building;
+        private FixedBaseExponentiator table;
+    }
+
+    private static final class Key {
+        private final BigInteger base;
+        private final BigInteger modulus;
+        private final int maxExponentBits;
+
+        private Key(BigInteger base, BigInteger modulus, int maxExponentBits) {
+            this.base = base;
+            this.modulus = modulus;
+            this.maxExponentBits = maxExponentBits;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return maxExponentBits == key.maxExponentBits && base.equals(key.base) && modulus.equals(key.modulus);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(base, modulus, maxExponentBits);
+        }
+    }
+
+}
@@ -0,0 +1,114 @@
+package ru.sibsutis.security.encrypt;
+
+import java.math.BigInteger;
+
+public final class FixedBaseExponentiator {
+
+    public static final int DEFAULT_WINDOW = 8;
+
+    private final BigInteger base;
+    private final MontgomeryEngine engine;
+    private final int window;
+    private final int maxExponentBits;
+    // table[i][j] = base^(j * 2^(window * i)) in Montgomery form, so exponentiation needs no squaring at all
+    private final int[][][] table;
+
+    public FixedBaseExponentiator(BigInteger base, BigInteger modulus, int maxExponentBits) {
+        this(base, modulus, maxExponentBits, DEFAULT_WINDOW);
+    }
+
+    public FixedBaseExponentiator(BigInteger base, BigInteger modulus, int maxExponentBits, int window) {
+        this.base = base;
+        this.engine = new MontgomeryEngine(modulus);
+        this.window = window;
+        this.maxExponentBits = maxExponentBits;
+
+        int rows = (maxExponentBits + window - 1) / window;
+        int columns = 1 << window;
+        int[] scratch = engine.newScratch();
+        table = new int[rows][columns][];
+        int[] rowBase = engine.toMontgomery(base);
+        for (int i = 0; i < rows; i++) {
+            table[i][1] = rowBase;
+            for (int j = 2; j < columns; j++) {
+                table[i][j] = engine.newValue();
+                engine.multiply(table[i][j - 1], rowBase, table[i][j], scratch);
+            }
+            int[] nextRowBase = engine.newValue();
+            engine.multiply(table[i][columns - 1], rowBase, nextRowBase, scratch);
+            rowBase = nextRowBase;
+        }
+    }
+
+    public BigInteger getBase() {
+        return base;
+    }
+
+    public BigInteger getModulus() {
+        return engine.getModulus();
+    }
+
+    public BigInteger pow(BigInteger exponent) {
+        if (!accepts(exponent)) {
+            return base.modPow(exponent, engine.getModulus());
+        }
+        int[] scratch = engine.newScratch();
+        int[] result = accumulate(exponent, null, scratch);
+        return result == null ? BigInteger.ONE.mod(engine.getModulus()) : engine.fromMontgomery(result, scratch);
+    }
+
+    // first^e1 * second^e2 mod m: both tables feed one Montgomery accumulator
+    public static BigInteger multiPow(
+            FixedBaseExponentiator first,
+            BigInteger firstExponent,
+            FixedBaseExponentiator second,
+            BigInteger secondExponent
+    ) {
+        BigInteger modulus = first.getModulus();
+        if (!modulus.equals(second.getModulus())
+                || !first.accepts(firstExponent) || !second.accepts(secondExponent)) {
+            return first.pow(firstExponent).multiply(second.pow(secondExponent)).mod(modulus);
+        }
+        int[] scratch = first.engine.newScratch();
+        int[] result = second.accumulate(secondExponent, first.accumulate(firstExponent, null, scratch), scratch);
+        return result == null ? BigInteger.ONE.mod(modulus) : first.engine.fromMontgomery(result, scratch);
+    }
+
+    // Approximate heap footprint of the table, used to bound the cache of tables
+    public long getMemoryBytes() {
+        long valueBytes = 16L + 4L * engine.getLength();
+        return (long) table.length * (table[0].length - 1) * valueBytes;
+    }
+
+    private boolean accepts(BigInteger exponent) {
+        return exponent.signum() >= 0 && exponent.bitLength() <= maxExponentBits;
+    }
+
+    private int[] accumulate(BigInteger exponent, int[] result, int[] scratch) {
+        byte[] exponentBytes = exponent.toByteArray();
+        for (int i = 0; i < table.length; i++) {
+            int digit = digit(exponentBytes, i * window, window);
+            if (digit == 0) {
+                continue;
+            }
+            if (result == null) {
+                result = table[i][digit].clone();
+            } else {
+                engine.multiply(result, table[i][digit], result, scratch);
+            }
+        }
+        return result;
+    }
+
+    // Bits [from, from + width) of a big-endian two's complement magnitude
+    private static int digit(byte[] exponentBytes, int from, int width) {
+        int digit = 0;
+        for (int bit = from + width - 1; bit >= from; bit--) {
+            int index = exponentBytes.length - 1 - (bit >>> 3);
+            int value = index < 0 ? 0 : (exponentBytes[index] >>> (bit & 7)) & 1;
+            digit = (digit << 1) | value;
+        }
+        return digit;
+    }
+
+}
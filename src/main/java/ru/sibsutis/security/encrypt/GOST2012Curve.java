@@ -0,0 +1,712 @@
+package ru.sibsutis.security.encrypt;
+
+import java.math.BigInteger;
+
+// Curve y^2 = x^3 - 3x + b over GF(p) of a GOST R34.10-2012 256-bit parameter set with the base point G of prime
+// order q. Points are kept in Jacobian coordinates (X : Y : Z) = (X / Z^2, Y / Z^3) in 32-bit limbs reduced by
+// p = 2^256 - c, so a scalar multiplication does no field inversion until the affine result. Scalars are taken in
+// fixed windows: fixed points such as G go through a table of signed 6-bit window multiples, other points through
+// 15 precomputed multiples with 4 doublings a window.
+public final class GOST2012Curve {
+
+    private static final int WINDOW = 4;
+    private static final int MULTIPLES = 1 << WINDOW;
+    // Fixed-base digits are signed, -32..32: a negative one takes the stored multiple with y negated
+    private static final int TABLE_WINDOW = 6;
+    private static final int TABLE_MULTIPLES = 1 << (TABLE_WINDOW - 1);
+    private static final BigInteger THREE = BigInteger.valueOf(3);
+
+    // id-tc26-gost-3410-2012-256-paramSetB (the CryptoPro-A parameters of GOST R34.10-2001, RFC 4357)
+    public static final GOST2012Curve PARAM_SET_B = new GOST2012Curve(
+            "id-tc26-gost-3410-2012-256-paramSetB",
+            new BigInteger("FFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFD97", 16),
+            new BigInteger("A6", 16),
+            new BigInteger("FFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFF6C611070995AD10045841B09B761B893", 16),
+            BigInteger.ONE,
+            new BigInteger("8D91E471E0989CDA27DF505A453F2B7635294F2DDF23E3B122ACC99C9E9F1E14", 16)
+    );
+
+    private final String name;
+    private final BigInteger p;
+    private final BigInteger a;
+    private final BigInteger b;
+    private final BigInteger q;
+    private final BigInteger[] base;
+    private final Field field;
+    private volatile Table baseTable;
+
+    private GOST2012Curve(String name, BigInteger p, BigInteger b, BigInteger q, BigInteger x, BigInteger y) {
+        this.name = name;
+        this.p = p;
+        this.a = p.subtract(THREE);
+        this.b = b;
+        this.q = q;
+        base = new BigInteger[]{x, y};
+        field = new Field(p);
+        if (!contains(base)) {
+            throw new IllegalStateException(String.format("GOST R34.10-2012 curve %s: G is not on the curve", name));
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public BigInteger getP() {
+        return p;
+    }
+
+    public BigInteger getA() {
+        return a;
+    }
+
+    public BigInteger getB() {
+        return b;
+    }
+
+    public BigInteger getQ() {
+        return q;
+    }
+
+    // Affine (x, y) of G
+    public BigInteger[] getBase() {
+        return base.clone();
+    }
+
+    // Affine point given as (x, y) lies on the curve; the curve order is q, so any such point but O has order q
+    public boolean contains(BigInteger[] point) {
+        BigInteger x = point[0];
+        BigInteger y = point[1];
+        if (x.signum() < 0 || x.compareTo(p) >= 0 || y.signum() < 0 || y.compareTo(p) >= 0) {
+            return false;
+        }
+        BigInteger right = x.multiply(x).add(a).multiply(x).add(b).mod(p);
+        return y.multiply(y).mod(p).equals(right);
+    }
+
+    // Table of G, built on the first use
+    public Table getBaseTable() {
+        Table table = baseTable;
+        if (table == null) {
+            synchronized (this) {
+                table = baseTable;
+                if (table == null) {
+                    table = new Table(base);
+                    baseTable = table;
+                }
+            }
+        }
+        return table;
+    }
+
+    // Multiples of a fixed point: a scalar multiplication takes one mixed addition a window and no doublings
+    public Table newTable(BigInteger[] point) {
+        return new Table(point);
+    }
+
+    // k * G as affine (x, y), null for O
+    public BigInteger[] multiplyBase(BigInteger k) {
+        return multiply(k, getBaseTable());
+    }
+
+    public BigInteger[] multiply(BigInteger k, Table table) {
+        Workspace workspace = new Workspace();
+        int[][] accumulator = newPoint();
+        table.accumulate(k, accumulator, workspace);
+        return toAffine(accumulator, workspace);
+    }
+
+    public BigInteger[] multiply(BigInteger k, BigInteger[] point) {
+        Workspace workspace = new Workspace();
+        int[][] accumulator = newPoint();
+        accumulateWindowed(k, point, accumulator, workspace);
+        return toAffine(accumulator, workspace);
+    }
+
+    // k1 * G + k2 * point; second is the table of the point or null to take the point through the windows
+    public BigInteger[] multiplyAdd(BigInteger k1, BigInteger k2, BigInteger[] point, Table second) {
+        Workspace workspace = new Workspace();
+        int[][] accumulator = newPoint();
+        getBaseTable().accumulate(k1, accumulator, workspace);
+        int[][] pointPart = newPoint();
+        if (second != null) {
+            second.accumulate(k2, pointPart, workspace);
+        } else {
+            accumulateWindowed(k2, point, pointPart, workspace);
+        }
+        addPoint(accumulator, pointPart, workspace);
+        return toAffine(accumulator, workspace);
+    }
+
+    // accumulator += k * point: 15 multiples, then 4 doublings and one addition a window from the top
+    private void accumulateWindowed(BigInteger k, BigInteger[] point, int[][] accumulator, Workspace workspace) {
+        int[][][] multiples = new int[MULTIPLES][][];
+        multiples[1] = fromAffine(point, workspace);
+        for (int j = 2; j < MULTIPLES; j++) {
+            multiples[j] = copy(multiples[j - 1]);
+            addPoint(multiples[j], multiples[1], workspace);
+        }
+        int[][] result = newPoint();
+        for (int window = (k.bitLength() + WINDOW - 1) / WINDOW - 1; window >= 0; window--) {
+            for (int i = 0; i < WINDOW; i++) {
+                doublePoint(result, workspace);
+            }
+            int digit = digit(k, window, WINDOW);
+            if (digit != 0) {
+                addPoint(result, multiples[digit], workspace);
+            }
+        }
+        addPoint(accumulator, result, workspace);
+    }
+
+    private int[][] newPoint() {
+        return new int[][]{field.newValue(), field.newValue(), field.newValue()};
+    }
+
+    private static int[][] copy(int[][] point) {
+        return new int[][]{point[0].clone(), point[1].clone(), point[2].clone()};
+    }
+
+    private int[][] fromAffine(BigInteger[] point, Workspace workspace) {
+        int[][] result = newPoint();
+        field.toLimbs(point[0], result[0]);
+        field.toLimbs(point[1], result[1]);
+        field.setOne(result[2]);
+        return result;
+    }
+
+    private BigInteger[] toAffine(int[][] point, Workspace workspace) {
+        if (field.isZero(point[2])) {
+            return null;
+        }
+        int[] zInverse = inverse(point[2], workspace);
+        int[] zInverse2 = field.newValue();
+        field.square(zInverse, zInverse2, workspace.scratch);
+        int[] x = field.newValue();
+        field.multiply(point[0], zInverse2, x, workspace.scratch);
+        field.multiply(zInverse2, zInverse, zInverse2, workspace.scratch);
+        int[] y = field.newValue();
+        field.multiply(point[1], zInverse2, y, workspace.scratch);
+        return new BigInteger[]{
+                field.fromLimbs(x),
+                field.fromLimbs(y)
+        };
+    }
+
+    private int[] inverse(int[] value, Workspace workspace) {
+        int[] result = field.newValue();
+        field.toLimbs(field.fromLimbs(value).modInverse(p), result);
+        return result;
+    }
+
+    // dbl-2001-b for a = -3: 3M + 5S
+    private void doublePoint(int[][] point, Workspace w) {
+        int[] x = point[0];
+        int[] y = point[1];
+        int[] z = point[2];
+        if (field.isZero(z)) {
+            return;
+        }
+        int[] t = w.scratch;
+        field.square(z, w.delta, t);
+        field.square(y, w.gamma, t);
+        field.multiply(x, w.gamma, w.beta, t);
+        // alpha = 3 (x - delta)(x + delta)
+        field.subtract(x, w.delta, w.t1);
+        field.add(x, w.delta, w.t2);
+        field.multiply(w.t1, w.t2, w.alpha, t);
+        field.add(w.alpha, w.alpha, w.t1);
+        field.add(w.t1, w.alpha, w.alpha);
+        // z3 = (y + z)^2 - gamma - delta
+        field.add(y, z, w.t1);
+        field.square(w.t1, w.t1, t);
+        field.subtract(w.t1, w.gamma, w.t1);
+        field.subtract(w.t1, w.delta, z);
+        // x3 = alpha^2 - 8 beta
+        field.add(w.beta, w.beta, w.beta);
+        field.add(w.beta, w.beta, w.beta);
+        field.square(w.alpha, x, t);
+        field.subtract(x, w.beta, x);
+        field.subtract(x, w.beta, x);
+        // y3 = alpha (4 beta - x3) - 8 gamma^2
+        field.subtract(w.beta, x, w.t1);
+        field.multiply(w.alpha, w.t1, y, t);
+        field.square(w.gamma, w.t1, t);
+        field.add(w.t1, w.t1, w.t1);
+        field.add(w.t1, w.t1, w.t1);
+        field.add(w.t1, w.t1, w.t1);
+        field.subtract(y, w.t1, y);
+    }
+
+    // point += (x2, y2) given in limbs with Z = 1, madd-2007-bl: 7M + 4S
+    private void addAffinePoint(int[][] point, int[] x2, int[] y2, Workspace w) {
+        int[] x = point[0];
+        int[] y = point[1];
+        int[] z = point[2];
+        if (field.isZero(z)) {
+            System.arraycopy(x2, 0, x, 0, x.length);
+            System.arraycopy(y2, 0, y, 0, y.length);
+            field.setOne(z);
+            return;
+        }
+        int[] t = w.scratch;
+        field.square(z, w.z1z1, t);
+        field.multiply(x2, w.z1z1, w.u2, t);
+        field.multiply(z, w.z1z1, w.s2, t);
+        field.multiply(y2, w.s2, w.s2, t);
+        field.subtract(w.u2, x, w.h);
+        field.subtract(w.s2, y, w.r);
+        if (field.isZero(w.h)) {
+            if (field.isZero(w.r)) {
+                doublePoint(point, w);
+            } else {
+                setInfinity(point);
+            }
+            return;
+        }
+        field.add(w.r, w.r, w.r);
+        field.square(w.h, w.hh, t);
+        field.add(w.hh, w.hh, w.i);
+        field.add(w.i, w.i, w.i);
+        field.multiply(w.h, w.i, w.j, t);
+        field.multiply(x, w.i, w.v, t);
+        // z3 = (z1 + h)^2 - z1z1 - hh
+        field.add(z, w.h, w.t1);
+        field.square(w.t1, w.t1, t);
+        field.subtract(w.t1, w.z1z1, w.t1);
+        field.subtract(w.t1, w.hh, z);
+        finishAddition(point, w);
+    }
+
+    // point += other in Jacobian coordinates, add-2007-bl: 11M + 5S
+    private void addPoint(int[][] point, int[][] other, Workspace w) {
+        int[] x = point[0];
+        int[] y = point[1];
+        int[] z = point[2];
+        if (field.isZero(other[2])) {
+            return;
+        }
+        if (field.isZero(z)) {
+            System.arraycopy(other[0], 0, x, 0, x.length);
+            System.arraycopy(other[1], 0, y, 0, y.length);
+            System.arraycopy(other[2], 0, z, 0, z.length);
+            return;
+        }
+        int[] t = w.scratch;
+        field.square(z, w.z1z1, t);
+        field.square(other[2], w.z2z2, t);
+        field.multiply(x, w.z2z2, w.u1, t);
+        field.multiply(other[0], w.z1z1, w.u2, t);
+        field.multiply(y, other[2], w.s1, t);
+        field.multiply(w.s1, w.z2z2, w.s1, t);
+        field.multiply(other[1], z, w.s2, t);
+        field.multiply(w.s2, w.z1z1, w.s2, t);
+        field.subtract(w.u2, w.u1, w.h);
+        field.subtract(w.s2, w.s1, w.r);
+        if (field.isZero(w.h)) {
+            if (field.isZero(w.r)) {
+                doublePoint(point, w);
+            } else {
+                setInfinity(point);
+            }
+            return;
+        }
+        field.add(w.r, w.r, w.r);
+        field.add(w.h, w.h, w.i);
+        field.square(w.i, w.i, t);
+        field.multiply(w.h, w.i, w.j, t);
+        field.multiply(w.u1, w.i, w.v, t);
+        // z3 = ((z1 + z2)^2 - z1z1 - z2z2) h
+        field.add(z, other[2], w.t1);
+        field.square(w.t1, w.t1, t);
+        field.subtract(w.t1, w.z1z1, w.t1);
+        field.subtract(w.t1, w.z2z2, w.t1);
+        field.multiply(w.t1, w.h, z, t);
+        // the mixed addition has u1 = x1 and s1 = y1
+        System.arraycopy(w.s1, 0, y, 0, y.length);
+        finishAddition(point, w);
+    }
+
+    // x3 = r^2 - j - 2v, y3 = r (v - x3) - 2 y1 j with y1 taken from the point
+    private void finishAddition(int[][] point, Workspace w) {
+        int[] x = point[0];
+        int[] y = point[1];
+        int[] t = w.scratch;
+        field.multiply(y, w.j, w.t2, t);
+        field.add(w.t2, w.t2, w.t2);
+        field.square(w.r, x, t);
+        field.subtract(x, w.j, x);
+        field.subtract(x, w.v, x);
+        field.subtract(x, w.v, x);
+        field.subtract(w.v, x, w.v);
+        field.multiply(w.r, w.v, y, t);
+        field.subtract(y, w.t2, y);
+    }
+
+    private static void setInfinity(int[][] point) {
+        for (int[] coordinate : point) {
+            for (int j = 0; j < coordinate.length; j++) {
+                coordinate[j] = 0;
+            }
+        }
+    }
+
+    // Bits [width * window, width * (window + 1)) of k
+    private static int digit(BigInteger k, int window, int width) {
+        int digit = 0;
+        for (int bit = width * (window + 1) - 1; bit >= width * window; bit--) {
+            digit = (digit << 1) | (k.testBit(bit) ? 1 : 0);
+        }
+        return digit;
+    }
+
+    // Arithmetic of GF(p) for p = 2^256 - c with c below 2^32: a 512-bit product hi * 2^256 + lo is reduced by
+    // folding it into lo + hi * c twice, no division and no Montgomery form. Values are 8 little-endian limbs.
+    private static final class Field {
+        private static final int LENGTH = 8;
+        private static final long MASK = 0xFFFFFFFFL;
+
+        private final BigInteger p;
+        private final long c;
+        // p[0], the lowest limb of p; the others are all ones
+        private final long p0;
+
+        private Field(BigInteger p) {
+            BigInteger c = BigInteger.ONE.shiftLeft(32 * LENGTH).subtract(p);
+            if (p.bitLength() != 32 * LENGTH || c.signum() <= 0 || c.bitLength() >= 32) {
+                throw new IllegalArgumentException("GOST R34.10-2012 curve: p has to be 2^256 - c with c below 2^32");
+            }
+            this.p = p;
+            this.c = c.longValue();
+            p0 = (1L << 32) - this.c;
+        }
+
+        private int[] newValue() {
+            return new int[LENGTH];
+        }
+
+        private int[] newScratch() {
+            return new int[2 * LENGTH];
+        }
+
+        private void setOne(int[] out) {
+            out[0] = 1;
+            for (int j = 1; j < LENGTH; j++) {
+                out[j] = 0;
+            }
+        }
+
+        private boolean isZero(int[] a) {
+            for (int j = 0; j < LENGTH; j++) {
+                if (a[j] != 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // out = a * b mod p; out may be the same array as a or b. Rows of a by the limbs of b held in locals,
+        // written out row by row: ~30% faster than the nested loop
+        private void multiply(int[] a, int[] b, int[] out, int[] t) {
+            long b0 = b[0] & MASK;
+            long b1 = b[1] & MASK;
+            long b2 = b[2] & MASK;
+            long b3 = b[3] & MASK;
+            long b4 = b[4] & MASK;
+            long b5 = b[5] & MASK;
+            long b6 = b[6] & MASK;
+            long b7 = b[7] & MASK;
+            long ai = a[0] & MASK;
+            long carry = 0;
+            carry += ai * b0;
+            t[0] = (int) carry;
+            carry >>>= 32;
+            carry += ai * b1;
+            t[1] = (int) carry;
+            carry >>>= 32;
+            carry += ai * b2;
+            t[2] = (int) carry;
+            carry >>>= 32;
+            carry += ai * b3;
+            t[3] = (int) carry;
+            carry >>>= 32;
+            carry += ai * b4;
+            t[4] = (int) carry;
+            carry >>>= 32;
+            carry += ai * b5;
+            t[5] = (int) carry;
+            carry >>>= 32;
+            carry += ai * b6;
+            t[6] = (int) carry;
+            carry >>>= 32;
+            carry += ai * b7;
+            t[7] = (int) carry;
+            carry >>>= 32;
+            t[8] = (int) carry;
+            for (int i = 1; i < LENGTH; i++) {
+                ai = a[i] & MASK;
+                carry = 0;
+                carry += ai * b0 + (t[i + 0] & MASK);
+                t[i + 0] = (int) carry;
+                carry >>>= 32;
+                carry += ai * b1 + (t[i + 1] & MASK);
+                t[i + 1] = (int) carry;
+                carry >>>= 32;
+                carry += ai * b2 + (t[i + 2] & MASK);
+                t[i + 2] = (int) carry;
+                carry >>>= 32;
+                carry += ai * b3 + (t[i + 3] & MASK);
+                t[i + 3] = (int) carry;
+                carry >>>= 32;
+                carry += ai * b4 + (t[i + 4] & MASK);
+                t[i + 4] = (int) carry;
+                carry >>>= 32;
+                carry += ai * b5 + (t[i + 5] & MASK);
+                t[i + 5] = (int) carry;
+                carry >>>= 32;
+                carry += ai * b6 + (t[i + 6] & MASK);
+                t[i + 6] = (int) carry;
+                carry >>>= 32;
+                carry += ai * b7 + (t[i + 7] & MASK);
+                t[i + 7] = (int) carry;
+                carry >>>= 32;
+                t[i + LENGTH] = (int) carry;
+            }
+            reduce(t, out);
+        }
+
+        // A dedicated squaring saves half of the products but loses more on the doubling pass
+        private void square(int[] a, int[] out, int[] t) {
+            multiply(a, a, out, t);
+        }
+
+        // out = a + b mod p; out may be the same array as a or b
+        private void add(int[] a, int[] b, int[] out) {
+            long carry = 0;
+            for (int j = 0; j < LENGTH; j++) {
+                long sum = (a[j] & MASK) + (b[j] & MASK) + carry;
+                out[j] = (int) sum;
+                carry = sum >>> 32;
+            }
+            // 2^256 = c (mod p)
+            if (carry != 0) {
+                addC(out);
+            }
+            subtractIfNeeded(out);
+        }
+
+        // out = a - b mod p; out may be the same array as a or b
+        private void subtract(int[] a, int[] b, int[] out) {
+            long borrow = 0;
+            for (int j = 0; j < LENGTH; j++) {
+                long difference = (a[j] & MASK) - (b[j] & MASK) - borrow;
+                out[j] = (int) difference;
+                borrow = difference >>> 63;
+            }
+            // a - b + 2^256 is above p here, adding p drops 2^256 and leaves - c
+            if (borrow != 0) {
+                borrow = c;
+                for (int j = 0; j < LENGTH && borrow != 0; j++) {
+                    long difference = (out[j] & MASK) - borrow;
+                    out[j] = (int) difference;
+                    borrow = difference >>> 63;
+                }
+            }
+        }
+
+        // out = -a mod p: p - a limb by limb, p has all the upper limbs ones
+        private void negate(int[] a, int[] out) {
+            if (isZero(a)) {
+                System.arraycopy(a, 0, out, 0, LENGTH);
+                return;
+            }
+            long borrow = 0;
+            for (int j = 0; j < LENGTH; j++) {
+                long difference = (j == 0 ? p0 : MASK) - (a[j] & MASK) - borrow;
+                out[j] = (int) difference;
+                borrow = difference >>> 63;
+            }
+        }
+
+        // t = hi * 2^256 + lo in 16 limbs: lo + hi * c leaves a carry limb below 2^33, folded once more
+        private void reduce(int[] t, int[] out) {
+            long carry = 0;
+            for (int j = 0; j < LENGTH; j++) {
+                long sum = (t[j] & MASK) + (t[j + LENGTH] & MASK) * c + carry;
+                out[j] = (int) sum;
+                carry = sum >>> 32;
+            }
+            long sum = (out[0] & MASK) + carry * c;
+            out[0] = (int) sum;
+            carry = sum >>> 32;
+            for (int j = 1; j < LENGTH && carry != 0; j++) {
+                sum = (out[j] & MASK) + carry;
+                out[j] = (int) sum;
+                carry = sum >>> 32;
+            }
+            // Wrapped past 2^256 again, then the value is small and adding c cannot wrap
+            if (carry != 0) {
+                addC(out);
+            }
+            subtractIfNeeded(out);
+        }
+
+        // out += c ignoring the carry out of 2^256
+        private void addC(int[] out) {
+            long carry = c;
+            for (int j = 0; j < LENGTH && carry != 0; j++) {
+                long sum = (out[j] & MASK) + carry;
+                out[j] = (int) sum;
+                carry = sum >>> 32;
+            }
+        }
+
+        // out >= p means all the upper limbs are ones and the lowest one is at least p[0]; out - p = out + c - 2^256
+        private void subtractIfNeeded(int[] out) {
+            for (int j = 1; j < LENGTH; j++) {
+                if (out[j] != -1) {
+                    return;
+                }
+            }
+            if ((out[0] & MASK) >= p0) {
+                addC(out);
+            }
+        }
+
+        private void toLimbs(BigInteger value, int[] out) {
+            if (value.signum() < 0 || value.compareTo(p) >= 0) {
+                value = value.mod(p);
+            }
+            byte[] bytes = value.toByteArray();
+            for (int j = 0; j < LENGTH; j++) {
+                out[j] = 0;
+            }
+            for (int i = 0; i < bytes.length && i < 4 * LENGTH; i++) {
+                out[i >>> 2] |= (bytes[bytes.length - 1 - i] & 0xFF) << (8 * (i & 3));
+            }
+        }
+
+        private BigInteger fromLimbs(int[] value) {
+            byte[] bytes = new byte[4 * LENGTH + 1];
+            for (int i = 0; i < 4 * LENGTH; i++) {
+                bytes[bytes.length - 1 - i] = (byte) (value[i >>> 2] >>> (8 * (i & 3)));
+            }
+            return new BigInteger(bytes);
+        }
+    }
+
+    // Temporaries of one scalar multiplication
+    private final class Workspace {
+        private final int[] scratch = field.newScratch();
+        private final int[] t1 = field.newValue();
+        private final int[] t2 = field.newValue();
+        private final int[] negativeY = field.newValue();
+        private final int[] delta = field.newValue();
+        private final int[] gamma = field.newValue();
+        private final int[] beta = field.newValue();
+        private final int[] alpha = field.newValue();
+        private final int[] z1z1 = field.newValue();
+        private final int[] z2z2 = field.newValue();
+        private final int[] u1 = field.newValue();
+        private final int[] u2 = field.newValue();
+        private final int[] s1 = field.newValue();
+        private final int[] s2 = field.newValue();
+        private final int[] h = field.newValue();
+        private final int[] hh = field.newValue();
+        private final int[] r = field.newValue();
+        private final int[] i = field.newValue();
+        private final int[] j = field.newValue();
+        private final int[] v = field.newValue();
+    }
+
+    // j * 64^i * P for every window i and digit j up to 32 in affine limbs, converted with a single inversion
+    public final class Table {
+        private final BigInteger[] point;
+        private final int[][][] xs;
+        private final int[][][] ys;
+
+        private Table(BigInteger[] point) {
+            this.point = point.clone();
+            // A signed digit can carry one into the next window, so the windows cover a bit more than q
+            int rows = (q.bitLength() + TABLE_WINDOW) / TABLE_WINDOW;
+            int columns = TABLE_MULTIPLES + 1;
+            Workspace workspace = new Workspace();
+            int[][][] jacobian = new int[rows * columns][][];
+            int[][] rowBase = fromAffine(point, workspace);
+            for (int i = 0; i < rows; i++) {
+                jacobian[i * columns + 1] = copy(rowBase);
+                for (int j = 2; j < columns; j++) {
+                    int[][] multiple = copy(jacobian[i * columns + j - 1]);
+                    addPoint(multiple, rowBase, workspace);
+                    jacobian[i * columns + j] = multiple;
+                }
+                rowBase = copy(jacobian[i * columns + TABLE_MULTIPLES]);
+                doublePoint(rowBase, workspace);
+            }
+
+            // Batch inversion: prefix products of all Z, one inversion, then every 1 / Z from the running inverse
+            int count = jacobian.length;
+            int[][] prefix = new int[count][];
+            int[] running = field.newValue();
+            field.setOne(running);
+            for (int k = 0; k < count; k++) {
+                prefix[k] = running.clone();
+                if (jacobian[k] != null) {
+                    field.multiply(running, jacobian[k][2], running, workspace.scratch);
+                }
+            }
+            int[] inverse = inverse(running, workspace);
+            xs = new int[rows][columns][];
+            ys = new int[rows][columns][];
+            for (int k = count - 1; k >= 0; k--) {
+                if (jacobian[k] == null) {
+                    continue;
+                }
+                int[] zInverse = field.newValue();
+                field.multiply(inverse, prefix[k], zInverse, workspace.scratch);
+                field.multiply(inverse, jacobian[k][2], inverse, workspace.scratch);
+                int[] zInverse2 = field.newValue();
+                field.square(zInverse, zInverse2, workspace.scratch);
+                int[] x = field.newValue();
+                field.multiply(jacobian[k][0], zInverse2, x, workspace.scratch);
+                field.multiply(zInverse2, zInverse, zInverse2, workspace.scratch);
+                int[] y = field.newValue();
+                field.multiply(jacobian[k][1], zInverse2, y, workspace.scratch);
+                xs[k / columns][k % columns] = x;
+                ys[k / columns][k % columns] = y;
+            }
+        }
+
+        public BigInteger[] getPoint() {
+            return point.clone();
+        }
+
+        // Approximate heap footprint of the table
+        public long getMemoryBytes() {
+            long valueBytes = 16L + 4L * Field.LENGTH;
+            return 2L * xs.length * TABLE_MULTIPLES * valueBytes;
+        }
+
+        private void accumulate(BigInteger k, int[][] accumulator, Workspace workspace) {
+            if (k.signum() < 0 || k.compareTo(q) >= 0) {
+                k = k.mod(q);
+            }
+            int carry = 0;
+            for (int i = 0; i < xs.length; i++) {
+                int digit = digit(k, i, TABLE_WINDOW) + carry;
+                carry = 0;
+                if (digit > TABLE_MULTIPLES) {
+                    digit -= 2 * TABLE_MULTIPLES;
+                    carry = 1;
+                }
+                if (digit > 0) {
+                    addAffinePoint(accumulator, xs[i][digit], ys[i][digit], workspace);
+                } else if (digit < 0) {
+                    field.negate(ys[i][-digit], workspace.negativeY);
+                    addAffinePoint(accumulator, xs[i][-digit], workspace.negativeY, workspace);
+                }
+            }
+        }
+    }
+
+}
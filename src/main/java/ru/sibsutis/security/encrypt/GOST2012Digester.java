@@ -0,0 +1,135 @@
+package ru.sibsutis.security.encrypt;
+
+import java.math.BigInteger;
+import java.security.MessageDigest;
+
+import static java.math.BigInteger.ONE;
+import static java.math.BigInteger.ZERO;
+
+public class GOST2012Digester extends SignatureDigester {
+
+    // Streebog is not shipped with the JDK, any available MessageDigest can be chosen instead
+    public static final String DEFAULT_HASH_ALGORITHM = "SHA-256";
+
+    private static final String NAME = "GOST R34.10-2012";
+    // Verifications with the same key after which Q gets its own table: ~4 ms and 130 KB, half off every later one
+    private static final int PUBLIC_TABLE_THRESHOLD = 16;
+
+    private final GOST2012Curve curve;
+    private final BigInteger q;
+    private final BigInteger d;
+    private final BigInteger[] publicKey;
+    private GOST2012Curve.Table publicTable;
+    private int verifications;
+
+    public GOST2012Digester(boolean verbose) {
+        this(generateKeys(verbose), verbose);
+    }
+
+    public GOST2012Digester(GOST2012Keys keys, boolean verbose) {
+        this(keys, DEFAULT_HASH_ALGORITHM, verbose);
+    }
+
+    public GOST2012Digester(GOST2012Keys keys, String hashAlgorithm, boolean verbose) {
+        this(keys, hashAlgorithm, RandomSource.current(), verbose);
+    }
+
+    public GOST2012Digester(GOST2012Keys keys, String hashAlgorithm, RandomSource randomSource, boolean verbose) {
+        super(NAME, hashAlgorithm, randomSource, verbose);
+        curve = keys.getCurve();
+        q = curve.getQ();
+        d = keys.getD();
+        publicKey = keys.getPublicKey();
+        if (verbose) {
+            System.out.println("GOST R34.10-2012 digest: prepared");
+            System.out.printf("GOST R34.10-2012 digest: hash algorithm = %s%n", hashAlgorithm);
+            System.out.printf("GOST R34.10-2012 digest: curve = %s%n", curve.getName());
+            System.out.printf("GOST R34.10-2012 digest: q = %s%n", q);
+            System.out.printf("GOST R34.10-2012 digest: d = %s%n", d);
+            System.out.printf("GOST R34.10-2012 digest: Q = (%s, %s)%n", publicKey[0], publicKey[1]);
+        }
+    }
+
+    private static GOST2012Keys generateKeys(boolean verbose) {
+        if (verbose) {
+            System.out.println("GOST R34.10-2012 digest: preparing...");
+        }
+        return GOST2012Keys.generate();
+    }
+
+    @Override
+    protected BigInteger getOrder() {
+        return q;
+    }
+
+    // e = h mod q, replaced by 1 when it is 0
+    @Override
+    protected BigInteger hashValue(MessageDigest messageDigest) {
+        BigInteger e = super.hashValue(messageDigest);
+        return e.signum() == 0 ? ONE : e;
+    }
+
+    @Override
+    protected BigInteger[] calculateSignature(BigInteger hashValue) {
+        if (d == null) {
+            throw new IllegalStateException("GOST R34.10-2012 digest: private key is absent, message cannot be signed");
+        }
+        BigInteger qMinusOne = q.subtract(ONE);
+        BigInteger k, r, s;
+        while (true) {
+            k = CryptoUtils.generateRandom(ONE, qMinusOne, false, randomSource);
+            if (k == null) {
+                continue;
+            }
+            r = curve.multiplyBase(k)[0].mod(q);
+            if (r.compareTo(ZERO) == 0) {
+                continue;
+            }
+            s = r.multiply(d).add(k.multiply(hashValue)).mod(q);
+            if (s.compareTo(ZERO) == 0) {
+                continue;
+            }
+            break;
+        }
+        return new BigInteger[]{r, s};
+    }
+
+    // e^(-1), z1, z2 and v = x(z1 * G + z2 * Q) mod q, or null for the signature out of range
+    @Override
+    protected BigInteger[] verificationValues(BigInteger hashValue, BigInteger r, BigInteger s) {
+        if (r.compareTo(ZERO) > 0 && r.compareTo(q) < 0 && s.compareTo(ZERO) > 0 && s.compareTo(q) < 0) {
+            BigInteger inverseHash = hashValue.modInverse(q);
+            BigInteger z1 = s.multiply(inverseHash).mod(q);
+            BigInteger z2 = r.negate().multiply(inverseHash).mod(q);
+            BigInteger[] point = curve.multiplyAdd(z1, z2, publicKey, publicTable());
+            BigInteger v = point == null ? ZERO : point[0].mod(q);
+            return new BigInteger[]{inverseHash, z1, z2, v};
+        }
+        return null;
+    }
+
+    @Override
+    protected void printVerificationValues(BigInteger hashValue, BigInteger r, BigInteger s, BigInteger[] values) {
+        System.out.printf("GOST R34.10-2012 digest: e = %s%n", hashValue);
+        System.out.printf("GOST R34.10-2012 digest: e^(-1) = %s%n", values[0]);
+        System.out.printf("GOST R34.10-2012 digest: r = %s%n", r);
+        System.out.printf("GOST R34.10-2012 digest: s = %s%n", s);
+        System.out.printf("GOST R34.10-2012 digest: z1 = %s%n", values[1]);
+        System.out.printf("GOST R34.10-2012 digest: z2 = %s%n", values[2]);
+        System.out.printf("GOST R34.10-2012 digest: v = %s%n", values[3]);
+    }
+
+    @Override
+    public synchronized long getMemoryBytes() {
+        long bytes = memoryBytes(d, publicKey[0], publicKey[1]);
+        return publicTable != null ? bytes + publicTable.getMemoryBytes() : bytes;
+    }
+
+    private synchronized GOST2012Curve.Table publicTable() {
+        if (publicTable == null && ++verifications > PUBLIC_TABLE_THRESHOLD) {
+            publicTable = curve.newTable(publicKey);
+        }
+        return publicTable;
+    }
+
+}
@@ -0,0 +1,131 @@
+package ru.sibsutis.security.encrypt;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Properties;
+
+import static java.math.BigInteger.ONE;
+import static java.math.BigInteger.ZERO;
+
+// Key pair on a standard curve: the private key d and the public point Q = d * G. Domain parameters are fixed by
+// the curve, so the file keeps only the curve name and the keys.
+public final class GOST2012Keys {
+
+    private static final String CURVE = "curve";
+    private static final String D = "d";
+    private static final String X = "x";
+    private static final String Y = "y";
+
+    private final GOST2012Curve curve;
+    private final BigInteger d;
+    private final BigInteger[] publicKey;
+
+    public GOST2012Keys(GOST2012Curve curve, BigInteger d, BigInteger[] publicKey) {
+        this.curve = curve;
+        this.d = d;
+        this.publicKey = publicKey.clone();
+    }
+
+    public static GOST2012Keys generate() {
+        return generate(GOST2012Curve.PARAM_SET_B, RandomSource.current());
+    }
+
+    public static GOST2012Keys generate(GOST2012Curve curve, RandomSource randomSource) {
+        BigInteger q = curve.getQ();
+        BigInteger d = CryptoUtils.generateRandom(ONE, q.subtract(ONE), false, randomSource);
+        return new GOST2012Keys(curve, d, curve.multiplyBase(d));
+    }
+
+    public static GOST2012Keys load(Path path) throws IOException {
+        Properties properties = new Properties();
+        try (InputStream inputStream = Files.newInputStream(path)) {
+            properties.load(inputStream);
+        }
+        String curveName = properties.getProperty(CURVE, GOST2012Curve.PARAM_SET_B.getName()).trim();
+        if (!curveName.equals(GOST2012Curve.PARAM_SET_B.getName())) {
+            throw new IOException(String.format("GOST R34.10-2012 curve '%s' in '%s' is not supported", curveName, path));
+        }
+        GOST2012Keys keys;
+        try {
+            keys = new GOST2012Keys(
+                    GOST2012Curve.PARAM_SET_B,
+                    readValue(properties, D, false),
+                    new BigInteger[]{readValue(properties, X, true), readValue(properties, Y, true)}
+            );
+        } catch (NumberFormatException e) {
+            throw new IOException(String.format("GOST R34.10-2012 keys file '%s' is corrupted", path), e);
+        }
+        if (!keys.isValid()) {
+            throw new IOException(String.format("GOST R34.10-2012 keys in '%s' are inconsistent", path));
+        }
+        return keys;
+    }
+
+    public void save(Path path) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty(CURVE, curve.getName());
+        if (d != null) {
+            properties.setProperty(D, d.toString(16));
+        }
+        properties.setProperty(X, publicKey[0].toString(16));
+        properties.setProperty(Y, publicKey[1].toString(16));
+
+        Path directory = path.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        Path tempFile = Files.createTempFile(directory, "gost2012", ".tmp");
+        // The file keeps the private key, so it is readable by the owner only where it is possible
+        if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+            Files.setPosixFilePermissions(tempFile, PosixFilePermissions.fromString("rw-------"));
+        }
+        try (OutputStream outputStream = Files.newOutputStream(tempFile)) {
+            properties.store(outputStream, "GOST R34.10-2012 key pair");
+        }
+        Files.move(tempFile, path, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    public boolean isValid() {
+        if (!curve.contains(publicKey)) {
+            return false;
+        }
+        if (d == null) {
+            return true;
+        }
+        if (d.compareTo(ZERO) <= 0 || d.compareTo(curve.getQ()) >= 0) {
+            return false;
+        }
+        BigInteger[] expected = curve.multiplyBase(d);
+        return expected[0].equals(publicKey[0]) && expected[1].equals(publicKey[1]);
+    }
+
+    public GOST2012Curve getCurve() {
+        return curve;
+    }
+
+    // Private key is absent for keys that can only verify signatures
+    public BigInteger getD() {
+        return d;
+    }
+
+    public BigInteger[] getPublicKey() {
+        return publicKey.clone();
+    }
+
+    private static BigInteger readValue(Properties properties, String name, boolean required) {
+        String value = properties.getProperty(name);
+        if (value == null) {
+            if (required) {
+                throw new NumberFormatException(String.format("Value '%s' is missing", name));
+            }
+            return null;
+        }
+        return new BigInteger(value.trim(), 16);
+    }
+
+}
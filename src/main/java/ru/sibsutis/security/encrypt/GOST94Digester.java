@@ -1,21 +1,15 @@
 package ru.sibsutis.security.encrypt;
 
-import org.apache.commons.lang3.tuple.Pair;
-import ru.sibsutis.security.net.Digester;
-
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
 import java.math.BigInteger;
-import java.nio.ByteBuffer;
-import java.nio.IntBuffer;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 
 import static java.math.BigInteger.ONE;
 import static java.math.BigInteger.ZERO;
 
-public class GOST94Digester implements Digester {
+public class GOST94Digester extends SignatureDigester {
+
+    public static final String DEFAULT_HASH_ALGORITHM = "MD5";
+
+    private static final String NAME = "GOST R34.10-94";
 
     private final BigInteger p;
     private final BigInteger q;
@@ -23,182 +17,126 @@ public class GOST94Digester implements Digester {
     private final BigInteger y;
     private final BigInteger x;
 
-    private final boolean verbose;
-
     public GOST94Digester(int pBitLength, int qBitLength, boolean verbose) {
-        if (verbose) {
-            System.out.println("GOST R34.10-94 digest: preparing...");
-        }
-        Pair<Pair<BigInteger, BigInteger>, Pair<BigInteger, BigInteger>> parameters =
-                CryptoUtils.generateGOSTParameters(pBitLength, qBitLength);
-        p = parameters.getLeft().getLeft();
-        q = parameters.getLeft().getRight();
-        BigInteger b = parameters.getRight().getLeft();
-        a = parameters.getRight().getRight();
-        x = CryptoUtils.generateRandom(ONE, q.subtract(ONE), false);
-        y = a.modPow(x, p);
-        this.verbose = verbose;
+        this(generateParameters(pBitLength, qBitLength, verbose), verbose);
+    }
+
+    public GOST94Digester(GOST94Parameters parameters, boolean verbose) {
+        this(parameters, DEFAULT_HASH_ALGORITHM, verbose);
+    }
+
+    public GOST94Digester(GOST94Parameters parameters, String hashAlgorithm, boolean verbose) {
+        this(parameters, hashAlgorithm, RandomSource.current(), verbose);
+    }
+
+    public GOST94Digester(
+            GOST94Parameters parameters,
+            String hashAlgorithm,
+            RandomSource randomSource,
+            boolean verbose
+    ) {
+        super(NAME, hashAlgorithm, randomSource, verbose);
+        p = parameters.getP();
+        q = parameters.getQ();
+        a = parameters.getA();
+        x = parameters.getX();
+        y = parameters.getY();
         if (verbose) {
             System.out.println("GOST R34.10-94 digest: prepared");
+            System.out.printf("GOST R34.10-94 digest: hash algorithm = %s%n", hashAlgorithm);
             System.out.printf("GOST R34.10-94 digest: q = %s%n", q);
             System.out.printf("GOST R34.10-94 digest: p = %s%n", p);
-            System.out.printf("GOST R34.10-94 digest: b = %s%n", b);
+            System.out.printf("GOST R34.10-94 digest: b = %s%n", parameters.getB());
             System.out.printf("GOST R34.10-94 digest: a = %s%n", a);
             System.out.printf("GOST R34.10-94 digest: x = %s%n", x);
             System.out.printf("GOST R34.10-94 digest: y = %s%n", y);
         }
     }
 
-    public ByteArrayInputStream digest(ByteArrayInputStream messageStream) throws IOException {
-        System.out.println("GOST R34.10-94 digest: signature calculation...");
-        messageStream.mark(0);
-        BigInteger hashValue = hash(messageStream, q, verbose);
-        messageStream.reset();
-        if (hashValue != null && hashValue.compareTo(ZERO) > 0) {
-            if (verbose) {
-                System.out.printf("GOST R34.10-94 digest: hash = %s%n", hashValue);
-            }
+    @Override
+    protected BigInteger getOrder() {
+        return q;
+    }
 
-            BigInteger qMinusOne = q.subtract(ONE);
-            BigInteger k, r, s;
-            while (true) {
-                k = CryptoUtils.generateRandom(ONE, qMinusOne, false);
-                if (k == null) {
-                    continue;
-                }
-                r = a.modPow(k, p).mod(q);
-                if (r.compareTo(ZERO) == 0) {
-                    continue;
-                }
-                s = (k.multiply(hashValue).add(x.multiply(r))).mod(q);
-                if (s.compareTo(ZERO) == 0) {
-                    continue;
-                }
-                break;
-            }
+    // Fixed-base tables of a and y are accounted by FixedBaseCache
+    @Override
+    public long getMemoryBytes() {
+        return memoryBytes(p, q, a, x, y);
+    }
 
-            System.out.println("GOST R34.10-94 digest: signature calculated");
-            if (verbose) {
-                System.out.printf("GOST R34.10-94 digest: r = %s%n", r);
-                System.out.printf("GOST R34.10-94 digest: s = %s%n", s);
-            }
+    // a and y are fixed for the key, so their powers come from cached fixed-base tables once they are hot
+    private BigInteger powA(BigInteger k) {
+        FixedBaseExponentiator aTable = FixedBaseCache.getDefault().get(a, p, q.bitLength());
+        return aTable != null ? aTable.pow(k) : a.modPow(k, p);
+    }
 
-            byte[] sourceMessage = new byte[messageStream.available()];
-            messageStream.read(sourceMessage);
-            messageStream.reset();
-            byte[] rArray = r.toByteArray();
-            byte[] sArray = s.toByteArray();
-            ByteBuffer byteBuffer = ByteBuffer
-                    .allocate(sourceMessage.length + 4 + rArray.length + 4 + sArray.length);
-            byte[] signedMessage = byteBuffer
-                    .put(sourceMessage)
-                    .putInt(rArray.length)
-                    .put(rArray)
-                    .putInt(sArray.length)
-                    .put(sArray)
-                    .array();
-
-            return new ByteArrayInputStream(signedMessage);
+    private BigInteger powAY(BigInteger u1, BigInteger u2) {
+        FixedBaseExponentiator aTable = FixedBaseCache.getDefault().get(a, p, q.bitLength());
+        FixedBaseExponentiator yTable = FixedBaseCache.getDefault().get(y, p, q.bitLength());
+        if (aTable != null && yTable != null) {
+            return FixedBaseExponentiator.multiPow(aTable, u1, yTable, u2);
         }
-        System.out.println("GOST R34.10-94 digest: signature calculation failed");
-        return null;
+        BigInteger aPower = aTable != null ? aTable.pow(u1) : a.modPow(u1, p);
+        BigInteger yPower = yTable != null ? yTable.pow(u2) : y.modPow(u2, p);
+        return aPower.multiply(yPower).mod(p);
     }
 
-    public ByteArrayOutputStream verify(ByteArrayOutputStream messageStream) throws IOException {
-        System.out.println("GOST R34.10-94 digest: signature verification...");
-        // get message size
-        byte[] fullMessage = messageStream.toByteArray();
-        ByteBuffer fullMessageBuffer = ByteBuffer.wrap(fullMessage);
-        IntBuffer intBuffer = fullMessageBuffer.asIntBuffer();
-        int messageSize = intBuffer.get();
-
-        // get message
-        ByteBuffer byteBuffer = ByteBuffer.allocate(4 + messageSize)
-                .putInt(messageSize)
-                .put(fullMessage, 4, messageSize);
-        ByteArrayOutputStream sentMessageStream = new ByteArrayOutputStream();
-        sentMessageStream.write(byteBuffer.array());
-
-        // get r size
-        fullMessageBuffer.position(4 + messageSize);
-        intBuffer = fullMessageBuffer.asIntBuffer();
-        int rSize = intBuffer.get();
-
-        // get r
-        byte[] rArray = new byte[rSize];
-        fullMessageBuffer.position(8 + messageSize);
-        fullMessageBuffer.get(rArray);
-        BigInteger r = new BigInteger(rArray);
-
-        // get s size
-        intBuffer = fullMessageBuffer.asIntBuffer();
-        int sSize = intBuffer.get();
-
-        // get s
-        byte[] sArray = new byte[sSize];
-        fullMessageBuffer.position(12 + messageSize + rSize);
-        fullMessageBuffer.get(sArray);
-        BigInteger s = new BigInteger(sArray);
-
-        // check signature
-        BigInteger hashValue = hash(new ByteArrayInputStream(sentMessageStream.toByteArray()), q, verbose);
-        boolean isCorrect = false;
-        if (hashValue != null) {
-            if (r.compareTo(ZERO) > 0 && r.compareTo(q) < 0 && s.compareTo(ZERO) > 0 && s.compareTo(q) < 0) {
-                BigInteger inverseHash = hashValue.modInverse(q);
-                BigInteger u1 = inverseHash.multiply(s).mod(q);
-                BigInteger minusR = r.multiply(new BigInteger("-1"));
-                BigInteger u2 = minusR.multiply(inverseHash).mod(q);
-                BigInteger v = a.modPow(u1, p).multiply(y.modPow(u2, p)).mod(p).mod(q);
-                if (v.compareTo(r) == 0) {
-                    isCorrect = true;
-                }
-                if (verbose) {
-                    System.out.printf("GOST R34.10-94 digest: h = %s%n", hashValue);
-                    System.out.printf("GOST R34.10-94 digest: h^(-1) = %s%n", inverseHash);
-                    System.out.printf("GOST R34.10-94 digest: r = %s%n", r);
-                    System.out.printf("GOST R34.10-94 digest: s = %s%n", s);
-                    System.out.printf("GOST R34.10-94 digest: u1 = %s%n", u1);
-                    System.out.printf("GOST R34.10-94 digest: u2 = %s%n", u2);
-                    System.out.printf("GOST R34.10-94 digest: v = %s%n", v);
-                }
-            }
+    private static GOST94Parameters generateParameters(int pBitLength, int qBitLength, boolean verbose) {
+        if (verbose) {
+            System.out.println("GOST R34.10-94 digest: preparing...");
         }
-
-        System.out.printf("GOST R34.10-94 digest: signature is%s correct%n", isCorrect ? "" : "n't");
-        return sentMessageStream;
+        return GOST94Parameters.generate(pBitLength, qBitLength);
     }
 
-    private BigInteger hash(ByteArrayInputStream messageStream, BigInteger q, boolean verbose) {
-        ByteArrayOutputStream signedMessage = new ByteArrayOutputStream();
-        try {
-            MessageDigest messageDigest = MessageDigest.getInstance("MD5");
-
-            int data;
-            while ((data = messageStream.read()) != -1) {
-                signedMessage.write(data);
+    @Override
+    protected BigInteger[] calculateSignature(BigInteger hashValue) {
+        if (x == null) {
+            throw new IllegalStateException("GOST R34.10-94 digest: private key is absent, message cannot be signed");
+        }
+        BigInteger qMinusOne = q.subtract(ONE);
+        BigInteger k, r, s;
+        while (true) {
+            k = CryptoUtils.generateRandom(ONE, qMinusOne, false, randomSource);
+            if (k == null) {
+                continue;
             }
-
-            byte[] bytes = signedMessage.toByteArray();
-            String digestStr = byteArrayToHexString(messageDigest.digest(bytes));
-            BigInteger digestFull = new BigInteger(digestStr, 16);
-            return digestFull.mod(q);
-        } catch (NoSuchAlgorithmException e) {
-            if (verbose) {
-                e.printStackTrace();
+            r = powA(k).mod(q);
+            if (r.compareTo(ZERO) == 0) {
+                continue;
+            }
+            s = (k.multiply(hashValue).add(x.multiply(r))).mod(q);
+            if (s.compareTo(ZERO) == 0) {
+                continue;
             }
+            break;
         }
-        return null;
+        return new BigInteger[]{r, s};
     }
 
-    private String byteArrayToHexString(byte[] byteArray) {
-        StringBuilder sb = new StringBuilder();
-        for (byte b : byteArray) {
-            String str = Integer.toHexString(0xff & b);
-            str = (str.length() == 1) ? "0" + str : str;
-            sb.append(str);
+    // h^(-1), u1, u2 and v of the verification equation, or null for the signature out of range.
+    // Randomized batch verification doesn't apply to verifyAll: r is reduced mod q and a^k mod p can't be restored.
+    @Override
+    protected BigInteger[] verificationValues(BigInteger hashValue, BigInteger r, BigInteger s) {
+        if (r.compareTo(ZERO) > 0 && r.compareTo(q) < 0 && s.compareTo(ZERO) > 0 && s.compareTo(q) < 0) {
+            BigInteger inverseHash = hashValue.modInverse(q);
+            BigInteger u1 = inverseHash.multiply(s).mod(q);
+            BigInteger minusR = r.multiply(new BigInteger("-1"));
+            BigInteger u2 = minusR.multiply(inverseHash).mod(q);
+            BigInteger v = powAY(u1, u2).mod(q);
+            return new BigInteger[]{inverseHash, u1, u2, v};
         }
-        return sb.toString();
+        return null;
+    }
+
+    @Override
+    protected void printVerificationValues(BigInteger hashValue, BigInteger r, BigInteger s, BigInteger[] values) {
+        System.out.printf("GOST R34.10-94 digest: h = %s%n", hashValue);
+        System.out.printf("GOST R34.10-94 digest: h^(-1) = %s%n", values[0]);
+        System.out.printf("GOST R34.10-94 digest: r = %s%n", r);
+        System.out.printf("GOST R34.10-94 digest: s = %s%n", s);
+        System.out.printf("GOST R34.10-94 digest: u1 = %s%n", values[1]);
+        System.out.printf("GOST R34.10-94 digest: u2 = %s%n", values[2]);
+        System.out.printf("GOST R34.10-94 digest: v = %s%n", values[3]);
     }
 
 }
@@ -0,0 +1,166 @@
+package ru.sibsutis.security.encrypt;
+
+import org.apache.commons.lang3.tuple.Pair;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import static java.math.BigInteger.ONE;
+import static java.math.BigInteger.ZERO;
+
+public final class GOST94Parameters {
+
+    private static final String P = "p";
+    private static final String Q = "q";
+    private static final String A = "a";
+    private static final String X = "x";
+    private static final String Y = "y";
+
+    private static final int LOAD_CERTAINTY = 50;
+
+    private final BigInteger p;
+    private final BigInteger q;
+    private final BigInteger a;
+    private final BigInteger x;
+    private final BigInteger y;
+
+    public GOST94Parameters(BigInteger p, BigInteger q, BigInteger a, BigInteger x, BigInteger y) {
+        this.p = p;
+        this.q = q;
+        this.a = a;
+        this.x = x;
+        this.y = y;
+    }
+
+    public static GOST94Parameters generate(int pBitLength, int qBitLength) {
+        return generate(pBitLength, qBitLength, PrimeSearch.builder().build());
+    }
+
+    public static GOST94Parameters generate(int pBitLength, int qBitLength, PrimeSearch search) {
+        Pair<Pair<BigInteger, BigInteger>, Pair<BigInteger, BigInteger>> parameters =
+                CryptoUtils.generateGOSTParameters(
+                        pBitLength,
+                        qBitLength,
+                        search,
+                        Deadline.after(CryptoUtils.DEFAULT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)
+                );
+        BigInteger p = parameters.getLeft().getLeft();
+        BigInteger q = parameters.getLeft().getRight();
+        BigInteger a = parameters.getRight().getRight();
+        BigInteger x = CryptoUtils.generateRandom(ONE, q.subtract(ONE), false, search.getRandomSource());
+        return new GOST94Parameters(p, q, a, x, a.modPow(x, p));
+    }
+
+    // Domain parameters and the key pair are stored as hex values of a properties file
+    public static GOST94Parameters load(Path path) throws IOException {
+        Properties properties = new Properties();
+        try (InputStream inputStream = Files.newInputStream(path)) {
+            properties.load(inputStream);
+        }
+        GOST94Parameters parameters;
+        try {
+            parameters = new GOST94Parameters(
+                    readValue(properties, P, true),
+                    readValue(properties, Q, true),
+                    readValue(properties, A, true),
+                    readValue(properties, X, false),
+                    readValue(properties, Y, true)
+            );
+        } catch (NumberFormatException e) {
+            throw new IOException(String.format("GOST R34.10-94 parameters file '%s' is corrupted", path), e);
+        }
+        if (!parameters.isValid()) {
+            throw new IOException(String.format("GOST R34.10-94 parameters in '%s' are inconsistent", path));
+        }
+        return parameters;
+    }
+
+    public void save(Path path) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty(P, p.toString(16));
+        properties.setProperty(Q, q.toString(16));
+        properties.setProperty(A, a.toString(16));
+        if (x != null) {
+            properties.setProperty(X, x.toString(16));
+        }
+        properties.setProperty(Y, y.toString(16));
+
+        Path directory = path.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        Path tempFile = Files.createTempFile(directory, "gost94", ".tmp");
+        // The file keeps the private key, so it is readable by the owner only where it is possible
+        if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+            Files.setPosixFilePermissions(tempFile, PosixFilePermissions.fromString("rw-------"));
+        }
+        try (OutputStream outputStream = Files.newOutputStream(tempFile)) {
+            properties.store(outputStream, "GOST R34.10-94 domain parameters and key pair");
+        }
+        Files.move(tempFile, path, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    public boolean isValid() {
+        if (!q.isProbablePrime(LOAD_CERTAINTY) || !p.isProbablePrime(LOAD_CERTAINTY)) {
+            return false;
+        }
+        if (!p.subtract(ONE).mod(q).equals(ZERO)) {
+            return false;
+        }
+        if (a.compareTo(ONE) <= 0 || a.compareTo(p) >= 0 || !a.modPow(q, p).equals(ONE)) {
+            return false;
+        }
+        if (y.compareTo(ONE) <= 0 || y.compareTo(p) >= 0) {
+            return false;
+        }
+        if (x == null) {
+            // Public key alone: y has to be in the subgroup of order q generated by a
+            return y.modPow(q, p).equals(ONE);
+        }
+        return x.compareTo(ZERO) > 0 && x.compareTo(q) < 0 && a.modPow(x, p).equals(y);
+    }
+
+    public BigInteger getP() {
+        return p;
+    }
+
+    public BigInteger getQ() {
+        return q;
+    }
+
+    public BigInteger getA() {
+        return a;
+    }
+
+    public BigInteger getB() {
+        return p.subtract(ONE).divide(q);
+    }
+
+    // Private key is absent for parameters that can only verify signatures
+    public BigInteger getX() {
+        return x;
+    }
+
+    public BigInteger getY() {
+        return y;
+    }
+
+    private static BigInteger readValue(Properties properties, String name, boolean required) {
+        String value = properties.getProperty(name);
+        if (value == null) {
+            if (required) {
+                throw new NumberFormatException(String.format("Value '%s' is missing", name));
+            }
+            return null;
+        }
+        return new BigInteger(value.trim(), 16);
+    }
+
+}
@@ -0,0 +1,264 @@
+package ru.sibsutis.security.encrypt;
+
+import org.apache.commons.io.IOUtils;
+import ru.sibsutis.security.metrics.Metrics;
+import ru.sibsutis.security.metrics.Phase;
+import ru.sibsutis.security.net.Communicator;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+
+// Shamir three-pass exchange carries only a random 256-bit session key, the message itself goes in AES-GCM chunks.
+// Every chunk is authenticated together with its index and the last chunk flag, so chunks cannot be reordered,
+// dropped or cut off at the end unnoticed. A new key is sent with every message and whenever the rekey policy
+// fires, counting chunks as blocks.
+public class HybridCommunicator implements Communicator {
+
+    public static final int KEY_SIZE = 32;
+    public static final int CHUNK_SIZE = 64 * 1024;
+
+    private static final String KEY_ALGORITHM = "AES";
+    private static final String CIPHER_ALGORITHM = "AES/GCM/NoPadding";
+    private static final int NONCE_SIZE = 12;
+    private static final int TAG_SIZE = 16;
+    private static final int TAG_BITS = TAG_SIZE * 8;
+    // Chunk index and last chunk flag
+    private static final int AAD_SIZE = 9;
+
+    private final ShamirCommunicator keyTransport;
+    private RekeyPolicy rekeyPolicy = RekeyPolicy.NEVER;
+    private RandomSource randomSource = RandomSource.current();
+
+    private final Cipher cipher;
+    private final byte[] nonce = new byte[NONCE_SIZE];
+    private final byte[] aad = new byte[AAD_SIZE];
+    private byte[] decrypted;
+    private SecretKeySpec key;
+    private long chunkIndex;
+    private ByteArrayOutputStream messageStream;
+    private OutputStream messageSink;
+    private boolean messageHasGot;
+    private boolean lastChunkGot;
+
+    private long keyChunks;
+    private long keyBytes;
+    private long keyTimeMark;
+    private long keySetupNanos;
+    private long encryptionNanos;
+
+    public HybridCommunicator(ShamirCommunicator keyTransport) {
+        this.keyTransport = keyTransport;
+        try {
+            cipher = Cipher.getInstance(CIPHER_ALGORITHM);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Hybrid scheme: " + CIPHER_ALGORITHM + " is not available", e);
+        }
+    }
+
+    public static Builder builder(ShamirCommunicator keyTransport) {
+        return new Builder(keyTransport);
+    }
+
+    public void sendMessage(ByteArrayInputStream messageStream, Communicator dst, boolean verbose) {
+        HybridCommunicator hybridDst = (HybridCommunicator) dst;
+        ByteArrayOutputStream deliveredStream = new ByteArrayOutputStream();
+        hybridDst.startSending(deliveredStream);
+        hybridDst.messageStream = deliveredStream;
+        try {
+            transfer(messageStream, hybridDst, verbose);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public void sendMessage(
+            InputStream messageStream,
+            Communicator dst,
+            OutputStream deliveredStream,
+            boolean verbose
+    ) throws IOException {
+        HybridCommunicator hybridDst = (HybridCommunicator) dst;
+        hybridDst.startSending(deliveredStream);
+        transfer(messageStream, hybridDst, verbose);
+    }
+
+    public long getKeySetupNanos() {
+        return keySetupNanos;
+    }
+
+    public long getEncryptionNanos() {
+        return encryptionNanos;
+    }
+
+    public boolean hasMessageGot() {
+        return messageHasGot;
+    }
+
+    public ByteArrayOutputStream getMessageStream() {
+        return messageStream;
+    }
+
+    private void transfer(InputStream messageStream, HybridCommunicator dst, boolean verbose) throws IOException {
+        long keySetupMark = keySetupNanos;
+        long encryptionMark = encryptionNanos;
+        sendKey(dst, verbose);
+
+        byte[] chunk = new byte[CHUNK_SIZE];
+        byte[] next = new byte[CHUNK_SIZE];
+        byte[] encrypted = new byte[CHUNK_SIZE + TAG_SIZE];
+        // One chunk is read ahead, so the last one is known when it is encrypted
+        int chunkLength = IOUtils.read(messageStream, chunk, 0, CHUNK_SIZE);
+        while (true) {
+            int nextLength = chunkLength < CHUNK_SIZE ? 0 : IOUtils.read(messageStream, next, 0, CHUNK_SIZE);
+            boolean last = nextLength == 0;
+            if (rekeyPolicy.isRekeyNeeded(keyChunks, keyBytes, keyTimeMark)) {
+                sendKey(dst, verbose);
+            }
+            long timeMark = System.nanoTime();
+            int encryptedLength = encrypt(chunk, chunkLength, last, encrypted);
+            dst.deliver(encrypted, encryptedLength, last);
+            encryptionNanos += System.nanoTime() - timeMark;
+            keyChunks++;
+            keyBytes += chunkLength;
+            if (verbose) {
+                System.out.printf("Hybrid scheme: chunk %s, %s bytes%n", chunkIndex - 1, chunkLength);
+            }
+            if (last) {
+                break;
+            }
+            byte[] swap = chunk;
+            chunk = next;
+            next = swap;
+            chunkLength = nextLength;
+        }
+        dst.stopSending();
+        if (verbose) {
+            System.out.printf(
+                    "Hybrid scheme: key setup %.3f ms, encryption %.3f ms%n",
+                    (keySetupNanos - keySetupMark) / 1e6,
+                    (encryptionNanos - encryptionMark) / 1e6
+            );
+        }
+    }
+
+    // A fresh key goes to dst through the Shamir exchange, both sides restart chunk numbering
+    private void sendKey(HybridCommunicator dst, boolean verbose) throws IOException {
+        long timeMark = System.nanoTime();
+        byte[] keyBytes = new byte[KEY_SIZE];
+        randomSource.random().nextBytes(keyBytes);
+        ByteArrayOutputStream deliveredKey = new ByteArrayOutputStream(KEY_SIZE);
+        keyTransport.sendMessage(new ByteArrayInputStream(keyBytes), dst.keyTransport, deliveredKey, verbose);
+        byte[] received = deliveredKey.toByteArray();
+        if (received.length != KEY_SIZE) {
+            throw new IOException("Hybrid scheme: session key was corrupted in the Shamir exchange");
+        }
+        setKey(keyBytes);
+        dst.setKey(received);
+        keySetupNanos += System.nanoTime() - timeMark;
+        keyChunks = 0;
+        this.keyBytes = 0;
+        keyTimeMark = System.currentTimeMillis();
+        if (verbose) {
+            System.out.println("Hybrid scheme: session key sent");
+        }
+    }
+
+    private void setKey(byte[] keyBytes) {
+        key = new SecretKeySpec(keyBytes, KEY_ALGORITHM);
+        chunkIndex = 0;
+    }
+
+    private int encrypt(byte[] chunk, int chunkLength, boolean last, byte[] encrypted) throws IOException {
+        long timeMark = Metrics.start();
+        try {
+            initCipher(Cipher.ENCRYPT_MODE, last);
+            int encryptedLength = cipher.doFinal(chunk, 0, chunkLength, encrypted, 0);
+            Metrics.stop(Phase.BULK_ENCRYPTION, timeMark, chunkLength);
+            return encryptedLength;
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Hybrid scheme: chunk encryption failed", e);
+        }
+    }
+
+    private void deliver(byte[] encrypted, int encryptedLength, boolean last) throws IOException {
+        if (lastChunkGot) {
+            throw new IOException("Hybrid scheme: chunk after the last one");
+        }
+        long timeMark = Metrics.start();
+        if (decrypted == null) {
+            decrypted = new byte[CHUNK_SIZE + TAG_SIZE];
+        }
+        int chunkLength;
+        try {
+            initCipher(Cipher.DECRYPT_MODE, last);
+            chunkLength = cipher.doFinal(encrypted, 0, encryptedLength, decrypted, 0);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Hybrid scheme: chunk authentication failed", e);
+        }
+        Metrics.stop(Phase.BULK_DECRYPTION, timeMark, chunkLength);
+        messageSink.write(decrypted, 0, chunkLength);
+        lastChunkGot = last;
+    }
+
+    // 96-bit nonce is the chunk index: every key encrypts each index once
+    private void initCipher(int mode, boolean last) throws GeneralSecurityException {
+        ByteBuffer.wrap(nonce).putInt(0).putLong(chunkIndex);
+        ByteBuffer.wrap(aad).putLong(chunkIndex).put((byte) (last ? 1 : 0));
+        chunkIndex++;
+        cipher.init(mode, key, new GCMParameterSpec(TAG_BITS, nonce));
+        cipher.updateAAD(aad);
+    }
+
+    private void startSending(OutputStream messageSink) {
+        this.messageSink = messageSink;
+        messageStream = null;
+        messageHasGot = false;
+        lastChunkGot = false;
+
+        System.out.println("Hybrid scheme: start sending message...");
+    }
+
+    private void stopSending() throws IOException {
+        if (!lastChunkGot) {
+            throw new IOException("Hybrid scheme: message was cut off before the last chunk");
+        }
+        messageSink.flush();
+        messageSink = null;
+        messageHasGot = true;
+
+        System.out.println("Hybrid scheme: message has got");
+    }
+
+    public static class Builder {
+        private final HybridCommunicator communicator;
+
+        private Builder(ShamirCommunicator keyTransport) {
+            communicator = new HybridCommunicator(keyTransport);
+        }
+
+        // Chunks, bytes or seconds under one session key, a new key is sent through Shamir when it fires
+        public Builder setRekeyPolicy(RekeyPolicy rekeyPolicy) {
+            communicator.rekeyPolicy = rekeyPolicy;
+            return this;
+        }
+
+        public Builder setRandomSource(RandomSource randomSource) {
+            communicator.randomSource = randomSource;
+            return this;
+        }
+
+        public HybridCommunicator build() {
+            return communicator;
+        }
+    }
+
+}
@@ -0,0 +1,314 @@
+package ru.sibsutis.security.encrypt;
+
+import java.math.BigInteger;
+
+// Montgomery arithmetic over 32-bit little-endian limbs for one odd modulus.
+// Values stay in Montgomery form in caller-owned arrays: multiply, square and modPow allocate nothing,
+// only the conversions from and to BigInteger do.
+public final class MontgomeryEngine {
+
+    public static final int DEFAULT_WINDOW = 5;
+
+    private static final long MASK = 0xFFFFFFFFL;
+
+    private final BigInteger modulus;
+    private final int length;
+    private final int[] n;
+    private final long n0Inverse;
+    private final BigInteger r;
+    // R mod n and R^2 mod n: one in Montgomery form and the factor bringing plain values into it
+    private final int[] one;
+    private final int[] rSquare;
+
+    public MontgomeryEngine(BigInteger modulus) {
+        if (!modulus.testBit(0) || modulus.signum() <= 0) {
+            throw new IllegalArgumentException("Montgomery modulus has to be odd and positive");
+        }
+        this.modulus = modulus;
+        length = (modulus.bitLength() + 31) / 32;
+        n = toLimbs(modulus, length);
+        // -n^(-1) mod 2^32 by Newton iterations
+        long n0 = n[0] & MASK;
+        long inverse = 1;
+        for (int i = 0; i < 5; i++) {
+            inverse = (inverse * (2 - n0 * inverse)) & MASK;
+        }
+        n0Inverse = (-inverse) & MASK;
+        r = BigInteger.ONE.shiftLeft(32 * length);
+        one = toLimbs(r.mod(modulus), length);
+        rSquare = toLimbs(r.multiply(r).mod(modulus), length);
+    }
+
+    public BigInteger getModulus() {
+        return modulus;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public int[] newValue() {
+        return new int[length];
+    }
+
+    public int[] newScratch() {
+        return new int[2 * length + 1];
+    }
+
+    public Workspace newWorkspace() {
+        return new Workspace(DEFAULT_WINDOW);
+    }
+
+    public Workspace newWorkspace(int window) {
+        return new Workspace(window);
+    }
+
+    public int[] toMontgomery(BigInteger value) {
+        int[] out = newValue();
+        toMontgomery(value, out, newScratch());
+        return out;
+    }
+
+    public void toMontgomery(BigInteger value, int[] out, int[] scratch) {
+        if (value.signum() < 0 || value.compareTo(modulus) >= 0) {
+            value = value.mod(modulus);
+        }
+        int[] limbs = toLimbs(value, length);
+        multiply(limbs, rSquare, out, scratch);
+    }
+
+    public BigInteger fromMontgomery(int[] value, int[] scratch) {
+        int[] result = newValue();
+        fromMontgomery(value, result, scratch);
+        return fromLimbs(result);
+    }
+
+    // out = value * R^(-1) mod n, the plain residue in limbs
+    public void fromMontgomery(int[] value, int[] out, int[] scratch) {
+        for (int i = 0; i < scratch.length; i++) {
+            scratch[i] = 0;
+        }
+        System.arraycopy(value, 0, scratch, 0, length);
+        reduce(scratch, out);
+    }
+
+    public void setOne(int[] out) {
+        System.arraycopy(one, 0, out, 0, length);
+    }
+
+    // out = a * b * R^(-1) mod n; out may be the same array as a or b
+    public void multiply(int[] a, int[] b, int[] out, int[] t) {
+        for (int i = 0; i < length + 2; i++) {
+            t[i] = 0;
+        }
+        for (int i = 0; i < length; i++) {
+            long bi = b[i] & MASK;
+            long carry = 0;
+            for (int j = 0; j < length; j++) {
+                long sum = (t[j] & MASK) + (a[j] & MASK) * bi + carry;
+                t[j] = (int) sum;
+                carry = sum >>> 32;
+            }
+            long sum = (t[length] & MASK) + carry;
+            t[length] = (int) sum;
+            t[length + 1] = (int) (sum >>> 32);
+
+            long m = ((t[0] & MASK) * n0Inverse) & MASK;
+            sum = (t[0] & MASK) + m * (n[0] & MASK);
+            carry = sum >>> 32;
+            for (int j = 1; j < length; j++) {
+                sum = (t[j] & MASK) + m * (n[j] & MASK) + carry;
+                t[j - 1] = (int) sum;
+                carry = sum >>> 32;
+            }
+            sum = (t[length] & MASK) + carry;
+            t[length - 1] = (int) sum;
+            t[length] = t[length + 1] + (int) (sum >>> 32);
+        }
+        subtractIfNeeded(t, t[length] != 0, out);
+    }
+
+    // out = a^2 * R^(-1) mod n; the cross products are computed once and doubled, then reduced separately
+    public void square(int[] a, int[] out, int[] t) {
+        for (int i = 0; i < 2 * length + 1; i++) {
+            t[i] = 0;
+        }
+        for (int i = 0; i < length - 1; i++) {
+            long ai = a[i] & MASK;
+            long carry = 0;
+            for (int j = i + 1; j < length; j++) {
+                long sum = (t[i + j] & MASK) + ai * (a[j] & MASK) + carry;
+                t[i + j] = (int) sum;
+                carry = sum >>> 32;
+            }
+            t[i + length] = (int) carry;
+        }
+        int highBit = 0;
+        for (int i = 0; i < 2 * length; i++) {
+            int value = t[i];
+            t[i] = (value << 1) | highBit;
+            highBit = value >>> 31;
+        }
+        long carry = 0;
+        for (int i = 0; i < length; i++) {
+            long ai = a[i] & MASK;
+            long sum = (t[2 * i] & MASK) + ai * ai + carry;
+            t[2 * i] = (int) sum;
+            sum = (t[2 * i + 1] & MASK) + (sum >>> 32);
+            t[2 * i + 1] = (int) sum;
+            carry = sum >>> 32;
+        }
+        reduce(t, out);
+    }
+
+    // out = base^exponent in Montgomery form by left-to-right sliding windows over the odd powers of base;
+    // out may be the same array as base
+    public void modPow(int[] base, BigInteger exponent, int[] out, Workspace workspace) {
+        if (exponent.signum() < 0) {
+            throw new ArithmeticException("Negative exponent");
+        }
+        int[][] powers = workspace.powers;
+        int[] t = workspace.scratch;
+        int[] acc = workspace.accumulator;
+
+        System.arraycopy(base, 0, powers[0], 0, length);
+        if (powers.length > 1) {
+            square(base, workspace.baseSquare, t);
+            for (int i = 1; i < powers.length; i++) {
+                multiply(powers[i - 1], workspace.baseSquare, powers[i], t);
+            }
+        }
+
+        boolean started = false;
+        int i = exponent.bitLength() - 1;
+        while (i >= 0) {
+            if (!exponent.testBit(i)) {
+                if (started) {
+                    square(acc, acc, t);
+                }
+                i--;
+                continue;
+            }
+            int j = Math.max(i - workspace.window + 1, 0);
+            while (!exponent.testBit(j)) {
+                j++;
+            }
+            int value = 0;
+            for (int bit = i; bit >= j; bit--) {
+                value = (value << 1) | (exponent.testBit(bit) ? 1 : 0);
+            }
+            if (started) {
+                for (int k = i; k >= j; k--) {
+                    square(acc, acc, t);
+                }
+                multiply(acc, powers[value >>> 1], acc, t);
+            } else {
+                System.arraycopy(powers[value >>> 1], 0, acc, 0, length);
+                started = true;
+            }
+            i = j - 1;
+        }
+        if (started) {
+            System.arraycopy(acc, 0, out, 0, length);
+        } else {
+            setOne(out);
+        }
+    }
+
+    // base^exponent mod n for plain values; only the conversions allocate
+    public BigInteger modPow(BigInteger base, BigInteger exponent, Workspace workspace) {
+        int[] value = workspace.value;
+        toMontgomery(base, value, workspace.scratch);
+        modPow(value, exponent, value, workspace);
+        return fromMontgomery(value, workspace.scratch);
+    }
+
+    // Montgomery reduction of the 2 * length limbs of t: out = t * R^(-1) mod n
+    private void reduce(int[] t, int[] out) {
+        int extra = 0;
+        for (int i = 0; i < length; i++) {
+            long m = ((t[i] & MASK) * n0Inverse) & MASK;
+            long carry = 0;
+            for (int j = 0; j < length; j++) {
+                long sum = (t[i + j] & MASK) + m * (n[j] & MASK) + carry;
+                t[i + j] = (int) sum;
+                carry = sum >>> 32;
+            }
+            for (int k = i + length; carry != 0 && k < 2 * length; k++) {
+                long sum = (t[k] & MASK) + carry;
+                t[k] = (int) sum;
+                carry = sum >>> 32;
+            }
+            extra += (int) carry;
+        }
+        System.arraycopy(t, length, t, 0, length);
+        subtractIfNeeded(t, extra != 0, out);
+    }
+
+    private void subtractIfNeeded(int[] t, boolean overflow, int[] out) {
+        if (overflow || compare(t, n) >= 0) {
+            long borrow = 0;
+            for (int j = 0; j < length; j++) {
+                long difference = (t[j] & MASK) - (n[j] & MASK) - borrow;
+                out[j] = (int) difference;
+                borrow = difference >>> 63;
+            }
+        } else {
+            System.arraycopy(t, 0, out, 0, length);
+        }
+    }
+
+    private int compare(int[] a, int[] b) {
+        for (int j = length - 1; j >= 0; j--) {
+            int result = Integer.compareUnsigned(a[j], b[j]);
+            if (result != 0) {
+                return result;
+            }
+        }
+        return 0;
+    }
+
+    private static int[] toLimbs(BigInteger value, int length) {
+        byte[] bytes = value.toByteArray();
+        int[] limbs = new int[length];
+        for (int i = 0; i < bytes.length && i < 4 * length; i++) {
+            limbs[i >>> 2] |= (bytes[bytes.length - 1 - i] & 0xFF) << (8 * (i & 3));
+        }
+        return limbs;
+    }
+
+    private static BigInteger fromLimbs(int[] limbs) {
+        byte[] bytes = new byte[4 * limbs.length + 1];
+        for (int i = 0; i < 4 * limbs.length; i++) {
+            bytes[bytes.length - 1 - i] = (byte) (limbs[i >>> 2] >>> (8 * (i & 3)));
+        }
+        return new BigInteger(bytes);
+    }
+
+    // Reusable buffers of one thread: the odd powers table of the window, the accumulator and the scratch
+    public final class Workspace {
+        private final int window;
+        private final int[][] powers;
+        private final int[] baseSquare = newValue();
+        private final int[] accumulator = newValue();
+        private final int[] value = newValue();
+        private final int[] scratch = newScratch();
+
+        private Workspace(int window) {
+            if (window < 1 || window > 8) {
+                throw new IllegalArgumentException("Montgomery window has to be from 1 to 8 bits");
+            }
+            this.window = window;
+            powers = new int[1 << (window - 1)][length];
+        }
+
+        public MontgomeryEngine getEngine() {
+            return MontgomeryEngine.this;
+        }
+
+        public int[] getScratch() {
+            return scratch;
+        }
+    }
+
+}
@@ -0,0 +1,182 @@
+package ru.sibsutis.security.encrypt;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+public final class PrimePool implements AutoCloseable {
+
+    public static final int DEFAULT_CAPACITY = 4;
+
+    // Cached primes are checked again on load, a corrupted or edited cache file must not be trusted
+    private static final int LOAD_CERTAINTY = 50;
+
+    private final int capacity;
+    private final Path cacheFile;
+    private final boolean backgroundRefill;
+    private final Map<Integer, BlockingQueue<BigInteger>> primes = new ConcurrentHashMap<>();
+    private final Set<Integer> refilling = ConcurrentHashMap.newKeySet();
+    private final ExecutorService refiller;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong refills = new AtomicLong();
+    private final AtomicLong refillNanos = new AtomicLong();
+
+    public PrimePool(int capacity, Path cacheFile) {
+        this(capacity, cacheFile, true);
+    }
+
+    // Background refill pays off in long-running processes such as the daemon. Without it the pool keeps its primes:
+    // p is public, so a single run reuses a cached one instead of using it up and generating the next one at exit.
+    public PrimePool(int capacity, Path cacheFile, boolean backgroundRefill) {
+        this.capacity = capacity;
+        this.cacheFile = cacheFile;
+        this.backgroundRefill = backgroundRefill;
+        refiller = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "prime-pool-refiller");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public BigInteger take(int bitLength) {
+        BlockingQueue<BigInteger> queue = queue(bitLength);
+        BigInteger prime = backgroundRefill ? queue.poll() : queue.peek();
+        if (prime != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+            prime = CryptoUtils.generateRandom(bitLength, true);
+            if (!backgroundRefill) {
+                queue.offer(prime);
+            }
+        }
+        refill(bitLength);
+        return prime;
+    }
+
+    public void refill(int bitLength) {
+        if (!backgroundRefill || !refilling.add(bitLength)) {
+            return;
+        }
+        try {
+            refiller.execute(() -> {
+                try {
+                    BlockingQueue<BigInteger> queue = queue(bitLength);
+                    while (queue.size() < capacity && !Thread.currentThread().isInterrupted()) {
+                        long timeMark = System.nanoTime();
+                        BigInteger prime = CryptoUtils.generateRandom(bitLength, true);
+                        refillNanos.addAndGet(System.nanoTime() - timeMark);
+                        refills.incrementAndGet();
+                        queue.offer(prime);
+                    }
+                } finally {
+                    refilling.remove(bitLength);
+                }
+            });
+        } catch (RuntimeException e) {
+            refilling.remove(bitLength);
+        }
+    }
+
+    public int size(int bitLength) {
+        return queue(bitLength).size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getRefills() {
+        return refills.get();
+    }
+
+    public double getAverageRefillMillis() {
+        long count = refills.get();
+        return count == 0 ? 0 : refillNanos.get() / 1e6 / count;
+    }
+
+    // Cache file format: one "<bit length>:<hex prime>" line per prime
+    public synchronized int load() throws IOException {
+        if (cacheFile == null || !Files.exists(cacheFile)) {
+            return 0;
+        }
+        int loaded = 0;
+        for (String line : Files.readAllLines(cacheFile, UTF_8)) {
+            String[] parts = line.trim().split(":");
+            if (parts.length != 2) {
+                continue;
+            }
+            try {
+                int bitLength = Integer.parseInt(parts[0]);
+                BigInteger prime = new BigInteger(parts[1], 16);
+                if (prime.bitLength() != bitLength || !prime.isProbablePrime(LOAD_CERTAINTY)) {
+                    continue;
+                }
+                BlockingQueue<BigInteger> queue = queue(bitLength);
+                if (queue.size() < capacity && queue.offer(prime)) {
+                    loaded++;
+                }
+            } catch (NumberFormatException ignored) {
+                // skip the broken line, the rest of the cache is still usable
+            }
+        }
+        return loaded;
+    }
+
+    public synchronized void save() throws IOException {
+        if (cacheFile == null) {
+            return;
+        }
+        List<String> lines = new ArrayList<>();
+        for (Map.Entry<Integer, BlockingQueue<BigInteger>> entry : primes.entrySet()) {
+            for (BigInteger prime : entry.getValue()) {
+                lines.add(entry.getKey() + ":" + prime.toString(16));
+            }
+        }
+        Path directory = cacheFile.toAbsolutePath().getParent();
+        if (directory != null) {
+            Files.createDirectories(directory);
+        }
+        Path tempFile = Files.createTempFile(directory, "primes", ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tempFile, UTF_8)) {
+            for (String line : lines) {
+                writer.write(line);
+                writer.newLine();
+            }
+        }
+        Files.move(tempFile, cacheFile, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    // A refill in progress is not waited for, the primes generated so far are saved
+    @Override
+    public void close() throws IOException {
+        refiller.shutdownNow();
+        save();
+    }
+
+    private BlockingQueue<BigInteger> queue(int bitLength) {
+        return primes.computeIfAbsent(bitLength, length -> new LinkedBlockingQueue<>());
+    }
+
+}
@@ -0,0 +1,258 @@
+package ru.sibsutis.security.encrypt;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static java.math.BigInteger.ONE;
+
+// Prime search over the progression start, start + step, start + 2 * step, ... Candidates are taken in windows,
+// every window is sieved by the small primes first, so Miller-Rabin runs only on the candidates without a small
+// factor. Windows are shared out between the workers, the first prime found stops all of them.
+public final class PrimeSearch {
+
+    public static final int DEFAULT_CERTAINTY = 100;
+
+    private static final int WINDOW = 4096;
+    private static final int SMALL_PRIME_LIMIT = 1 << 14;
+    private static final int[] SMALL_PRIMES = smallPrimes(SMALL_PRIME_LIMIT);
+    // Below it a candidate could be one of the sieving primes itself
+    private static final BigInteger SIEVE_FLOOR = BigInteger.valueOf(SMALL_PRIME_LIMIT);
+    private static final BigInteger TWO = BigInteger.valueOf(2);
+
+    private static final ExecutorService POOL = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "prime-search");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private int certainty = DEFAULT_CERTAINTY;
+    private int workers = Runtime.getRuntime().availableProcessors();
+    private RandomSource randomSource;
+
+    private PrimeSearch() {}
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public int getCertainty() {
+        return certainty;
+    }
+
+    public int getWorkers() {
+        return workers;
+    }
+
+    public RandomSource getRandomSource() {
+        return randomSource != null ? randomSource : RandomSource.current();
+    }
+
+    // First prime found among start + i * step not above last, null when there is none.
+    // With several workers it is a prime of the progression, not necessarily the smallest one.
+    public BigInteger progression(BigInteger start, BigInteger step, BigInteger last, Deadline deadline) {
+        Progression progression = new Progression(start, step, last);
+        if (workers <= 1) {
+            return progression.search(0, 1, new AtomicBoolean(), deadline);
+        }
+        AtomicBoolean stop = new AtomicBoolean();
+        AtomicReference<BigInteger> found = new AtomicReference<>();
+        List<Future<?>> results = new ArrayList<>();
+        for (int worker = 0; worker < workers; worker++) {
+            int first = worker;
+            results.add(POOL.submit(() -> {
+                BigInteger prime = progression.search(first, workers, stop, deadline);
+                if (prime != null && found.compareAndSet(null, prime)) {
+                    stop.set(true);
+                }
+            }));
+        }
+        try {
+            for (Future<?> result : results) {
+                result.get();
+            }
+        } catch (InterruptedException e) {
+            stop.set(true);
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Prime search interrupted");
+        } catch (ExecutionException e) {
+            stop.set(true);
+            throw new IllegalStateException("Prime search failed", e.getCause());
+        }
+        return found.get();
+    }
+
+    // A prime of [lower, upper] searched upwards from a random point and then from lower, null when there is none
+    public BigInteger inRange(BigInteger lower, BigInteger upper, Deadline deadline) {
+        if (upper.compareTo(TWO) < 0 || lower.compareTo(upper) > 0) {
+            return null;
+        }
+        if (lower.compareTo(TWO) <= 0) {
+            lower = TWO;
+        }
+        BigInteger point = lower.add(getRandomSource().nextBelow(upper.subtract(lower).add(ONE)));
+        if (point.equals(TWO)) {
+            return point;
+        }
+        BigInteger prime = progression(point.setBit(0), TWO, upper, deadline);
+        if (prime == null && !deadline.isOver()) {
+            if (lower.equals(TWO)) {
+                return TWO;
+            }
+            prime = progression(lower.setBit(0), TWO, point.subtract(ONE), deadline);
+        }
+        return prime;
+    }
+
+    private final class Progression {
+        private final BigInteger start;
+        private final BigInteger step;
+        private final BigInteger last;
+        // step^(-1) mod s for every small prime s, 0 where s divides step
+        private final int[] stepInverses = new int[SMALL_PRIMES.length];
+
+        private Progression(BigInteger start, BigInteger step, BigInteger last) {
+            this.start = start;
+            this.step = step;
+            this.last = last;
+            for (int i = 0; i < SMALL_PRIMES.length; i++) {
+                int s = SMALL_PRIMES[i];
+                int stepResidue = remainder(step, s);
+                stepInverses[i] = stepResidue == 0 ? 0 : inverse(stepResidue, s);
+            }
+        }
+
+        // Windows first, first + stride, first + 2 * stride, ...
+        private BigInteger search(int first, int stride, AtomicBoolean stop, Deadline deadline) {
+            boolean[] composite = new boolean[WINDOW];
+            BigInteger windowStep = step.multiply(BigInteger.valueOf(WINDOW));
+            BigInteger windowStart = start.add(windowStep.multiply(BigInteger.valueOf(first)));
+            BigInteger strideStep = windowStep.multiply(BigInteger.valueOf(stride));
+            while (windowStart.compareTo(last) <= 0) {
+                sieve(windowStart, composite);
+                BigInteger candidate = windowStart;
+                for (int i = 0; i < WINDOW; i++, candidate = candidate.add(step)) {
+                    if (composite[i]) {
+                        continue;
+                    }
+                    if (candidate.compareTo(last) > 0 || stop.get() || deadline.isOver()) {
+                        return null;
+                    }
+                    if (candidate.isProbablePrime(certainty)) {
+                        return candidate;
+                    }
+                }
+                windowStart = windowStart.add(strideStep);
+            }
+            return null;
+        }
+
+        // Marks the candidates of the window divisible by a small prime
+        private void sieve(BigInteger windowStart, boolean[] composite) {
+            Arrays.fill(composite, false);
+            if (windowStart.compareTo(SIEVE_FLOOR) <= 0) {
+                return;
+            }
+            int[] words = words(windowStart);
+            for (int i = 0; i < SMALL_PRIMES.length; i++) {
+                int s = SMALL_PRIMES[i];
+                int residue = remainder(words, s);
+                if (stepInverses[i] == 0) {
+                    if (residue == 0) {
+                        Arrays.fill(composite, true);
+                        return;
+                    }
+                    continue;
+                }
+                // start + j * step = 0 (mod s) for j = -start / step (mod s)
+                int j = (int) ((long) (s - residue) % s * stepInverses[i] % s);
+                for (; j < WINDOW; j += s) {
+                    composite[j] = true;
+                }
+            }
+        }
+    }
+
+    private static int remainder(BigInteger value, int divisor) {
+        return remainder(words(value), divisor);
+    }
+
+    private static int remainder(int[] words, int divisor) {
+        long residue = 0;
+        for (int word : words) {
+            residue = ((residue << 32) | (word & 0xFFFFFFFFL)) % divisor;
+        }
+        return (int) residue;
+    }
+
+    // Big-endian 32-bit words of a non-negative value
+    private static int[] words(BigInteger value) {
+        byte[] bytes = value.toByteArray();
+        int[] words = new int[(bytes.length + 3) / 4];
+        for (int i = 0; i < bytes.length; i++) {
+            int index = words.length - 1 - i / 4;
+            words[index] |= (bytes[bytes.length - 1 - i] & 0xFF) << (8 * (i % 4));
+        }
+        return words;
+    }
+
+    private static int inverse(int value, int modulus) {
+        return BigInteger.valueOf(value).modInverse(BigInteger.valueOf(modulus)).intValue();
+    }
+
+    private static int[] smallPrimes(int limit) {
+        boolean[] composite = new boolean[limit];
+        int count = 0;
+        for (int i = 2; i < limit; i++) {
+            if (!composite[i]) {
+                count++;
+                for (long j = (long) i * i; j < limit; j += i) {
+                    composite[(int) j] = true;
+                }
+            }
+        }
+        int[] primes = new int[count];
+        for (int i = 2, k = 0; i < limit; i++) {
+            if (!composite[i]) {
+                primes[k++] = i;
+            }
+        }
+        return primes;
+    }
+
+    public static class Builder {
+        private final PrimeSearch search = new PrimeSearch();
+
+        private Builder() {}
+
+        // Miller-Rabin certainty, a composite passes with probability below 2^(-certainty)
+        public Builder setCertainty(int certainty) {
+            search.certainty = Math.max(1, certainty);
+            return this;
+        }
+
+        public Builder setWorkers(int workers) {
+            search.workers = Math.max(1, workers);
+            return this;
+        }
+
+        // Unset, the current RandomSource at the time of the search is taken
+        public Builder setRandomSource(RandomSource randomSource) {
+            search.randomSource = randomSource;
+            return this;
+        }
+
+        public PrimeSearch build() {
+            return search;
+        }
+    }
+
+}
@@ -0,0 +1,175 @@
+package ru.sibsutis.security.encrypt;
+
+import java.math.BigInteger;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Random;
+
+// Where the random numbers of key setup, prime generation and signatures come from.
+// The secure sources keep one generator per thread, seeded once, instead of a new SecureRandom per call.
+public abstract class RandomSource {
+
+    public static final int DEFAULT_BUFFER_SIZE = 4096;
+
+    // Generators without a shared lock on the OS entropy pool after seeding, the first available is taken
+    private static final String[] THREAD_ALGORITHMS = {"DRBG", "SHA1PRNG"};
+
+    private static volatile RandomSource current = secure();
+
+    // Generator for the calling thread
+    public abstract Random random();
+
+    public abstract String getName();
+
+    // The same run gives the same values, nothing prepared with the source may be reused by another run
+    public boolean isReproducible() {
+        return false;
+    }
+
+    public static RandomSource current() {
+        return current;
+    }
+
+    public static void setCurrent(RandomSource randomSource) {
+        current = randomSource;
+    }
+
+    // A SecureRandom per thread
+    public static RandomSource secure() {
+        return new ThreadLocalSource("secure", RandomSource::newThreadGenerator);
+    }
+
+    // A SecureRandom per thread read in bulk: its output is drawn bufferSize bytes at a time
+    public static RandomSource buffered(int bufferSize) {
+        return new ThreadLocalSource(
+                "buffered", () -> new BufferedRandom(newThreadGenerator(), Math.max(4, bufferSize))
+        );
+    }
+
+    // Reproducible, NOT secure: the same seed gives the same keys and primes in a single-threaded run
+    public static RandomSource seeded(long seed) {
+        Random random = new Random(seed);
+        return new RandomSource() {
+            @Override
+            public Random random() {
+                return random;
+            }
+
+            @Override
+            public String getName() {
+                return "seeded " + seed;
+            }
+
+            @Override
+            public boolean isReproducible() {
+                return true;
+            }
+        };
+    }
+
+    public BigInteger nextBigInteger(int bitLength) {
+        return new BigInteger(bitLength, random());
+    }
+
+    public BigInteger probablePrime(int bitLength) {
+        return BigInteger.probablePrime(bitLength, random());
+    }
+
+    // Uniform in [0, bound)
+    public BigInteger nextBelow(BigInteger bound) {
+        BigInteger value;
+        do {
+            value = new BigInteger(bound.bitLength(), random());
+        } while (value.compareTo(bound) >= 0);
+        return value;
+    }
+
+    public int nextInt(int bound) {
+        return random().nextInt(bound);
+    }
+
+    @Override
+    public String toString() {
+        return getName();
+    }
+
+    private static SecureRandom newThreadGenerator() {
+        for (String algorithm : THREAD_ALGORITHMS) {
+            try {
+                return SecureRandom.getInstance(algorithm);
+            } catch (NoSuchAlgorithmException ignored) {
+                // try the next one
+            }
+        }
+        return new SecureRandom();
+    }
+
+    private interface GeneratorFactory {
+        Random create();
+    }
+
+    private static final class ThreadLocalSource extends RandomSource {
+        private final String name;
+        private final ThreadLocal<Random> generators;
+
+        private ThreadLocalSource(String name, GeneratorFactory factory) {
+            this.name = name;
+            generators = ThreadLocal.withInitial(factory::create);
+        }
+
+        @Override
+        public Random random() {
+            return generators.get();
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+    }
+
+    // Serves bytes out of a buffer filled by one nextBytes call of the wrapped generator; confined to one thread
+    private static final class BufferedRandom extends Random {
+        private static final long serialVersionUID = 1L;
+
+        private final SecureRandom generator;
+        private final byte[] buffer;
+        private int position;
+
+        private BufferedRandom(SecureRandom generator, int bufferSize) {
+            this.generator = generator;
+            buffer = new byte[bufferSize];
+            position = bufferSize;
+        }
+
+        @Override
+        public void nextBytes(byte[] bytes) {
+            int offset = 0;
+            while (offset < bytes.length) {
+                if (position == buffer.length) {
+                    generator.nextBytes(buffer);
+                    position = 0;
+                }
+                int count = Math.min(bytes.length - offset, buffer.length - position);
+                System.arraycopy(buffer, position, bytes, offset, count);
+                position += count;
+                offset += count;
+            }
+        }
+
+        @Override
+        protected int next(int bits) {
+            if (buffer.length - position < 4) {
+                generator.nextBytes(buffer);
+                position = 0;
+            }
+            int value = (buffer[position] & 0xFF) << 24
+                    | (buffer[position + 1] & 0xFF) << 16
+                    | (buffer[position + 2] & 0xFF) << 8
+                    | (buffer[position + 3] & 0xFF);
+            position += 4;
+            return value >>> (32 - bits);
+        }
+    }
+
+}
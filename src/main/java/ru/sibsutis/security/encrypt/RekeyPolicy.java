@@ -0,0 +1,35 @@
+package ru.sibsutis.security.encrypt;
+
+public final class RekeyPolicy {
+
+    public static final RekeyPolicy NEVER = new RekeyPolicy(0, 0, 0);
+
+    private final long maxBlocks;
+    private final long maxBytes;
+    private final long maxMillis;
+
+    // Zero or negative value turns the corresponding limit off
+    public RekeyPolicy(long maxBlocks, long maxBytes, long maxSeconds) {
+        this.maxBlocks = maxBlocks;
+        this.maxBytes = maxBytes;
+        this.maxMillis = maxSeconds * 1000L;
+    }
+
+    public boolean isRekeyNeeded(long blocks, long bytes, long keyTimeMark) {
+        if (maxBlocks > 0 && blocks >= maxBlocks) {
+            return true;
+        }
+        if (maxBytes > 0 && bytes >= maxBytes) {
+            return true;
+        }
+        return maxMillis > 0 && System.currentTimeMillis() - keyTimeMark >= maxMillis;
+    }
+
+    @Override
+    public String toString() {
+        if (maxBlocks <= 0 && maxBytes <= 0 && maxMillis <= 0) {
+            return "never";
+        }
+        return String.format("blocks = %s, bytes = %s, seconds = %s", maxBlocks, maxBytes, maxMillis / 1000L);
+    }
+}
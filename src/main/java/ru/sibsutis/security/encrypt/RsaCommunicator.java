@@ -0,0 +1,344 @@
+package ru.sibsutis.security.encrypt;
+
+import org.apache.commons.io.IOUtils;
+import ru.sibsutis.security.metrics.Metrics;
+import ru.sibsutis.security.metrics.Phase;
+import ru.sibsutis.security.net.Communicator;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+import static java.math.BigInteger.ONE;
+
+// One-pass RSA: the receiving side owns the key pair, the sender encrypts every block with its public key.
+// Blocks are packed with OAEP (SHA-256, MGF1, empty label) and decrypted through the Chinese Remainder Theorem.
+public class RsaCommunicator implements Communicator {
+
+    public static final int DEFAULT_KEY_LENGTH = 2048;
+    public static final BigInteger PUBLIC_EXPONENT = BigInteger.valueOf(65537);
+
+    private static final String HASH_ALGORITHM = "SHA-256";
+    private static final int HASH_SIZE = 32;
+    // OAEP needs a leading zero, a seed, the label hash, a 0x01 separator and at least a byte of message
+    public static final int MIN_KEY_LENGTH = 8 * (2 * HASH_SIZE + 3);
+
+    private final int keyLength;
+    private RekeyPolicy rekeyPolicy = RekeyPolicy.NEVER;
+    private RandomSource randomSource = RandomSource.current();
+    private boolean crt = true;
+
+    // Key pair of the receiving side
+    private BigInteger n;
+    private BigInteger d;
+    private BigInteger p;
+    private BigInteger q;
+    private BigInteger dP;
+    private BigInteger dQ;
+    private BigInteger qInverse;
+
+    private final MessageDigest hash;
+    private final byte[] labelHash;
+    private ByteArrayOutputStream messageStream;
+    private OutputStream messageSink;
+    private boolean messageHasGot;
+
+    // Session state of the sending side: the receiver keeps its key pair until the rekey policy fires
+    private RsaCommunicator sessionDst;
+    private long keyBlocks;
+    private long keyBytes;
+    private long keyTimeMark;
+    private long keySetupNanos;
+    private long encryptionNanos;
+
+    public RsaCommunicator(int keyLength) {
+        if (keyLength < MIN_KEY_LENGTH) {
+            throw new IllegalArgumentException(
+                    String.format("RSA scheme: key length must be at least %s bits", MIN_KEY_LENGTH)
+            );
+        }
+        this.keyLength = keyLength;
+        try {
+            hash = MessageDigest.getInstance(HASH_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("RSA scheme: " + HASH_ALGORITHM + " is not available", e);
+        }
+        labelHash = hash.digest();
+    }
+
+    public static Builder builder(int keyLength) {
+        return new Builder(keyLength);
+    }
+
+    public void sendMessage(ByteArrayInputStream messageStream, Communicator dst, boolean verbose) {
+        RsaCommunicator rsaDst = (RsaCommunicator) dst;
+        ByteArrayOutputStream deliveredStream = new ByteArrayOutputStream();
+        rsaDst.startSending(deliveredStream);
+        rsaDst.messageStream = deliveredStream;
+        try {
+            transfer(messageStream, rsaDst, verbose);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public void sendMessage(
+            InputStream messageStream,
+            Communicator dst,
+            OutputStream deliveredStream,
+            boolean verbose
+    ) throws IOException {
+        RsaCommunicator rsaDst = (RsaCommunicator) dst;
+        rsaDst.startSending(deliveredStream);
+        transfer(messageStream, rsaDst, verbose);
+    }
+
+    public long getKeySetupNanos() {
+        return keySetupNanos;
+    }
+
+    public long getEncryptionNanos() {
+        return encryptionNanos;
+    }
+
+    public boolean hasMessageGot() {
+        return messageHasGot;
+    }
+
+    public ByteArrayOutputStream getMessageStream() {
+        return messageStream;
+    }
+
+    // Message bytes in one block of a keyLength bits modulus
+    public static int getBlockSize(int keyLength) {
+        return (keyLength + 7) / 8 - 2 * HASH_SIZE - 2;
+    }
+
+    private void transfer(InputStream messageStream, RsaCommunicator dst, boolean verbose) throws IOException {
+        long keySetupMark = keySetupNanos;
+        long encryptionMark = encryptionNanos;
+        int blockSize = getBlockSize(dst.keyLength);
+        if (verbose) {
+            System.out.printf("RSA scheme: block size = %s bytes%n", blockSize);
+        }
+        byte[] block = new byte[blockSize];
+        long count = 1;
+        int blockLength;
+        while ((blockLength = IOUtils.read(messageStream, block, 0, blockSize)) > 0) {
+            rekeyIfNeeded(dst, verbose);
+            long timeMark = System.nanoTime();
+            BigInteger encrypted = dst.encrypt(block, blockLength, randomSource);
+            if (verbose) {
+                System.out.printf("RSA scheme: c%s = %s%n", count++, encrypted);
+            }
+            dst.deliver(encrypted);
+            encryptionNanos += System.nanoTime() - timeMark;
+            keyBlocks++;
+            keyBytes += blockLength;
+        }
+        dst.stopSending();
+        if (verbose) {
+            System.out.printf(
+                    "RSA scheme: key setup %.3f ms, encryption %.3f ms%n",
+                    (keySetupNanos - keySetupMark) / 1e6,
+                    (encryptionNanos - encryptionMark) / 1e6
+            );
+        }
+    }
+
+    private void rekeyIfNeeded(RsaCommunicator dst, boolean verbose) {
+        if (dst == sessionDst && dst.n != null
+                && !rekeyPolicy.isRekeyNeeded(keyBlocks, keyBytes, keyTimeMark)) {
+            return;
+        }
+        long timeMark = System.nanoTime();
+        dst.generateKeys(verbose);
+        keySetupNanos += System.nanoTime() - timeMark;
+        sessionDst = dst;
+        keyBlocks = 0;
+        keyBytes = 0;
+        keyTimeMark = System.currentTimeMillis();
+    }
+
+    // n = p * q of exactly keyLength bits with e coprime to p - 1 and q - 1
+    private void generateKeys(boolean verbose) {
+        long timeMark = Metrics.start();
+        int pLength = (keyLength + 1) / 2;
+        int qLength = keyLength - pLength;
+        while (true) {
+            p = nextPrime(pLength);
+            q = nextPrime(qLength);
+            n = p.multiply(q);
+            if (!p.equals(q) && n.bitLength() == keyLength) {
+                break;
+            }
+        }
+        if (p.compareTo(q) < 0) {
+            BigInteger swap = p;
+            p = q;
+            q = swap;
+        }
+        BigInteger pMinusOne = p.subtract(ONE);
+        BigInteger qMinusOne = q.subtract(ONE);
+        BigInteger lambda = pMinusOne.divide(pMinusOne.gcd(qMinusOne)).multiply(qMinusOne);
+        d = PUBLIC_EXPONENT.modInverse(lambda);
+        dP = d.mod(pMinusOne);
+        dQ = d.mod(qMinusOne);
+        qInverse = q.modInverse(p);
+        Metrics.stop(Phase.RSA_KEY_SETUP, timeMark);
+
+        if (verbose) {
+            System.out.printf("RSA scheme: n = %s, e = %s%n", n, PUBLIC_EXPONENT);
+        }
+    }
+
+    private BigInteger nextPrime(int bitLength) {
+        while (true) {
+            BigInteger prime = CryptoUtils.generateRandom(bitLength, true, randomSource);
+            if (prime.subtract(ONE).gcd(PUBLIC_EXPONENT).equals(ONE)) {
+                return prime;
+            }
+        }
+    }
+
+    // Public key side: c = OAEP(block)^e mod n
+    private BigInteger encrypt(byte[] block, int blockLength, RandomSource randomSource) {
+        long timeMark = Metrics.start();
+        BigInteger encrypted = new BigInteger(1, pad(block, blockLength, randomSource)).modPow(PUBLIC_EXPONENT, n);
+        Metrics.stop(Phase.RSA_ENCRYPTION, timeMark, blockLength);
+        return encrypted;
+    }
+
+    // Private key side: m = c^d mod n as c^dP mod p and c^dQ mod q joined by Garner's formula
+    private BigInteger decrypt(BigInteger encrypted) {
+        long timeMark = Metrics.start();
+        BigInteger message;
+        if (crt) {
+            BigInteger mP = encrypted.modPow(dP, p);
+            BigInteger mQ = encrypted.modPow(dQ, q);
+            BigInteger h = qInverse.multiply(mP.subtract(mQ)).mod(p);
+            message = mQ.add(h.multiply(q));
+        } else {
+            message = encrypted.modPow(d, n);
+        }
+        Metrics.stop(Phase.RSA_DECRYPTION, timeMark);
+        return message;
+    }
+
+    private void deliver(BigInteger encrypted) throws IOException {
+        byte[] block = unpad(decrypt(encrypted));
+        messageSink.write(block, 0, block.length);
+    }
+
+    // EME-OAEP of RFC 8017: 0x00 || maskedSeed || maskedDB with DB = lHash || 0x00.. || 0x01 || M
+    private byte[] pad(byte[] block, int blockLength, RandomSource randomSource) {
+        int k = (keyLength + 7) / 8;
+        byte[] encoded = new byte[k];
+        byte[] seed = new byte[HASH_SIZE];
+        randomSource.random().nextBytes(seed);
+        int dbOffset = 1 + HASH_SIZE;
+        System.arraycopy(labelHash, 0, encoded, dbOffset, HASH_SIZE);
+        encoded[k - blockLength - 1] = 0x01;
+        System.arraycopy(block, 0, encoded, k - blockLength, blockLength);
+        mask(encoded, dbOffset, k - dbOffset, seed, 0, HASH_SIZE);
+        System.arraycopy(seed, 0, encoded, 1, HASH_SIZE);
+        mask(encoded, 1, HASH_SIZE, encoded, dbOffset, k - dbOffset);
+        return encoded;
+    }
+
+    private byte[] unpad(BigInteger message) throws IOException {
+        int k = (keyLength + 7) / 8;
+        byte[] value = message.toByteArray();
+        if (value.length > k) {
+            throw new IOException("RSA scheme: corrupted message block");
+        }
+        byte[] encoded = new byte[k];
+        System.arraycopy(value, 0, encoded, k - value.length, value.length);
+        int dbOffset = 1 + HASH_SIZE;
+        mask(encoded, 1, HASH_SIZE, encoded, dbOffset, k - dbOffset);
+        mask(encoded, dbOffset, k - dbOffset, encoded, 1, HASH_SIZE);
+
+        // The checks are all done before failing, so a bad block takes the same path whatever is wrong in it
+        boolean valid = encoded[0] == 0
+                & MessageDigest.isEqual(labelHash, Arrays.copyOfRange(encoded, dbOffset, dbOffset + HASH_SIZE));
+        int separator = -1;
+        for (int i = dbOffset + HASH_SIZE; i < k; i++) {
+            if (separator < 0 && encoded[i] != 0) {
+                separator = i;
+            }
+        }
+        if (!valid || separator < 0 || encoded[separator] != 0x01) {
+            throw new IOException("RSA scheme: corrupted message block");
+        }
+        return Arrays.copyOfRange(encoded, separator + 1, k);
+    }
+
+    // MGF1 with SHA-256: target[offset, offset + length) ^= MGF1(seed[seedOffset, seedOffset + seedLength))
+    private void mask(byte[] target, int offset, int length, byte[] seed, int seedOffset, int seedLength) {
+        byte[] counter = new byte[4];
+        for (int done = 0, i = 0; done < length; i++) {
+            counter[0] = (byte) (i >>> 24);
+            counter[1] = (byte) (i >>> 16);
+            counter[2] = (byte) (i >>> 8);
+            counter[3] = (byte) i;
+            hash.update(seed, seedOffset, seedLength);
+            hash.update(counter);
+            byte[] mask = hash.digest();
+            for (int j = 0; j < mask.length && done < length; j++, done++) {
+                target[offset + done] ^= mask[j];
+            }
+        }
+    }
+
+    private void startSending(OutputStream messageSink) {
+        this.messageSink = messageSink;
+        messageStream = null;
+        messageHasGot = false;
+
+        System.out.println("RSA scheme: start sending message...");
+    }
+
+    private void stopSending() throws IOException {
+        messageSink.flush();
+        messageSink = null;
+        messageHasGot = true;
+
+        System.out.println("RSA scheme: message has got");
+    }
+
+    public static class Builder {
+        private final RsaCommunicator communicator;
+
+        private Builder(int keyLength) {
+            communicator = new RsaCommunicator(keyLength);
+        }
+
+        public Builder setRekeyPolicy(RekeyPolicy rekeyPolicy) {
+            communicator.rekeyPolicy = rekeyPolicy;
+            return this;
+        }
+
+        public Builder setRandomSource(RandomSource randomSource) {
+            communicator.randomSource = randomSource;
+            return this;
+        }
+
+        // false decrypts with a single c^d mod n, kept to compare against
+        public Builder setCrt(boolean crt) {
+            communicator.crt = crt;
+            return this;
+        }
+
+        public RsaCommunicator build() {
+            return communicator;
+        }
+    }
+
+}
@@ -1,44 +1,106 @@
 package ru.sibsutis.security.encrypt;
 
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.tuple.Pair;
+import ru.sibsutis.security.metrics.Metrics;
+import ru.sibsutis.security.metrics.Phase;
 import ru.sibsutis.security.net.Communicator;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 public class ShamirCommunicator implements Communicator {
 
+    // Block mode packs bytes behind a 0x01 marker, so the block value stays below 2^(8 * size + 1) <= p
+    public static final int MIN_BLOCK_P_LENGTH = 10;
+
+    private static final int BLOCK_MARKER = 0x01;
+
+    // Blocks handed to one worker at a time in parallel mode
+    private static final int BLOCKS_PER_TASK = 64;
+
+    // Worker pools shared by all communicators of the same worker count: a session engine builds two communicators
+    // per session, a pool of their own would never be shut down. Idle pool threads exit by themselves.
+    private static final ConcurrentHashMap<Integer, ForkJoinPool> EXECUTORS = new ConcurrentHashMap<>();
+
     private final int pLength;
+    private boolean blockMode;
+    private RekeyPolicy rekeyPolicy = RekeyPolicy.NEVER;
+    private int workers = 1;
+    private ExecutorService executor;
+    private PrimePool primePool;
+    private boolean montgomery;
+    private RandomSource randomSource = RandomSource.current();
 
     private BigInteger c;
     private BigInteger d;
     private BigInteger p;
+    private MontgomeryEngine engine;
+    private ThreadLocal<MontgomeryEngine.Workspace> workspaces;
     private ByteArrayOutputStream messageStream;
+    private OutputStream messageSink;
     private boolean messageHasGot;
 
+    // Session state of the client side: keys are kept between messages until the rekey policy fires
+    private ShamirCommunicator sessionDst;
+    private long keyBlocks;
+    private long keyBytes;
+    private long keyTimeMark;
+    private long keySetupNanos;
+    private long encryptionNanos;
+
     public ShamirCommunicator(int pLength) {
         this.pLength = pLength;
         messageHasGot = false;
     }
 
+    public static Builder builder(int pLength) {
+        return new Builder(pLength);
+    }
+
     public void sendMessage(ByteArrayInputStream messageStream, Communicator dst, boolean verbose) {
-        BigInteger p = CryptoUtils.generateRandom(this.pLength, true);
         ShamirCommunicator shamirDst = (ShamirCommunicator) dst;
-        shamirDst.startSending();
-        if (verbose) {
-            System.out.printf("Shamir scheme: p = %s%n", p);
+        ByteArrayOutputStream deliveredStream = new ByteArrayOutputStream();
+        shamirDst.startSending(deliveredStream);
+        shamirDst.messageStream = deliveredStream;
+        try {
+            transfer(messageStream, shamirDst, verbose);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
+    }
 
-        long count = 1;
-        int messageChunk;
-        while ((messageChunk = messageStream.read()) != -1) {
-            if (verbose) {
-                System.out.printf("Shamir scheme: message %s = %s%n", count++, messageChunk);
-            }
-            sendMessage(messageChunk, shamirDst, p, verbose);
-        }
-        shamirDst.stopSending();
+    public void sendMessage(
+            InputStream messageStream,
+            Communicator dst,
+            OutputStream deliveredStream,
+            boolean verbose
+    ) throws IOException {
+        ShamirCommunicator shamirDst = (ShamirCommunicator) dst;
+        shamirDst.startSending(deliveredStream);
+        transfer(messageStream, shamirDst, verbose);
+    }
+
+    public long getKeySetupNanos() {
+        return keySetupNanos;
+    }
+
+    public long getEncryptionNanos() {
+        return encryptionNanos;
     }
 
     public boolean hasMessageGot() {
@@ -49,8 +111,160 @@ public class ShamirCommunicator implements Communicator {
         return messageStream;
     }
 
+    public static int getBlockSize(int pLength) {
+        return (pLength - 2) / 8;
+    }
+
+    private void transfer(InputStream messageStream, ShamirCommunicator shamirDst, boolean verbose)
+            throws IOException {
+        long keySetupMark = keySetupNanos;
+        long encryptionMark = encryptionNanos;
+        if (p == null) {
+            long timeMark = System.nanoTime();
+            p = primePool != null
+                    ? primePool.take(this.pLength)
+                    : CryptoUtils.generateRandom(this.pLength, true, randomSource);
+            if (montgomery) {
+                MontgomeryEngine pEngine = new MontgomeryEngine(p);
+                engine = pEngine;
+                workspaces = ThreadLocal.withInitial(pEngine::newWorkspace);
+            }
+            keySetupNanos += System.nanoTime() - timeMark;
+            if (verbose) {
+                System.out.printf("Shamir scheme: p = %s%n", p);
+            }
+        }
+
+        int blockSize = blockMode ? getBlockSize(pLength) : 1;
+        if (verbose && blockMode) {
+            System.out.printf("Shamir scheme: block size = %s bytes%n", blockSize);
+        }
+        if (workers > 1) {
+            transferParallel(messageStream, shamirDst, blockSize, verbose);
+        } else {
+            byte[] block = new byte[blockSize];
+            long count = 1;
+            int blockLength;
+            while ((blockLength = IOUtils.read(messageStream, block, 0, blockSize)) > 0) {
+                BigInteger messageChunk = packBlock(block, blockLength);
+                if (verbose) {
+                    System.out.printf("Shamir scheme: message %s = %s%n", count++, messageChunk);
+                }
+                sendMessage(messageChunk, blockLength, shamirDst, verbose);
+            }
+        }
+        shamirDst.stopSending();
+        if (verbose) {
+            System.out.printf(
+                    "Shamir scheme: key setup %.3f ms, encryption %.3f ms%n",
+                    (keySetupNanos - keySetupMark) / 1e6,
+                    (encryptionNanos - encryptionMark) / 1e6
+            );
+        }
+    }
+
+    // Blocks are independent within a session: a batch is split into ranges exchanged on the workers
+    // and delivered in the original order. Rekey policy is checked once per batch.
+    private void transferParallel(
+            InputStream messageStream,
+            ShamirCommunicator dst,
+            int blockSize,
+            boolean verbose
+    ) throws IOException {
+        if (executor == null) {
+            executor = EXECUTORS.computeIfAbsent(workers, ForkJoinPool::new);
+        }
+        if (verbose) {
+            System.out.printf("Shamir scheme: %s workers%n", workers);
+        }
+        int batchSize = workers * BLOCKS_PER_TASK;
+        BigInteger[] batch = new BigInteger[batchSize];
+        byte[] block = new byte[blockSize];
+        boolean endOfMessage = false;
+        while (!endOfMessage) {
+            int batchLength = 0;
+            long batchBytes = 0;
+            int blockLength;
+            while (batchLength < batchSize
+                    && (blockLength = IOUtils.read(messageStream, block, 0, blockSize)) > 0) {
+                batch[batchLength++] = packBlock(block, blockLength);
+                batchBytes += blockLength;
+            }
+            endOfMessage = batchLength < batchSize;
+            if (batchLength == 0) {
+                break;
+            }
+
+            rekeyIfNeeded(dst, verbose);
+            long timeMark = System.nanoTime();
+            BigInteger[] delivered = exchangeParallel(batch, batchLength, dst, verbose);
+            for (int i = 0; i < batchLength; i++) {
+                dst.deliver(delivered[i]);
+            }
+            encryptionNanos += System.nanoTime() - timeMark;
+            keyBlocks += batchLength;
+            keyBytes += batchBytes;
+        }
+    }
+
+    private BigInteger[] exchangeParallel(
+            BigInteger[] batch,
+            int batchLength,
+            ShamirCommunicator dst,
+            boolean verbose
+    ) throws IOException {
+        BigInteger[] delivered = new BigInteger[batchLength];
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int from = 0; from < batchLength; from += BLOCKS_PER_TASK) {
+            int start = from;
+            int end = Math.min(batchLength, from + BLOCKS_PER_TASK);
+            tasks.add(() -> {
+                for (int i = start; i < end; i++) {
+                    delivered[i] = exchange(batch[i], dst, verbose);
+                }
+                return null;
+            });
+        }
+        try {
+            for (Future<Void> result : executor.invokeAll(tasks)) {
+                result.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Shamir scheme: sending was interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Shamir scheme: block exchange failed", e.getCause());
+        }
+        return delivered;
+    }
+
+    private BigInteger packBlock(byte[] block, int blockLength) {
+        return packBlock(block, blockLength, blockMode);
+    }
+
+    // Message value of one block: the single byte in byte mode, the marked bytes in block mode
+    public static BigInteger packBlock(byte[] block, int blockLength, boolean blockMode) {
+        if (!blockMode) {
+            return BigInteger.valueOf(block[0] & 0xff);
+        }
+        byte[] packed = new byte[blockLength + 1];
+        packed[0] = BLOCK_MARKER;
+        System.arraycopy(block, 0, packed, 1, blockLength);
+        return new BigInteger(1, packed);
+    }
+
+    public static byte[] unpackBlock(BigInteger message) {
+        byte[] packed = message.toByteArray();
+        if (packed.length < 2 || packed[0] != BLOCK_MARKER) {
+            throw new IllegalStateException("Shamir scheme: corrupted message block");
+        }
+        return Arrays.copyOfRange(packed, 1, packed.length);
+    }
+
     private void init(BigInteger p, boolean verbose, boolean client) {
-        Pair<BigInteger, BigInteger> shamirPair = CryptoUtils.generateShamir(p);
+        long timeMark = Metrics.start();
+        Pair<BigInteger, BigInteger> shamirPair = CryptoUtils.generateShamir(p, randomSource);
+        Metrics.stop(Phase.KEY_SETUP, timeMark);
         c = shamirPair.getLeft();
         d = shamirPair.getRight();
         this.p = p;
@@ -60,15 +274,18 @@ public class ShamirCommunicator implements Communicator {
         }
     }
 
-    private void startSending() {
-        messageStream = new ByteArrayOutputStream();
+    private void startSending(OutputStream messageSink) {
+        this.messageSink = messageSink;
+        messageStream = null;
         messageHasGot = false;
 
         System.out.println("Shamir scheme: start sending message...");
     }
 
     private BigInteger firstStep(BigInteger x1, boolean verbose) {
+        long timeMark = Metrics.start();
         BigInteger x2 = x1.modPow(c, p);
+        Metrics.stop(Phase.SHAMIR_PASS_2, timeMark);
 
         if (verbose) {
             System.out.printf("Shamir scheme: x2 = %s%n", x2);
@@ -77,34 +294,149 @@ public class ShamirCommunicator implements Communicator {
         return x2;
     }
 
-    private void secondStep(BigInteger x3, boolean verbose) {
+    private BigInteger secondStep(BigInteger x3, boolean verbose) {
+        long timeMark = Metrics.start();
         BigInteger message = x3.modPow(d, p);
-        messageStream.write(message.intValue());
+        Metrics.stop(Phase.SHAMIR_PASS_4, timeMark);
 
         if (verbose) {
             System.out.printf("Shamir scheme: x4 = %s%n", message);
         }
+
+        return message;
     }
 
-    private void stopSending() {
+    private void deliver(BigInteger message) throws IOException {
+        if (blockMode) {
+            byte[] block = unpackBlock(message);
+            messageSink.write(block, 0, block.length);
+        } else {
+            messageSink.write(message.intValue());
+        }
+    }
+
+    private void stopSending() throws IOException {
+        messageSink.flush();
+        messageSink = null;
         messageHasGot = true;
 
         System.out.println("Shamir scheme: message has got");
     }
 
-    private void sendMessage(int message, ShamirCommunicator dst, BigInteger p, boolean verbose) {
+    private void rekeyIfNeeded(ShamirCommunicator dst, boolean verbose) {
+        if (dst == sessionDst && c != null
+                && !rekeyPolicy.isRekeyNeeded(keyBlocks, keyBytes, keyTimeMark)) {
+            return;
+        }
+        long timeMark = System.nanoTime();
         init(p, verbose, true);
         dst.init(p, verbose, false);
-        BigInteger x1 = BigInteger.valueOf(message).modPow(c, p);
+        keySetupNanos += System.nanoTime() - timeMark;
+        sessionDst = dst;
+        keyBlocks = 0;
+        keyBytes = 0;
+        keyTimeMark = System.currentTimeMillis();
+    }
+
+    private BigInteger exchange(BigInteger message, ShamirCommunicator dst, boolean verbose) {
+        if (engine != null) {
+            return exchangeMontgomery(message, dst, verbose);
+        }
+        long timeMark = Metrics.start();
+        BigInteger x1 = message.modPow(c, p);
+        Metrics.stop(Phase.SHAMIR_PASS_1, timeMark);
         if (verbose) {
             System.out.printf("Shamir scheme: x1 = %s%n", x1);
         }
         BigInteger x2 = dst.firstStep(x1, verbose);
+        timeMark = Metrics.start();
         BigInteger x3 = x2.modPow(d, p);
+        Metrics.stop(Phase.SHAMIR_PASS_3, timeMark);
         if (verbose) {
             System.out.printf("Shamir scheme: x3 = %s%n", x3);
         }
-        dst.secondStep(x3, verbose);
+        return dst.secondStep(x3, verbose);
+    }
+
+    // The same four passes with the block kept in Montgomery form in one limb array from the first pass to the last
+    private BigInteger exchangeMontgomery(BigInteger message, ShamirCommunicator dst, boolean verbose) {
+        MontgomeryEngine.Workspace workspace = workspaces.get();
+        int[] x = engine.toMontgomery(message);
+        pass(Phase.SHAMIR_PASS_1, "x1", x, c, workspace, verbose);
+        pass(Phase.SHAMIR_PASS_2, "x2", x, dst.c, workspace, verbose);
+        pass(Phase.SHAMIR_PASS_3, "x3", x, d, workspace, verbose);
+        pass(Phase.SHAMIR_PASS_4, "x4", x, dst.d, workspace, verbose);
+        return engine.fromMontgomery(x, workspace.getScratch());
+    }
+
+    private void pass(
+            Phase phase,
+            String name,
+            int[] x,
+            BigInteger key,
+            MontgomeryEngine.Workspace workspace,
+            boolean verbose
+    ) {
+        long timeMark = Metrics.start();
+        engine.modPow(x, key, x, workspace);
+        Metrics.stop(phase, timeMark);
+        if (verbose) {
+            System.out.printf("Shamir scheme: %s = %s%n", name, engine.fromMontgomery(x, workspace.getScratch()));
+        }
+    }
+
+    private void sendMessage(BigInteger message, int messageLength, ShamirCommunicator dst, boolean verbose)
+            throws IOException {
+        rekeyIfNeeded(dst, verbose);
+        long timeMark = System.nanoTime();
+        dst.deliver(exchange(message, dst, verbose));
+        encryptionNanos += System.nanoTime() - timeMark;
+        keyBlocks++;
+        keyBytes += messageLength;
+    }
+
+    public static class Builder {
+        private final ShamirCommunicator communicator;
+
+        private Builder(int pLength) {
+            communicator = new ShamirCommunicator(pLength);
+        }
+
+        public Builder setBlockMode(boolean blockMode) {
+            communicator.blockMode = blockMode;
+            return this;
+        }
+
+        public Builder setRekeyPolicy(RekeyPolicy rekeyPolicy) {
+            communicator.rekeyPolicy = rekeyPolicy;
+            return this;
+        }
+
+        public Builder setWorkers(int workers) {
+            communicator.workers = Math.max(1, workers);
+            return this;
+        }
+
+        public Builder setPrimePool(PrimePool primePool) {
+            communicator.primePool = primePool;
+            return this;
+        }
+
+        public Builder setRandomSource(RandomSource randomSource) {
+            communicator.randomSource = randomSource;
+            return this;
+        }
+
+        // Exponentiation through MontgomeryEngine instead of BigInteger.modPow: no garbage per block,
+        // but slower wherever the JVM has Montgomery intrinsics for BigInteger (HotSpot on x86_64)
+        public Builder setMontgomery(boolean montgomery) {
+            communicator.montgomery = montgomery;
+            return this;
+        }
+
+        public ShamirCommunicator build() {
+            return communicator;
+        }
     }
 
 }
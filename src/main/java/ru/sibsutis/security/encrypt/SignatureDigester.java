@@ -0,0 +1,423 @@
+package ru.sibsutis.security.encrypt;
+
+import ru.sibsutis.security.io.Message;
+import ru.sibsutis.security.io.MessageFraming;
+import ru.sibsutis.security.metrics.Metrics;
+import ru.sibsutis.security.metrics.Phase;
+import ru.sibsutis.security.net.Digester;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static java.math.BigInteger.ZERO;
+
+// Signed message layout shared by the GOST signatures: the framed message followed by the length prefixed r and s,
+// both below the group order q. Subclasses do the group arithmetic of signing and verification.
+public abstract class SignatureDigester implements Digester {
+
+    // r and s are below q, so the trailer stays small whatever the message size is
+    private static final int MAX_TRAILER_SIZE = 64 * 1024;
+
+    private final String name;
+    private final String hashAlgorithm;
+    protected final RandomSource randomSource;
+    protected final boolean verbose;
+
+    protected SignatureDigester(String name, String hashAlgorithm, RandomSource randomSource, boolean verbose) {
+        try {
+            MessageDigest.getInstance(hashAlgorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException(
+                    String.format("%s digest: unknown hash algorithm '%s'", name, hashAlgorithm), e
+            );
+        }
+        this.name = name;
+        this.hashAlgorithm = hashAlgorithm;
+        this.randomSource = randomSource;
+        this.verbose = verbose;
+    }
+
+    // Order q of the group, r and s are taken mod q
+    protected abstract BigInteger getOrder();
+
+    // r and s of a hash value below q
+    protected abstract BigInteger[] calculateSignature(BigInteger hashValue);
+
+    // Intermediate values of the verification equation ending with v, which is equal to r for a correct
+    // signature, or null for the signature out of range
+    protected abstract BigInteger[] verificationValues(BigInteger hashValue, BigInteger r, BigInteger s);
+
+    protected abstract void printVerificationValues(
+            BigInteger hashValue,
+            BigInteger r,
+            BigInteger s,
+            BigInteger[] values
+    );
+
+    public String getHashAlgorithm() {
+        return hashAlgorithm;
+    }
+
+    // Approximate heap footprint of the prepared digester: its parameters, keys and tables of its own
+    public abstract long getMemoryBytes();
+
+    // BigInteger object with its magnitude array, null values take nothing
+    protected static long memoryBytes(BigInteger... values) {
+        long bytes = 0;
+        for (BigInteger value : values) {
+            if (value != null) {
+                bytes += 56 + 4L * ((value.bitLength() + 31) / 32);
+            }
+        }
+        return bytes;
+    }
+
+    // The message is read once: straight into the signed message array, hashed in place and followed by r and s
+    public ByteArrayInputStream digest(ByteArrayInputStream messageStream) throws IOException {
+        System.out.printf("%s digest: signature calculation...%n", name);
+        MessageDigest messageDigest = createMessageDigest();
+        messageStream.mark(0);
+        int messageLength = messageStream.available();
+        byte[] signedMessage = new byte[messageLength + maxTrailerLength()];
+        messageLength = Math.max(0, messageStream.read(signedMessage, 0, messageLength));
+        messageStream.reset();
+        update(messageDigest, signedMessage, 0, messageLength);
+        BigInteger hashValue = hashValue(messageDigest);
+        if (hashValue.compareTo(ZERO) > 0) {
+            if (verbose) {
+                System.out.printf("%s digest: hash = %s%n", name, hashValue);
+            }
+
+            BigInteger[] signature = sign(hashValue);
+            byte[] trailer = signatureTrailer(signature[0], signature[1]);
+            System.arraycopy(trailer, 0, signedMessage, messageLength, trailer.length);
+
+            return new ByteArrayInputStream(signedMessage, 0, messageLength + trailer.length);
+        }
+        System.out.printf("%s digest: signature calculation failed%n", name);
+        return null;
+    }
+
+    // The delivered array is taken once and the framed message is copied out of it once
+    public ByteArrayOutputStream verify(ByteArrayOutputStream messageStream) throws IOException {
+        Message framedMessage = verify(Message.wrap(messageStream.toByteArray()));
+        ByteArrayOutputStream sentMessageStream = new ByteArrayOutputStream((int) framedMessage.size());
+        framedMessage.writeTo(sentMessageStream);
+        return sentMessageStream;
+    }
+
+    public Message digest(Message message) throws IOException {
+        System.out.printf("%s digest: signature calculation...%n", name);
+        MessageDigest messageDigest = createMessageDigest();
+        update(messageDigest, message);
+        BigInteger hashValue = hashValue(messageDigest);
+        if (hashValue.compareTo(ZERO) > 0) {
+            if (verbose) {
+                System.out.printf("%s digest: hash = %s%n", name, hashValue);
+            }
+
+            BigInteger[] signature = sign(hashValue);
+            return message.append(Message.wrap(signatureTrailer(signature[0], signature[1])));
+        }
+        System.out.printf("%s digest: signature calculation failed%n", name);
+        return null;
+    }
+
+    public Message verify(Message signedMessage) throws IOException {
+        System.out.printf("%s digest: signature verification...%n", name);
+        long framedSize = MessageFraming.HEADER_SIZE + Integer.toUnsignedLong(signedMessage.getInt(0));
+        long trailerSize = signedMessage.size() - framedSize;
+        if (trailerSize < 0 || trailerSize > MAX_TRAILER_SIZE) {
+            throw new IOException(name + " digest: signed message is truncated or its signature is too long");
+        }
+        Message framedMessage = signedMessage.slice(0, framedSize);
+        try (Message trailer = signedMessage.slice(framedSize, trailerSize)) {
+            BigInteger[] signature = parseTrailer(ByteBuffer.wrap(trailer.toByteArray()));
+            MessageDigest messageDigest = createMessageDigest();
+            update(messageDigest, framedMessage);
+            check(hashValue(messageDigest), signature[0], signature[1]);
+        } catch (RuntimeException e) {
+            framedMessage.close();
+            throw new IOException(name + " digest: signature is corrupted", e);
+        }
+        return framedMessage;
+    }
+
+    // All messages share one key, so the subclasses keep their fixed-base tables hot between the checks
+    public boolean[] verifyAll(List<byte[]> signedMessages) {
+        System.out.printf("%s digest: verification of %s signatures...%n", name, signedMessages.size());
+        boolean[] results = new boolean[signedMessages.size()];
+        IntStream.range(0, results.length)
+                .parallel()
+                .forEach(i -> results[i] = isSignedMessageCorrect(signedMessages.get(i)));
+        int correct = 0;
+        for (boolean result : results) {
+            correct += result ? 1 : 0;
+        }
+        System.out.printf("%s digest: %s of %s signatures are correct%n", name, correct, results.length);
+        return results;
+    }
+
+    public InputStream signingStream(InputStream messageStream) throws IOException {
+        System.out.printf("%s digest: signature calculation...%n", name);
+        return new SigningInputStream(messageStream, createMessageDigest());
+    }
+
+    public OutputStream verifyingStream(OutputStream deliveredStream) throws IOException {
+        System.out.printf("%s digest: signature verification...%n", name);
+        return new VerifyingOutputStream(deliveredStream, createMessageDigest());
+    }
+
+    protected BigInteger hashValue(MessageDigest messageDigest) {
+        return new BigInteger(1, messageDigest.digest()).mod(getOrder());
+    }
+
+    private BigInteger[] sign(BigInteger hashValue) {
+        long timeMark = Metrics.start();
+        BigInteger[] signature = calculateSignature(hashValue);
+        Metrics.stop(Phase.SIGNING, timeMark);
+
+        System.out.printf("%s digest: signature calculated%n", name);
+        if (verbose) {
+            System.out.printf("%s digest: r = %s%n", name, signature[0]);
+            System.out.printf("%s digest: s = %s%n", name, signature[1]);
+        }
+        return signature;
+    }
+
+    private boolean check(BigInteger hashValue, BigInteger r, BigInteger s) {
+        boolean isCorrect = false;
+        BigInteger[] values = timedVerificationValues(hashValue, r, s);
+        if (values != null) {
+            BigInteger v = values[values.length - 1];
+            if (v.compareTo(r) == 0) {
+                isCorrect = true;
+            }
+            if (verbose) {
+                printVerificationValues(hashValue, r, s, values);
+            }
+        }
+
+        System.out.printf("%s digest: signature is%s correct%n", name, isCorrect ? "" : "n't");
+        return isCorrect;
+    }
+
+    private BigInteger[] timedVerificationValues(BigInteger hashValue, BigInteger r, BigInteger s) {
+        if (hashValue == null) {
+            return null;
+        }
+        long timeMark = Metrics.start();
+        BigInteger[] values = verificationValues(hashValue, r, s);
+        if (values != null) {
+            Metrics.stop(Phase.VERIFICATION, timeMark);
+        }
+        return values;
+    }
+
+    // Quiet check of one message in the verify format: framed message followed by r and s
+    private boolean isSignedMessageCorrect(byte[] signedMessage) {
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(signedMessage);
+            long signedLength = MessageFraming.HEADER_SIZE + Integer.toUnsignedLong(buffer.getInt());
+            if (signedLength > signedMessage.length) {
+                return false;
+            }
+            MessageDigest messageDigest = createMessageDigest();
+            update(messageDigest, signedMessage, 0, (int) signedLength);
+            buffer.position((int) signedLength);
+            BigInteger[] signature = parseTrailer(buffer);
+            BigInteger r = signature[0];
+            BigInteger[] values = timedVerificationValues(hashValue(messageDigest), r, signature[1]);
+            return values != null && values[values.length - 1].compareTo(r) == 0;
+        } catch (IOException | RuntimeException e) {
+            return false;
+        }
+    }
+
+    private static void update(MessageDigest messageDigest, byte[] b, int off, int len) {
+        long timeMark = Metrics.start();
+        messageDigest.update(b, off, len);
+        Metrics.stop(Phase.HASHING, timeMark, len);
+    }
+
+    private static void update(MessageDigest messageDigest, Message message) {
+        long timeMark = Metrics.start();
+        message.update(messageDigest);
+        Metrics.stop(Phase.HASHING, timeMark, message.size());
+    }
+
+    private MessageDigest createMessageDigest() throws IOException {
+        try {
+            return MessageDigest.getInstance(hashAlgorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(name + " digest: hash algorithm is not available", e);
+        }
+    }
+
+    // r and s are below q: two length prefixes and two values of at most q bytes with a sign byte
+    private int maxTrailerLength() {
+        return 2 * (4 + getOrder().bitLength() / 8 + 1);
+    }
+
+    private static byte[] signatureTrailer(BigInteger r, BigInteger s) {
+        byte[] rArray = r.toByteArray();
+        byte[] sArray = s.toByteArray();
+        return ByteBuffer.allocate(4 + rArray.length + 4 + sArray.length)
+                .putInt(rArray.length)
+                .put(rArray)
+                .putInt(sArray.length)
+                .put(sArray)
+                .array();
+    }
+
+    // Length prefixed r and s
+    private static BigInteger[] parseTrailer(ByteBuffer trailer) {
+        byte[] rArray = new byte[trailer.getInt()];
+        trailer.get(rArray);
+        byte[] sArray = new byte[trailer.getInt()];
+        trailer.get(sArray);
+        return new BigInteger[]{new BigInteger(rArray), new BigInteger(sArray)};
+    }
+
+    private class SigningInputStream extends FilterInputStream {
+
+        private final MessageDigest messageDigest;
+        private ByteArrayInputStream trailer;
+
+        private SigningInputStream(InputStream in, MessageDigest messageDigest) {
+            super(in);
+            this.messageDigest = messageDigest;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] data = new byte[1];
+            return read(data, 0, 1) == -1 ? -1 : data[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (trailer == null) {
+                int count = in.read(b, off, len);
+                if (count != -1) {
+                    update(messageDigest, b, off, count);
+                    return count;
+                }
+                BigInteger hashValue = hashValue(messageDigest);
+                if (hashValue.compareTo(ZERO) <= 0) {
+                    System.out.printf("%s digest: signature calculation failed%n", name);
+                    throw new IOException(name + " digest: zero message hash");
+                }
+                if (verbose) {
+                    System.out.printf("%s digest: hash = %s%n", name, hashValue);
+                }
+                BigInteger[] signature = sign(hashValue);
+                trailer = new ByteArrayInputStream(signatureTrailer(signature[0], signature[1]));
+            }
+            return trailer.read(b, off, len);
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            throw new IOException(name + " digest: signed stream cannot be skipped");
+        }
+
+        @Override
+        public int available() throws IOException {
+            return trailer == null ? in.available() : trailer.available();
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+    }
+
+    private class VerifyingOutputStream extends OutputStream {
+
+        private final OutputStream out;
+        private final MessageDigest messageDigest;
+        private final byte[] header = new byte[4];
+        private int headerLength;
+        private long remaining;
+        private final ByteArrayOutputStream trailer = new ByteArrayOutputStream();
+        private boolean closed;
+
+        private VerifyingOutputStream(OutputStream out, MessageDigest messageDigest) {
+            this.out = out;
+            this.messageDigest = messageDigest;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (headerLength < header.length) {
+                int headerPart = Math.min(len, header.length - headerLength);
+                System.arraycopy(b, off, header, headerLength, headerPart);
+                headerLength += headerPart;
+                update(messageDigest, b, off, headerPart);
+                out.write(b, off, headerPart);
+                off += headerPart;
+                len -= headerPart;
+                if (headerLength == header.length) {
+                    remaining = MessageFraming.messageSize(header);
+                }
+            }
+            int messagePart = (int) Math.min(len, remaining);
+            if (messagePart > 0) {
+                update(messageDigest, b, off, messagePart);
+                out.write(b, off, messagePart);
+                remaining -= messagePart;
+                off += messagePart;
+                len -= messagePart;
+            }
+            if (len > 0) {
+                if (trailer.size() + len > MAX_TRAILER_SIZE) {
+                    throw new IOException(name + " digest: signature is too long");
+                }
+                trailer.write(b, off, len);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                if (headerLength < header.length || remaining > 0) {
+                    throw new IOException(name + " digest: signed message is truncated");
+                }
+                BigInteger[] signature = parseTrailer(ByteBuffer.wrap(trailer.toByteArray()));
+                check(hashValue(messageDigest), signature[0], signature[1]);
+            } catch (RuntimeException e) {
+                throw new IOException(name + " digest: signature is corrupted", e);
+            } finally {
+                out.close();
+            }
+        }
+
+    }
+
+}
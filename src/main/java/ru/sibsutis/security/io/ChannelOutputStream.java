@@ -0,0 +1,95 @@
+package ru.sibsutis.security.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+public class ChannelOutputStream extends OutputStream {
+
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    public static final int DEFAULT_BUFFER_COUNT = 16;
+
+    private final FileChannel channel;
+    // Direct buffers are filled one by one and drained with a single gathering write
+    private final ByteBuffer[] buffers;
+    private int current;
+
+    public ChannelOutputStream(Path path) throws IOException {
+        this(path, DEFAULT_BUFFER_SIZE, DEFAULT_BUFFER_COUNT);
+    }
+
+    public ChannelOutputStream(Path path, int bufferSize, int bufferCount) throws IOException {
+        this.channel = FileChannel.open(
+                path,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING
+        );
+        buffers = new ByteBuffer[bufferCount];
+        for (int i = 0; i < bufferCount; i++) {
+            buffers[i] = ByteBuffer.allocateDirect(bufferSize);
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        nextBufferIfNeeded();
+        buffers[current].put((byte) b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            nextBufferIfNeeded();
+            int count = Math.min(len, buffers[current].remaining());
+            buffers[current].put(b, off, count);
+            off += count;
+            len -= count;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        for (int i = 0; i <= current; i++) {
+            buffers[i].flip();
+        }
+        long remaining = 0;
+        for (int i = 0; i <= current; i++) {
+            remaining += buffers[i].remaining();
+        }
+        while (remaining > 0) {
+            remaining -= channel.write(buffers, 0, current + 1);
+        }
+        for (int i = 0; i <= current; i++) {
+            buffers[i].clear();
+        }
+        current = 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!channel.isOpen()) {
+            return;
+        }
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void nextBufferIfNeeded() throws IOException {
+        if (buffers[current].hasRemaining()) {
+            return;
+        }
+        if (current + 1 < buffers.length) {
+            current++;
+        } else {
+            flush();
+        }
+    }
+
+}
@@ -0,0 +1,239 @@
+package ru.sibsutis.security.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Bounded queue of byte chunks between two threads: the producer writes into getOutputStream(),
+// the consumer reads the same bytes from getInputStream()
+public final class ChunkPipe {
+
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+    private static final byte[] END = new byte[0];
+    private static final long POLL_MILLIS = 100L;
+
+    private final String name;
+    private final int capacity;
+    private final int chunkSize;
+    private final BlockingQueue<byte[]> queue;
+    private final InputStream inputStream = new PipeInputStream();
+    private final OutputStream outputStream = new PipeOutputStream();
+    private volatile boolean aborted;
+
+    private final AtomicLong chunks = new AtomicLong();
+    private final AtomicLong depthSum = new AtomicLong();
+    private final AtomicLong maxDepth = new AtomicLong();
+    private final AtomicLong producerWaitNanos = new AtomicLong();
+    private final AtomicLong consumerWaitNanos = new AtomicLong();
+
+    public ChunkPipe(String name, int capacity, int chunkSize) {
+        if (capacity < 1 || chunkSize < 1) {
+            throw new IllegalArgumentException("Pipe capacity and chunk size have to be positive");
+        }
+        this.name = name;
+        this.capacity = capacity;
+        this.chunkSize = chunkSize;
+        queue = new ArrayBlockingQueue<>(capacity);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public InputStream getInputStream() {
+        return inputStream;
+    }
+
+    public OutputStream getOutputStream() {
+        return outputStream;
+    }
+
+    // Wakes up both sides, they fail with an IOException instead of waiting for each other forever
+    public void abort() {
+        aborted = true;
+        queue.clear();
+    }
+
+    public int getDepth() {
+        return queue.size();
+    }
+
+    public long getMaxDepth() {
+        return maxDepth.get();
+    }
+
+    // Queue depth seen by the producer right after each put
+    public double getAverageDepth() {
+        long count = chunks.get();
+        return count == 0 ? 0 : (double) depthSum.get() / count;
+    }
+
+    // Time the producer was blocked on a full queue
+    public long getProducerWaitNanos() {
+        return producerWaitNanos.get();
+    }
+
+    // Time the consumer was blocked on an empty queue
+    public long getConsumerWaitNanos() {
+        return consumerWaitNanos.get();
+    }
+
+    private void put(byte[] chunk) throws IOException {
+        long timeMark = System.nanoTime();
+        try {
+            while (!offer(chunk)) {
+                checkAborted();
+            }
+        } finally {
+            producerWaitNanos.addAndGet(System.nanoTime() - timeMark);
+        }
+        checkAborted();
+        if (chunk != END) {
+            long depth = queue.size();
+            chunks.incrementAndGet();
+            depthSum.addAndGet(depth);
+            if (depth > maxDepth.get()) {
+                maxDepth.set(depth);
+            }
+        }
+    }
+
+    private boolean offer(byte[] chunk) throws IOException {
+        try {
+            return queue.offer(chunk, POLL_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(String.format("Pipe '%s' is interrupted", name));
+        }
+    }
+
+    private byte[] take() throws IOException {
+        long timeMark = System.nanoTime();
+        try {
+            while (true) {
+                checkAborted();
+                byte[] chunk = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (chunk != null) {
+                    return chunk;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(String.format("Pipe '%s' is interrupted", name));
+        } finally {
+            consumerWaitNanos.addAndGet(System.nanoTime() - timeMark);
+        }
+    }
+
+    private void checkAborted() throws IOException {
+        if (aborted) {
+            throw new IOException(String.format("Pipe '%s' is aborted", name));
+        }
+    }
+
+    private final class PipeOutputStream extends OutputStream {
+        private byte[] chunk;
+        private int length;
+        private boolean closed;
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (closed) {
+                throw new IOException(String.format("Pipe '%s' is closed", name));
+            }
+            while (len > 0) {
+                if (chunk == null) {
+                    chunk = new byte[chunkSize];
+                }
+                int part = Math.min(len, chunk.length - length);
+                System.arraycopy(b, off, chunk, length, part);
+                length += part;
+                off += part;
+                len -= part;
+                if (length == chunk.length) {
+                    putChunk();
+                }
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (length > 0) {
+                putChunk();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            flush();
+            closed = true;
+            put(END);
+        }
+
+        private void putChunk() throws IOException {
+            byte[] full = length == chunk.length ? chunk : Arrays.copyOf(chunk, length);
+            chunk = null;
+            length = 0;
+            put(full);
+        }
+    }
+
+    private final class PipeInputStream extends InputStream {
+        private byte[] chunk;
+        private int position;
+        private boolean finished;
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            while (chunk == null || position == chunk.length) {
+                if (finished) {
+                    return -1;
+                }
+                chunk = take();
+                position = 0;
+                if (chunk == END) {
+                    finished = true;
+                    chunk = null;
+                }
+            }
+            int part = Math.min(len, chunk.length - position);
+            System.arraycopy(chunk, position, b, off, part);
+            position += part;
+            return part;
+        }
+
+        @Override
+        public int available() {
+            return chunk == null ? 0 : chunk.length - position;
+        }
+    }
+
+}
@@ -0,0 +1,95 @@
+package ru.sibsutis.security.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+public class MappedFileInputStream extends InputStream {
+
+    // Regions are mapped one after another, so only one of them is kept mapped by the stream
+    public static final int DEFAULT_REGION_SIZE = 64 * 1024 * 1024;
+
+    private final FileChannel channel;
+    private final long size;
+    private final int regionSize;
+    private long regionPosition;
+    private MappedByteBuffer region;
+
+    public MappedFileInputStream(Path path) throws IOException {
+        this(path, DEFAULT_REGION_SIZE);
+    }
+
+    public MappedFileInputStream(Path path, int regionSize) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        this.size = channel.size();
+        this.regionSize = regionSize;
+    }
+
+    public long size() {
+        return size;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!nextRegionIfNeeded()) {
+            return -1;
+        }
+        return region.get() & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!nextRegionIfNeeded()) {
+            return -1;
+        }
+        int count = Math.min(len, region.remaining());
+        region.get(b, off, count);
+        return count;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = 0;
+        while (skipped < n && nextRegionIfNeeded()) {
+            int count = (int) Math.min(n - skipped, region.remaining());
+            region.position(region.position() + count);
+            skipped += count;
+        }
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        long consumed = regionPosition + (region == null ? 0 : region.position());
+        return (int) Math.min(Integer.MAX_VALUE, size - consumed);
+    }
+
+    @Override
+    public void close() throws IOException {
+        region = null;
+        channel.close();
+    }
+
+    private boolean nextRegionIfNeeded() throws IOException {
+        if (region != null && region.hasRemaining()) {
+            return true;
+        }
+        if (region != null) {
+            regionPosition += region.capacity();
+        }
+        if (regionPosition >= size) {
+            region = null;
+            return false;
+        }
+        long mappedSize = Math.min(regionSize, size - regionPosition);
+        region = channel.map(FileChannel.MapMode.READ_ONLY, regionPosition, mappedSize);
+        return true;
+    }
+
+}
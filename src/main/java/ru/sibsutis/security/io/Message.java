@@ -0,0 +1,314 @@
+package ru.sibsutis.security.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Message as a sequence of byte buffer segments. Slices, appended headers and trailers share the segments
+// instead of copying them, so a payload is framed, signed, unframed and stripped of its signature in place.
+// Segments taken from a buffer pool go back to it when the last message sharing them is closed; none of those
+// messages can be read after that.
+public final class Message implements Closeable {
+
+    private static final ByteBuffer[] NO_SEGMENTS = new ByteBuffer[0];
+    private static final Owner[] NO_OWNERS = new Owner[0];
+    private static final int COPY_BUFFER_SIZE = 8 * 1024;
+
+    // Each segment spans from 0 to its limit and is never modified
+    private final ByteBuffer[] segments;
+    private final Owner[] owners;
+    private final long size;
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    private Message(ByteBuffer[] segments, Owner[] owners) {
+        this.segments = segments;
+        this.owners = owners;
+        long size = 0;
+        for (ByteBuffer segment : segments) {
+            size += segment.limit();
+        }
+        this.size = size;
+        for (Owner owner : owners) {
+            owner.retain();
+        }
+    }
+
+    public static Message wrap(byte[] bytes) {
+        return wrap(bytes, 0, bytes.length);
+    }
+
+    public static Message wrap(byte[] bytes, int offset, int length) {
+        return wrap(ByteBuffer.wrap(bytes, offset, length));
+    }
+
+    // Remaining bytes of the buffers, they must not be changed while the message is in use
+    public static Message wrap(ByteBuffer... buffers) {
+        List<ByteBuffer> segments = new ArrayList<>(buffers.length);
+        for (ByteBuffer buffer : buffers) {
+            if (buffer.hasRemaining()) {
+                segments.add(buffer.slice());
+            }
+        }
+        return new Message(segments.toArray(NO_SEGMENTS), NO_OWNERS);
+    }
+
+    // Frame header followed by the payload, which is not copied
+    public static Message framed(byte[] payload) {
+        return wrap(ByteBuffer.wrap(MessageFraming.header(payload.length)), ByteBuffer.wrap(payload));
+    }
+
+    // Buffers filled from 0 to their limits, released to the pool when the message is closed
+    static Message pooled(BufferPool pool, List<ByteBuffer> buffers) {
+        Owner owner = new Owner(pool, buffers.toArray(NO_SEGMENTS));
+        List<ByteBuffer> segments = new ArrayList<>(buffers.size());
+        for (ByteBuffer buffer : buffers) {
+            if (buffer.hasRemaining()) {
+                segments.add(buffer.duplicate());
+            }
+        }
+        Message message = new Message(segments.toArray(NO_SEGMENTS), new Owner[]{owner});
+        if (message.segments.length == 0) {
+            message.close();
+        }
+        return message;
+    }
+
+    public long size() {
+        return size;
+    }
+
+    public int getSegmentCount() {
+        return segments.length;
+    }
+
+    // This message followed by the other one, both keep their segments
+    public Message append(Message other) {
+        ByteBuffer[] joined = Arrays.copyOf(segments, segments.length + other.segments.length);
+        System.arraycopy(other.segments, 0, joined, segments.length, other.segments.length);
+        Set<Owner> joinedOwners = new LinkedHashSet<>(Arrays.asList(owners));
+        joinedOwners.addAll(Arrays.asList(other.owners));
+        return new Message(joined, joinedOwners.toArray(NO_OWNERS));
+    }
+
+    public Message prepend(Message other) {
+        return other.append(this);
+    }
+
+    // length bytes from offset, a view of the same segments
+    public Message slice(long offset, long length) {
+        checkRange(offset, length);
+        List<ByteBuffer> sliced = new ArrayList<>();
+        long segmentStart = 0;
+        long end = offset + length;
+        for (ByteBuffer segment : segments) {
+            long segmentEnd = segmentStart + segment.limit();
+            if (segmentEnd > offset && segmentStart < end) {
+                ByteBuffer part = segment.duplicate();
+                part.limit((int) (Math.min(end, segmentEnd) - segmentStart));
+                part.position((int) (Math.max(offset, segmentStart) - segmentStart));
+                sliced.add(part.slice());
+            }
+            segmentStart = segmentEnd;
+        }
+        return new Message(sliced.toArray(NO_SEGMENTS), owners);
+    }
+
+    public byte get(long offset) {
+        checkRange(offset, 1);
+        for (ByteBuffer segment : segments) {
+            if (offset < segment.limit()) {
+                return segment.get((int) offset);
+            }
+            offset -= segment.limit();
+        }
+        throw new IndexOutOfBoundsException();
+    }
+
+    // Big-endian int, possibly split between segments such as a frame header
+    public int getInt(long offset) {
+        checkRange(offset, 4);
+        long segmentOffset = offset;
+        for (ByteBuffer segment : segments) {
+            if (segmentOffset < segment.limit()) {
+                if (segmentOffset + 4 <= segment.limit()) {
+                    return segment.getInt((int) segmentOffset);
+                }
+                break;
+            }
+            segmentOffset -= segment.limit();
+        }
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+            value = value << 8 | get(offset + i) & 0xFF;
+        }
+        return value;
+    }
+
+    // Read-only views of the segments, for gathering writes
+    public ByteBuffer[] buffers() {
+        ByteBuffer[] buffers = new ByteBuffer[segments.length];
+        for (int i = 0; i < segments.length; i++) {
+            buffers[i] = segments[i].asReadOnlyBuffer();
+        }
+        return buffers;
+    }
+
+    public void update(MessageDigest messageDigest) {
+        for (ByteBuffer segment : segments) {
+            messageDigest.update(segment.duplicate());
+        }
+    }
+
+    public long writeTo(GatheringByteChannel channel) throws IOException {
+        ByteBuffer[] buffers = buffers();
+        long written = 0;
+        while (written < size) {
+            written += channel.write(buffers);
+        }
+        return written;
+    }
+
+    public void writeTo(OutputStream outputStream) throws IOException {
+        byte[] copyBuffer = null;
+        for (ByteBuffer segment : segments) {
+            if (segment.hasArray()) {
+                outputStream.write(segment.array(), segment.arrayOffset(), segment.limit());
+                continue;
+            }
+            if (copyBuffer == null) {
+                copyBuffer = new byte[COPY_BUFFER_SIZE];
+            }
+            ByteBuffer source = segment.duplicate();
+            while (source.hasRemaining()) {
+                int part = Math.min(copyBuffer.length, source.remaining());
+                source.get(copyBuffer, 0, part);
+                outputStream.write(copyBuffer, 0, part);
+            }
+        }
+    }
+
+    // Stream over the segments, it does not own them: the message has to stay open while the stream is read
+    public InputStream asInputStream() {
+        return new SegmentInputStream();
+    }
+
+    // The only method copying the whole message
+    public byte[] toByteArray() {
+        if (size > Integer.MAX_VALUE - 8) {
+            throw new IllegalStateException(String.format("Message of %s bytes does not fit in an array", size));
+        }
+        byte[] bytes = new byte[(int) size];
+        int position = 0;
+        for (ByteBuffer segment : segments) {
+            segment.duplicate().get(bytes, position, segment.limit());
+            position += segment.limit();
+        }
+        return bytes;
+    }
+
+    @Override
+    public void close() {
+        if (closed.compareAndSet(false, true)) {
+            for (Owner owner : owners) {
+                owner.release();
+            }
+        }
+    }
+
+    private void checkRange(long offset, long length) {
+        if (offset < 0 || length < 0 || offset + length > size) {
+            throw new IndexOutOfBoundsException(
+                    String.format("Range [%s, %s) is out of the message of %s bytes", offset, offset + length, size)
+            );
+        }
+    }
+
+    // Pooled buffers with the count of the messages sharing them
+    private static final class Owner {
+        private final BufferPool pool;
+        private final ByteBuffer[] buffers;
+        private final AtomicInteger references = new AtomicInteger();
+
+        private Owner(BufferPool pool, ByteBuffer[] buffers) {
+            this.pool = pool;
+            this.buffers = buffers;
+        }
+
+        private void retain() {
+            references.incrementAndGet();
+        }
+
+        private void release() {
+            if (references.decrementAndGet() == 0) {
+                for (ByteBuffer buffer : buffers) {
+                    pool.release(buffer);
+                }
+            }
+        }
+    }
+
+    private final class SegmentInputStream extends InputStream {
+        private int index;
+        private ByteBuffer current;
+
+        @Override
+        public int read() throws IOException {
+            return nextSegment() ? current.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!nextSegment()) {
+                return -1;
+            }
+            int part = Math.min(len, current.remaining());
+            current.get(b, off, part);
+            return part;
+        }
+
+        @Override
+        public long skip(long n) {
+            long skipped = 0;
+            while (skipped < n && nextSegment()) {
+                int part = (int) Math.min(n - skipped, current.remaining());
+                current.position(current.position() + part);
+                skipped += part;
+            }
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            long available = current == null ? 0 : current.remaining();
+            for (int i = index; i < segments.length; i++) {
+                available += segments[i].limit();
+            }
+            return (int) Math.min(available, Integer.MAX_VALUE);
+        }
+
+        private boolean nextSegment() {
+            while (current == null || !current.hasRemaining()) {
+                if (index == segments.length) {
+                    return false;
+                }
+                current = segments[index++].duplicate();
+            }
+            return true;
+        }
+    }
+
+}
@@ -0,0 +1,34 @@
+package ru.sibsutis.security.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+
+public final class MessageFraming {
+
+    public static final int HEADER_SIZE = 4;
+
+    // Message size is stored as an unsigned 32-bit value
+    public static final long MAX_MESSAGE_SIZE = 0xFFFFFFFFL;
+
+    private MessageFraming() {}
+
+    public static byte[] header(long messageSize) {
+        if (messageSize < 0 || messageSize > MAX_MESSAGE_SIZE) {
+            throw new IllegalArgumentException(
+                    String.format("Message size %s is out of range [0, %s]", messageSize, MAX_MESSAGE_SIZE)
+            );
+        }
+        return ByteBuffer.allocate(HEADER_SIZE).putInt((int) messageSize).array();
+    }
+
+    public static long messageSize(byte[] header) {
+        return Integer.toUnsignedLong(ByteBuffer.wrap(header, 0, HEADER_SIZE).getInt());
+    }
+
+    public static InputStream frame(InputStream messageStream, long messageSize) {
+        return new SequenceInputStream(new ByteArrayInputStream(header(messageSize)), messageStream);
+    }
+
+}
@@ -0,0 +1,73 @@
+package ru.sibsutis.security.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+// Collects the written bytes in pooled buffers, which are handed over to the message of toMessage() as they are.
+// Unlike ByteArrayOutputStream it never grows and copies an array and never copies the result out.
+public class MessageOutputStream extends OutputStream {
+
+    private final BufferPool pool;
+    private final List<ByteBuffer> buffers = new ArrayList<>();
+    private ByteBuffer current;
+    private boolean closed;
+
+    public MessageOutputStream() {
+        this(BufferPool.getDefault());
+    }
+
+    public MessageOutputStream(BufferPool pool) {
+        this.pool = pool;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        checkOpen();
+        while (len > 0) {
+            if (current == null || !current.hasRemaining()) {
+                current = pool.acquire();
+                buffers.add(current);
+            }
+            int part = Math.min(len, current.remaining());
+            current.put(b, off, part);
+            off += part;
+            len -= part;
+        }
+    }
+
+    // Written bytes as a message owning the buffers, the stream cannot be written after it
+    public Message toMessage() throws IOException {
+        checkOpen();
+        closed = true;
+        for (ByteBuffer buffer : buffers) {
+            buffer.flip();
+        }
+        return Message.pooled(pool, buffers);
+    }
+
+    // Without toMessage() the buffers go straight back to the pool
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            for (ByteBuffer buffer : buffers) {
+                pool.release(buffer);
+            }
+        }
+    }
+
+    private void checkOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Message stream is closed");
+        }
+    }
+
+}
@@ -0,0 +1,50 @@
+package ru.sibsutis.security.io;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+public class UnframingOutputStream extends FilterOutputStream {
+
+    private final byte[] header = new byte[MessageFraming.HEADER_SIZE];
+    private int headerLength;
+    private long remaining;
+
+    public UnframingOutputStream(OutputStream out) {
+        super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (headerLength < header.length) {
+            int headerPart = Math.min(len, header.length - headerLength);
+            System.arraycopy(b, off, header, headerLength, headerPart);
+            headerLength += headerPart;
+            off += headerPart;
+            len -= headerPart;
+            if (headerLength == header.length) {
+                remaining = MessageFraming.messageSize(header);
+            }
+        }
+        int messagePart = (int) Math.min(len, remaining);
+        if (messagePart > 0) {
+            out.write(b, off, messagePart);
+            remaining -= messagePart;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (headerLength < header.length || remaining > 0) {
+            super.close();
+            throw new IOException("Delivered message is truncated");
+        }
+        super.close();
+    }
+
+}
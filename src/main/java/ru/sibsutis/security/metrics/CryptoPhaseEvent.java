@@ -0,0 +1,30 @@
+package ru.sibsutis.security.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+@Name("ru.sibsutis.security.CryptoPhase")
+@Label("Crypto Phase")
+@Category("Cryptor")
+@Description("One finished crypto phase: prime generation, key setup, Shamir pass, hashing, signing or I/O")
+@StackTrace(false)
+public class CryptoPhaseEvent extends Event {
+
+    @Label("Phase")
+    String phase;
+
+    @Label("Elapsed")
+    @Timespan(Timespan.NANOSECONDS)
+    long elapsed;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+
+}
@@ -0,0 +1,17 @@
+package ru.sibsutis.security.metrics;
+
+// Loaded reflectively by Metrics only where jdk.jfr exists
+final class JfrPhaseEventSink implements PhaseEventSink {
+
+    @Override
+    public void emit(Phase phase, long elapsedNanos, long bytes) {
+        CryptoPhaseEvent event = new CryptoPhaseEvent();
+        if (event.shouldCommit()) {
+            event.phase = phase.getCode();
+            event.elapsed = elapsedNanos;
+            event.bytes = bytes;
+            event.commit();
+        }
+    }
+
+}
@@ -0,0 +1,148 @@
+package ru.sibsutis.security.metrics;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+// Timings and counts of the crypto phases. Collection is off until enable() is called: then every
+// start() is a single static field check returning 0 and stop() returns right away.
+public final class Metrics {
+
+    public static final String JMX_DOMAIN = "ru.sibsutis.security";
+
+    // Set once on startup before the worker threads are created, so a plain field is enough
+    private static boolean enabled;
+
+    private static final PhaseStats[] STATS = new PhaseStats[Phase.values().length];
+    private static PhaseEventSink eventSink;
+
+    static {
+        for (Phase phase : Phase.values()) {
+            STATS[phase.ordinal()] = new PhaseStats(phase);
+        }
+    }
+
+    private Metrics() {}
+
+    // Starts collection, registers the phase MBeans and, where the JVM has Flight Recorder, the JFR events
+    public static synchronized void enable() {
+        if (enabled) {
+            return;
+        }
+        registerMBeans();
+        eventSink = createEventSink();
+        enabled = true;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static long start() {
+        return enabled ? System.nanoTime() : 0L;
+    }
+
+    public static void stop(Phase phase, long startNanos) {
+        stop(phase, startNanos, 0);
+    }
+
+    public static void stop(Phase phase, long startNanos, long bytes) {
+        if (!enabled) {
+            return;
+        }
+        long elapsedNanos = System.nanoTime() - startNanos;
+        STATS[phase.ordinal()].record(elapsedNanos, bytes);
+        if (eventSink != null) {
+            eventSink.emit(phase, elapsedNanos, bytes);
+        }
+    }
+
+    public static void reset() {
+        for (PhaseStats stats : STATS) {
+            stats.reset();
+        }
+    }
+
+    public static PhaseStats get(Phase phase) {
+        return STATS[phase.ordinal()];
+    }
+
+    public static InputStream instrument(InputStream inputStream, Phase phase) {
+        return enabled && inputStream != null ? new TimedInputStream(inputStream, phase) : inputStream;
+    }
+
+    public static OutputStream instrument(OutputStream outputStream, Phase phase) {
+        return enabled && outputStream != null ? new TimedOutputStream(outputStream, phase) : outputStream;
+    }
+
+    public static void printSummary() {
+        if (!enabled) {
+            return;
+        }
+        System.out.println("Cryptor: phase statistics");
+        System.out.printf(
+                "%-18s %10s %12s %12s %12s %12s %12s %14s%n",
+                "phase", "count", "total ms", "mean us", "p50 us", "p99 us", "max us", "bytes"
+        );
+        for (PhaseStats stats : STATS) {
+            if (stats.getCount() == 0) {
+                continue;
+            }
+            System.out.printf(
+                    "%-18s %10d %12.3f %12.1f %12.1f %12.1f %12.1f %14d%n",
+                    stats.getPhase().getCode(),
+                    stats.getCount(),
+                    stats.getTotalMillis(),
+                    stats.getMeanMicros(),
+                    stats.getP50Micros(),
+                    stats.getP99Micros(),
+                    stats.getMaxMicros(),
+                    stats.getBytes()
+            );
+        }
+    }
+
+    // Another statistics source such as a cache, false when the MBean cannot be registered
+    public static boolean registerMBean(Object mbean, String type, String name) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(
+                    mbean, new ObjectName(String.format("%s:type=%s,name=%s", JMX_DOMAIN, type, name))
+            );
+        } catch (InstanceAlreadyExistsException ignored) {
+            // registered by another Cryptor instance in the same JVM
+        } catch (JMException e) {
+            return false;
+        }
+        return true;
+    }
+
+    private static void registerMBeans() {
+        List<String> failed = new ArrayList<>();
+        for (PhaseStats stats : STATS) {
+            if (!registerMBean(stats, "CryptoPhase", stats.getPhase().getCode())) {
+                failed.add(stats.getPhase().getCode());
+            }
+        }
+        if (!failed.isEmpty()) {
+            System.out.printf("Cryptor: phase MBeans %s are not registered%n", failed);
+        }
+    }
+
+    // jdk.jfr is absent on Java 8 runtimes, the sink class is only touched when Flight Recorder is there
+    private static PhaseEventSink createEventSink() {
+        try {
+            Class.forName("jdk.jfr.FlightRecorder");
+            return (PhaseEventSink) Class.forName("ru.sibsutis.security.metrics.JfrPhaseEventSink")
+                    .getDeclaredConstructor()
+                    .newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+}
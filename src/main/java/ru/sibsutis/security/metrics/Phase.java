@@ -0,0 +1,39 @@
+package ru.sibsutis.security.metrics;
+
+public enum Phase {
+    PRIME_GENERATION("primeGeneration", "Prime generation"),
+    GOST_PARAMETERS("gostParameters", "GOST R34.10-94 parameters generation"),
+    KEY_SETUP("keySetup", "Shamir (c, d) key setup"),
+    SHAMIR_PASS_1("shamirPass1", "Shamir pass 1: client c"),
+    SHAMIR_PASS_2("shamirPass2", "Shamir pass 2: server c"),
+    SHAMIR_PASS_3("shamirPass3", "Shamir pass 3: client d"),
+    SHAMIR_PASS_4("shamirPass4", "Shamir pass 4: server d"),
+    ROUND_TRIP("roundTrip", "Shamir TCP batch round trip"),
+    BULK_ENCRYPTION("bulkEncryption", "Hybrid AES-GCM chunk encryption"),
+    BULK_DECRYPTION("bulkDecryption", "Hybrid AES-GCM chunk decryption"),
+    RSA_KEY_SETUP("rsaKeySetup", "RSA key pair generation"),
+    RSA_ENCRYPTION("rsaEncryption", "RSA block padding and public key encryption"),
+    RSA_DECRYPTION("rsaDecryption", "RSA block private key decryption"),
+    HASHING("hashing", "Message hashing"),
+    SIGNING("signing", "Signature calculation"),
+    VERIFICATION("verification", "Signature verification"),
+    READ("read", "Message read"),
+    WRITE("write", "Delivered message write"),
+    SESSION("session", "Send session from submit to delivery");
+
+    private final String code;
+    private final String description;
+
+    Phase(String code, String description) {
+        this.code = code;
+        this.description = description;
+    }
+
+    public String getCode() {
+        return code;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+}
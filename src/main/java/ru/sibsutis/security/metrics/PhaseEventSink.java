@@ -0,0 +1,5 @@
+package ru.sibsutis.security.metrics;
+
+interface PhaseEventSink {
+    void emit(Phase phase, long elapsedNanos, long bytes);
+}
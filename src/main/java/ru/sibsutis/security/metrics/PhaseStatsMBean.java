@@ -0,0 +1,13 @@
+package ru.sibsutis.security.metrics;
+
+public interface PhaseStatsMBean {
+    String getDescription();
+    long getCount();
+    long getBytes();
+    double getTotalMillis();
+    double getMeanMicros();
+    double getP50Micros();
+    double getP99Micros();
+    double getMaxMicros();
+    void reset();
+}
@@ -0,0 +1,32 @@
+package ru.sibsutis.security.metrics;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+final class TimedInputStream extends FilterInputStream {
+
+    private final Phase phase;
+
+    TimedInputStream(InputStream in, Phase phase) {
+        super(in);
+        this.phase = phase;
+    }
+
+    @Override
+    public int read() throws IOException {
+        long timeMark = Metrics.start();
+        int value = in.read();
+        Metrics.stop(phase, timeMark, value < 0 ? 0 : 1);
+        return value;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        long timeMark = Metrics.start();
+        int count = in.read(b, off, len);
+        Metrics.stop(phase, timeMark, Math.max(0, count));
+        return count;
+    }
+
+}
@@ -0,0 +1,37 @@
+package ru.sibsutis.security.metrics;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+final class TimedOutputStream extends FilterOutputStream {
+
+    private final Phase phase;
+
+    TimedOutputStream(OutputStream out, Phase phase) {
+        super(out);
+        this.phase = phase;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        long timeMark = Metrics.start();
+        out.write(b);
+        Metrics.stop(phase, timeMark, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        long timeMark = Metrics.start();
+        out.write(b, off, len);
+        Metrics.stop(phase, timeMark, len);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        long timeMark = Metrics.start();
+        out.flush();
+        Metrics.stop(phase, timeMark);
+    }
+
+}
@@ -0,0 +1,295 @@
+package ru.sibsutis.security.net;
+
+import org.apache.commons.io.output.NullOutputStream;
+import ru.sibsutis.security.io.MessageFraming;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+// Sends many files in one run. Every worker thread keeps its own Sender, so p and the session keys
+// of its communicators are reused from file to file until the rekey policy fires, while the digester
+// with its GOST parameters is shared by all of them. Files are handed out largest first to a work-stealing pool.
+public final class BatchProcessor implements AutoCloseable {
+
+    public static final String MANIFEST_PREFIX = "@";
+
+    private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+    private static final String GLOB_CHARACTERS = "*?[{";
+
+    private final SessionEngine.SenderFactory senderFactory;
+    private final ThreadLocal<Sender> senders;
+    private final ForkJoinPool pool;
+    private final int workers;
+    private final Path outputDirectory;
+    private final boolean verbose;
+
+    private BatchProcessor(SessionEngine.SenderFactory senderFactory, int workers, Path outputDirectory,
+                           boolean verbose) {
+        this.senderFactory = senderFactory;
+        this.workers = workers;
+        this.outputDirectory = outputDirectory;
+        this.verbose = verbose;
+        senders = new ThreadLocal<>();
+        pool = new ForkJoinPool(workers);
+    }
+
+    public static Builder builder(SessionEngine.SenderFactory senderFactory) {
+        return new Builder(senderFactory);
+    }
+
+    // One file of the batch and its path inside the output directory
+    public static final class Job {
+        private final Path source;
+        private final Path relative;
+        private final long size;
+        private long nanos;
+        private Exception failure;
+
+        private Job(Path source, Path relative) throws IOException {
+            this.source = source;
+            this.relative = relative;
+            size = Files.size(source);
+        }
+
+        public Path getSource() {
+            return source;
+        }
+
+        public Path getRelative() {
+            return relative;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public double getMillis() {
+            return nanos / 1e6;
+        }
+
+        public Exception getFailure() {
+            return failure;
+        }
+    }
+
+    // Files of a directory (recursively), of a glob such as 'data/**.bin' or listed in an @manifest,
+    // one path per line relative to the manifest, '#' starts a comment
+    public static List<Job> resolve(String input) throws IOException {
+        List<Job> jobs = new ArrayList<>();
+        if (input.startsWith(MANIFEST_PREFIX)) {
+            Path manifest = Paths.get(input.substring(MANIFEST_PREFIX.length())).toAbsolutePath();
+            Path base = manifest.getParent();
+            Map<Path, Path> targets = new HashMap<>();
+            for (String line : Files.readAllLines(manifest, StandardCharsets.UTF_8)) {
+                String entry = line.trim();
+                if (entry.isEmpty() || entry.startsWith("#")) {
+                    continue;
+                }
+                Path source = base.resolve(entry).normalize();
+                if (!Files.isRegularFile(source)) {
+                    throw new IOException(String.format("Batch: manifest entry '%s' is not a file", entry));
+                }
+                Job job = new Job(source, relativeTo(base, source));
+                // Entries outside the manifest directory keep only their names, two of them must not share a target
+                Path taken = targets.putIfAbsent(job.relative, source);
+                if (taken != null) {
+                    job.failure = new IOException(String.format(
+                            "Batch: '%s' would overwrite the output of '%s' at '%s'", source, taken, job.relative
+                    ));
+                }
+                jobs.add(job);
+            }
+            return jobs;
+        }
+
+        Path base;
+        PathMatcher matcher;
+        int globStart = indexOfGlob(input);
+        if (globStart < 0) {
+            base = Paths.get(input).toAbsolutePath().normalize();
+            if (Files.isRegularFile(base)) {
+                jobs.add(new Job(base, base.getFileName()));
+                return jobs;
+            }
+            matcher = path -> true;
+        } else {
+            int separator = Math.max(input.lastIndexOf('/', globStart), input.lastIndexOf('\\', globStart));
+            base = Paths.get(separator < 0 ? "." : input.substring(0, separator + 1)).toAbsolutePath().normalize();
+            String pattern = input.substring(separator + 1);
+            matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+        }
+        if (!Files.isDirectory(base)) {
+            throw new IOException(String.format("Batch: '%s' is not a directory", base));
+        }
+        Path root = base;
+        try (Stream<Path> files = Files.walk(root)) {
+            for (Path source : files.filter(Files::isRegularFile)
+                    .filter(path -> matcher.matches(root.relativize(path)))
+                    .sorted()
+                    .collect(Collectors.toList())) {
+                jobs.add(new Job(source, root.relativize(source)));
+            }
+        }
+        return jobs;
+    }
+
+    // Sends every job, failures are kept in the jobs instead of stopping the batch
+    public void run(List<Job> jobs) throws IOException {
+        List<Job> ordered = new ArrayList<>(jobs);
+        ordered.sort(Comparator.comparingLong(Job::getSize).reversed());
+        List<Future<?>> results = new ArrayList<>();
+        long timeMark = System.nanoTime();
+        for (Job job : ordered) {
+            results.add(pool.submit(() -> process(job)));
+        }
+        try {
+            for (Future<?> result : results) {
+                result.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Batch: interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Batch: worker failed", e.getCause());
+        }
+        printReport(jobs, System.nanoTime() - timeMark);
+    }
+
+    @Override
+    public void close() {
+        pool.shutdown();
+    }
+
+    private void process(Job job) {
+        if (job.failure != null) {
+            return;
+        }
+        long timeMark = System.nanoTime();
+        try (InputStream message = new BufferedInputStream(
+                MessageFraming.frame(Files.newInputStream(job.source), job.size), STREAM_BUFFER_SIZE
+        ); OutputStream output = openOutput(job)) {
+            sender().send(message, output);
+        } catch (Exception e) {
+            job.failure = e;
+            if (verbose) {
+                e.printStackTrace();
+            }
+        }
+        job.nanos = System.nanoTime() - timeMark;
+    }
+
+    private Sender sender() throws Exception {
+        Sender sender = senders.get();
+        if (sender == null) {
+            sender = senderFactory.create();
+            senders.set(sender);
+        }
+        return sender;
+    }
+
+    private OutputStream openOutput(Job job) throws IOException {
+        if (outputDirectory == null) {
+            return NullOutputStream.NULL_OUTPUT_STREAM;
+        }
+        Path target = outputDirectory.resolve(job.relative);
+        Files.createDirectories(target.getParent());
+        return new BufferedOutputStream(Files.newOutputStream(target), STREAM_BUFFER_SIZE);
+    }
+
+    private void printReport(List<Job> jobs, long wallNanos) {
+        long bytes = 0;
+        long failed = 0;
+        for (Job job : jobs) {
+            if (job.failure != null) {
+                failed++;
+                System.out.printf("Batch: %s failed: %s%n", job.relative, job.failure.getMessage());
+                continue;
+            }
+            bytes += job.size;
+            System.out.printf(
+                    "Batch: %s %s bytes in %.3f ms (%.3f MB/s)%n",
+                    job.relative, job.size, job.getMillis(), megabytesPerSecond(job.size, job.nanos)
+            );
+        }
+        System.out.printf(
+                "Batch: %s files, %s failed, %s bytes in %.3f ms on %s workers: %.3f MB/s, %.1f files/s%n",
+                jobs.size(),
+                failed,
+                bytes,
+                wallNanos / 1e6,
+                workers,
+                megabytesPerSecond(bytes, wallNanos),
+                wallNanos == 0 ? 0 : (jobs.size() - failed) * 1e9 / wallNanos
+        );
+    }
+
+    private static double megabytesPerSecond(long bytes, long nanos) {
+        return nanos == 0 ? 0 : bytes / 1e6 / (nanos / 1e9);
+    }
+
+    private static int indexOfGlob(String input) {
+        int index = -1;
+        for (char c : GLOB_CHARACTERS.toCharArray()) {
+            int position = input.indexOf(c);
+            if (position >= 0 && (index < 0 || position < index)) {
+                index = position;
+            }
+        }
+        return index;
+    }
+
+    private static Path relativeTo(Path base, Path source) {
+        return source.startsWith(base) ? base.relativize(source) : source.getFileName();
+    }
+
+    public static class Builder {
+        private final SessionEngine.SenderFactory senderFactory;
+        private int workers = Runtime.getRuntime().availableProcessors();
+        private Path outputDirectory;
+        private boolean verbose;
+
+        private Builder(SessionEngine.SenderFactory senderFactory) {
+            this.senderFactory = senderFactory;
+        }
+
+        public Builder setWorkers(int workers) {
+            this.workers = Math.max(1, workers);
+            return this;
+        }
+
+        // Delivered files are written under it with the same relative paths, null only checks the delivery
+        public Builder setOutputDirectory(Path outputDirectory) {
+            this.outputDirectory = outputDirectory;
+            return this;
+        }
+
+        public Builder setVerbose(boolean verbose) {
+            this.verbose = verbose;
+            return this;
+        }
+
+        public BatchProcessor build() {
+            return new BatchProcessor(senderFactory, workers, outputDirectory, verbose);
+        }
+    }
+
+}
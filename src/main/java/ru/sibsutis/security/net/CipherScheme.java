@@ -1,7 +1,10 @@
 package ru.sibsutis.security.net;
 
 public enum CipherScheme {
-    SHAMIR("sha");
+    SHAMIR("sha"),
+    SHAMIR_BLOCK("shab"),
+    HYBRID("hyb"),
+    RSA("rsa");
 
     private final String code;
 
@@ -17,6 +20,12 @@ public enum CipherScheme {
         switch (code.toLowerCase()) {
             case "sha":
                 return SHAMIR;
+            case "shab":
+                return SHAMIR_BLOCK;
+            case "hyb":
+                return HYBRID;
+            case "rsa":
+                return RSA;
             default:
                 throw new IllegalArgumentException(
                         String.format("Incorrect cypher type: %s", code)
@@ -2,9 +2,15 @@ package ru.sibsutis.security.net;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 
 public interface Communicator {
     void sendMessage(ByteArrayInputStream messageStream, Communicator dst, boolean verbose);
+    // Streaming variant: dst writes the delivered message to deliveredStream instead of keeping it in memory
+    void sendMessage(InputStream messageStream, Communicator dst, OutputStream deliveredStream, boolean verbose)
+            throws IOException;
     boolean hasMessageGot();
     ByteArrayOutputStream getMessageStream();
 }
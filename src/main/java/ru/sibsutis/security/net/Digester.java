@@ -1,10 +1,24 @@
 package ru.sibsutis.security.net;
 
+import ru.sibsutis.security.io.Message;
+
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
 
 public interface Digester {
     ByteArrayInputStream digest(ByteArrayInputStream messageStream) throws IOException;
     ByteArrayOutputStream verify(ByteArrayOutputStream messageStream) throws IOException;
+    // Each signed message is in the verify format, results go in the same order
+    boolean[] verifyAll(List<byte[]> signedMessages);
+    // Streaming variants: signature is appended while reading and checked when the stream is closed
+    InputStream signingStream(InputStream messageStream) throws IOException;
+    OutputStream verifyingStream(OutputStream deliveredStream) throws IOException;
+    // Message variants: the signature is appended as a segment of its own and verify returns the framed message
+    // as a slice of the signed one, the payload is never copied
+    Message digest(Message message) throws IOException;
+    Message verify(Message signedMessage) throws IOException;
 }
@@ -0,0 +1,169 @@
+package ru.sibsutis.security.net;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.function.ToLongFunction;
+
+// Prepared engines such as digesters with their domain parameters and keys, kept for the later senders of the same
+// process or daemon. Entries are keyed by the scheme and its parameters, expire after their TTL and are evicted
+// least recently used first once there are too many of them or they take too much memory.
+public final class EngineCache implements EngineCacheMBean {
+
+    public static final int DEFAULT_MAX_ENTRIES = 32;
+    public static final long DEFAULT_MEMORY_LIMIT = 16L * 1024 * 1024;
+
+    private static final EngineCache DEFAULT = new EngineCache(DEFAULT_MAX_ENTRIES, DEFAULT_MEMORY_LIMIT);
+
+    public interface Loader<T> {
+        T load() throws IOException;
+    }
+
+    private final int maxEntries;
+    private final long memoryLimit;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long memoryBytes;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long expirations;
+
+    public EngineCache(int maxEntries, long memoryLimit) {
+        this.maxEntries = maxEntries;
+        this.memoryLimit = memoryLimit;
+    }
+
+    public static EngineCache getDefault() {
+        return DEFAULT;
+    }
+
+    // The engine of the key, loaded on a miss; concurrent callers of the same key wait for one load.
+    // An engine loaded ttlMillis ago or earlier is loaded again, 0 keeps it until it is evicted. sizer is asked
+    // again on every hit, engines such as GOST R34.10-2012 digesters grow tables while they are used.
+    public <T> T get(String key, long ttlMillis, Loader<T> loader, ToLongFunction<T> sizer) throws IOException {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(key);
+            if (entry != null && entry.isExpired(System.currentTimeMillis(), ttlMillis)) {
+                remove(key, entry);
+                expirations++;
+                entry = null;
+            }
+            if (entry == null) {
+                entry = new Entry();
+                entries.put(key, entry);
+                misses++;
+            } else {
+                hits++;
+            }
+        }
+
+        synchronized (entry) {
+            if (entry.engine == null) {
+                T engine;
+                try {
+                    engine = loader.load();
+                } catch (IOException | RuntimeException e) {
+                    synchronized (this) {
+                        remove(key, entry);
+                    }
+                    throw e;
+                }
+                entry.loadedAt = System.currentTimeMillis();
+                entry.engine = engine;
+            }
+        }
+        @SuppressWarnings("unchecked")
+        T engine = (T) entry.engine;
+        long engineBytes = sizer.applyAsLong(engine);
+        synchronized (this) {
+            if (entries.get(key) == entry) {
+                memoryBytes += engineBytes - entry.memoryBytes;
+                entry.memoryBytes = engineBytes;
+                evict();
+            }
+        }
+        return engine;
+    }
+
+    @Override
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    @Override
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    @Override
+    public synchronized double getHitRate() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    @Override
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    @Override
+    public synchronized long getExpirations() {
+        return expirations;
+    }
+
+    @Override
+    public synchronized int getEntries() {
+        return entries.size();
+    }
+
+    @Override
+    public synchronized long getMemoryBytes() {
+        return memoryBytes;
+    }
+
+    @Override
+    public synchronized void clear() {
+        entries.clear();
+        memoryBytes = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(
+                "hits = %s, misses = %s (%.1f%% hit rate), entries = %s, %s bytes, evictions = %s, expirations = %s",
+                hits, misses, 100 * getHitRate(), entries.size(), memoryBytes, evictions, expirations
+        );
+    }
+
+    private void remove(String key, Entry entry) {
+        if (entries.get(key) == entry) {
+            entries.remove(key);
+            memoryBytes -= entry.memoryBytes;
+        }
+    }
+
+    // Least recently used entries go first, the one just touched is the last in the access order
+    private void evict() {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while ((memoryBytes > memoryLimit || entries.size() > maxEntries) && iterator.hasNext()) {
+            Entry entry = iterator.next();
+            memoryBytes -= entry.memoryBytes;
+            iterator.remove();
+            evictions++;
+        }
+    }
+
+    private static final class Entry {
+        private volatile Object engine;
+        private volatile long loadedAt;
+        private long memoryBytes;
+
+        // An entry still being loaded is never expired
+        private boolean isExpired(long now, long ttlMillis) {
+            return engine != null && ttlMillis > 0 && now - loadedAt >= ttlMillis;
+        }
+    }
+
+}
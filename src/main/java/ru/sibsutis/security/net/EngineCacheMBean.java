@@ -0,0 +1,12 @@
+package ru.sibsutis.security.net;
+
+public interface EngineCacheMBean {
+    long getHits();
+    long getMisses();
+    double getHitRate();
+    long getEvictions();
+    long getExpirations();
+    int getEntries();
+    long getMemoryBytes();
+    void clear();
+}
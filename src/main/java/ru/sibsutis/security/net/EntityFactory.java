@@ -1,32 +1,62 @@
 package ru.sibsutis.security.net;
 
 import ru.sibsutis.security.cli.CliProcessor;
+import ru.sibsutis.security.encrypt.GOST2012Digester;
+import ru.sibsutis.security.encrypt.GOST2012Keys;
 import ru.sibsutis.security.encrypt.GOST94Digester;
+import ru.sibsutis.security.encrypt.GOST94Parameters;
+import ru.sibsutis.security.encrypt.HybridCommunicator;
+import ru.sibsutis.security.encrypt.PrimePool;
+import ru.sibsutis.security.encrypt.RandomSource;
+import ru.sibsutis.security.encrypt.RsaCommunicator;
 import ru.sibsutis.security.encrypt.ShamirCommunicator;
+import ru.sibsutis.security.encrypt.SignatureDigester;
 
 import javax.naming.OperationNotSupportedException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
 
-public final class EntityFactory {
+public final class EntityFactory implements AutoCloseable {
     private final CliProcessor cliProcessor;
     private final CipherScheme cipherScheme;
     private final SignatureScheme signatureScheme;
+    private final PrimePool primePool;
+    private final SharedResources sharedResources;
+    private final EngineCache engineCache = EngineCache.getDefault();
 
     public EntityFactory(CliProcessor cliProcessor) {
+        this(cliProcessor, null);
+    }
+
+    // Prime pools and GOST parameters come from sharedResources when it is given and outlive the factory
+    public EntityFactory(CliProcessor cliProcessor, SharedResources sharedResources) {
         this.cliProcessor = cliProcessor;
+        this.sharedResources = sharedResources;
         cipherScheme = cliProcessor.getCipherScheme();
         signatureScheme = cliProcessor.getSignature();
         if (cliProcessor.isVerbose()) {
             System.out.printf("Cryptor: cipher scheme '%s'%n", cipherScheme.getCode());
+            System.out.printf("Cryptor: rekey policy '%s'%n", cliProcessor.getRekeyPolicy());
             if (signatureScheme != null) {
                 System.out.printf("Cryptor: signature scheme '%s'%n", signatureScheme.getCode());
             }
         }
+        primePool = createPrimePool();
     }
 
     public Communicator createCommunicator()throws OperationNotSupportedException {
         switch (cipherScheme) {
             case SHAMIR:
-                return createShamirCommunicator();
+                return createShamirCommunicator(false);
+            case SHAMIR_BLOCK:
+                return createShamirCommunicator(true);
+            case HYBRID:
+                return createHybridCommunicator();
+            case RSA:
+                return createRsaCommunicator();
             default:
                 throw new OperationNotSupportedException(
                         String.format("Communicator for '%s' cipher scheme was not realized", cipherScheme.getCode())
@@ -34,30 +64,265 @@ public final class EntityFactory {
         }
     }
 
+    public ShamirTcpClient createShamirTcpClient(InetSocketAddress address) throws OperationNotSupportedException {
+        if (cipherScheme != CipherScheme.SHAMIR && cipherScheme != CipherScheme.SHAMIR_BLOCK) {
+            throw new OperationNotSupportedException(
+                    String.format("TCP transport for '%s' cipher scheme was not realized", cipherScheme.getCode())
+            );
+        }
+        boolean blockMode = cipherScheme == CipherScheme.SHAMIR_BLOCK;
+        return ShamirTcpClient.builder(address, getShamirPLength(blockMode))
+                .setBlockMode(blockMode)
+                .setRekeyPolicy(cliProcessor.getRekeyPolicy())
+                .setPrimePool(primePool)
+                .setBatchSize(cliProcessor.getTcpBatchSize())
+                .setWindow(cliProcessor.getTcpWindow())
+                .build();
+    }
+
+    // Digesters keep no state between messages, so the senders of one process or daemon share a prepared one
     public Digester createDigester() throws OperationNotSupportedException {
+        EngineCache.Loader<SignatureDigester> loader;
         switch (signatureScheme) {
             case GOST_34_10_94:
-                return createGOST94Digester();
+                loader = this::createGOST94Digester;
+                break;
+            case GOST_34_10_2012:
+                loader = this::createGOST2012Digester;
+                break;
             default:
                 throw new OperationNotSupportedException(
                         String.format("Digester for '%s' signature scheme was not realized", signatureScheme.getCode())
                 );
         }
+        try {
+            String key = getDigesterKey();
+            if (key == null) {
+                return loader.load();
+            }
+            return engineCache.get(
+                    key, cliProcessor.getEngineCacheTtlMillis(), loader, SignatureDigester::getMemoryBytes
+            );
+        } catch (IOException e) {
+            throw new IllegalStateException(
+                    String.format("Cannot prepare '%s' signature parameters", signatureScheme.getCode()), e
+            );
+        }
+    }
+
+    public EngineCache getEngineCache() {
+        return engineCache;
+    }
+
+    @Override
+    public void close() {
+        if (signatureScheme != null && (cliProcessor.isVerbose() || cliProcessor.isStats())) {
+            System.out.printf("Cryptor: engine cache %s%n", engineCache);
+        }
+        if (primePool == null) {
+            return;
+        }
+        try {
+            if (sharedResources == null) {
+                primePool.close();
+            }
+        } catch (IOException e) {
+            System.out.printf("Cryptor: cannot save primes to '%s'%n", cliProcessor.getPrimeCachePath());
+            if (cliProcessor.isVerbose()) {
+                e.printStackTrace();
+            }
+        }
+        if (cliProcessor.isVerbose()) {
+            System.out.printf(
+                    "Cryptor: prime pool hits = %s, misses = %s, refills = %s (%.3f ms average)%n",
+                    primePool.getHits(),
+                    primePool.getMisses(),
+                    primePool.getRefills(),
+                    primePool.getAverageRefillMillis()
+            );
+        }
+    }
+
+    private PrimePool createPrimePool() {
+        Path primeCachePath = cliProcessor.getPrimeCachePath();
+        if (sharedResources != null) {
+            try {
+                return sharedResources.getPrimePool(primeCachePath);
+            } catch (UncheckedIOException e) {
+                System.out.printf("Cryptor: cannot load primes from '%s'%n", primeCachePath);
+                if (cliProcessor.isVerbose()) {
+                    e.printStackTrace();
+                }
+                return null;
+            }
+        }
+        if (primeCachePath == null) {
+            return null;
+        }
+        PrimePool pool = new PrimePool(PrimePool.DEFAULT_CAPACITY, primeCachePath, false);
+        try {
+            int loaded = pool.load();
+            if (cliProcessor.isVerbose()) {
+                System.out.printf("Cryptor: %s primes loaded from '%s'%n", loaded, primeCachePath);
+            }
+        } catch (IOException e) {
+            System.out.printf("Cryptor: cannot load primes from '%s'%n", primeCachePath);
+            if (cliProcessor.isVerbose()) {
+                e.printStackTrace();
+            }
+        }
+        return pool;
+    }
+
+    private Communicator createShamirCommunicator(boolean blockMode) {
+        return ShamirCommunicator.builder(getShamirPLength(blockMode))
+                .setBlockMode(blockMode)
+                .setRekeyPolicy(cliProcessor.getRekeyPolicy())
+                .setWorkers(cliProcessor.getWorkers())
+                .setPrimePool(primePool)
+                .setMontgomery(cliProcessor.isMontgomery())
+                .build();
+    }
+
+    // Shamir carries only the session key in block mode, the rekey policy counts AES-GCM chunks
+    private Communicator createHybridCommunicator() {
+        ShamirCommunicator keyTransport = ShamirCommunicator.builder(getShamirPLength(true))
+                .setBlockMode(true)
+                .setPrimePool(primePool)
+                .setMontgomery(cliProcessor.isMontgomery())
+                .build();
+        return HybridCommunicator.builder(keyTransport)
+                .setRekeyPolicy(cliProcessor.getRekeyPolicy())
+                .build();
+    }
+
+    private Communicator createRsaCommunicator() {
+        int keyLength = cliProcessor.getRsaKeyLength();
+        if (keyLength < RsaCommunicator.MIN_KEY_LENGTH) {
+            throw new IllegalStateException(String.format(
+                    "RSA scheme needs 'rk' parameter at least %s", RsaCommunicator.MIN_KEY_LENGTH
+            ));
+        }
+        return RsaCommunicator.builder(keyLength)
+                .setRekeyPolicy(cliProcessor.getRekeyPolicy())
+                .build();
     }
 
-    private Communicator createShamirCommunicator() {
+    private int getShamirPLength(boolean blockMode) {
         int pLength = cliProcessor.getSPLength();
         if (pLength < 0) {
             throw new IllegalStateException("Incorrect 'sp' parameter");
         }
-        return new ShamirCommunicator(pLength);
+        if (blockMode && pLength < ShamirCommunicator.MIN_BLOCK_P_LENGTH) {
+            throw new IllegalStateException(String.format(
+                    "Shamir block mode needs 'sp' parameter at least %s", ShamirCommunicator.MIN_BLOCK_P_LENGTH
+            ));
+        }
+        return pLength;
     }
 
-    private Digester createGOST94Digester() {
-        return new GOST94Digester(
+    public GOST94Parameters loadGOST94Parameters() throws IOException {
+        Path gostKeysPath = cliProcessor.getGostKeysPath();
+        // Keys of a seeded source can be recomputed from the seed, later secure invocations must never get them
+        if (sharedResources == null || cliProcessor.isGostGenerate() || RandomSource.current().isReproducible()) {
+            return readGOST94Parameters();
+        }
+        // A keys file is cached until it changes, generated parameters live as long as the daemon
+        String key = gostKeysPath != null && Files.exists(gostKeysPath)
+                ? String.format("file:%s:%s", gostKeysPath, Files.getLastModifiedTime(gostKeysPath).toMillis())
+                : String.format("generated:%s:%s:%s", cliProcessor.getGostPLength(), cliProcessor.getGostQLength(),
+                        cliProcessor.getPrimeSearch().getCertainty());
+        return sharedResources.getGOST94Parameters(key, this::readGOST94Parameters);
+    }
+
+    private GOST94Parameters readGOST94Parameters() throws IOException {
+        Path gostKeysPath = cliProcessor.getGostKeysPath();
+        if (gostKeysPath != null && Files.exists(gostKeysPath) && !cliProcessor.isGostGenerate()) {
+            GOST94Parameters parameters = GOST94Parameters.load(gostKeysPath);
+            if (cliProcessor.isVerbose()) {
+                System.out.printf("Cryptor: GOST R34.10-94 parameters loaded from '%s'%n", gostKeysPath);
+            }
+            return parameters;
+        }
+        if (cliProcessor.isVerbose()) {
+            System.out.println("GOST R34.10-94 digest: preparing...");
+        }
+        GOST94Parameters parameters = GOST94Parameters.generate(
                 cliProcessor.getGostPLength(),
                 cliProcessor.getGostQLength(),
+                cliProcessor.getPrimeSearch()
+        );
+        if (gostKeysPath != null) {
+            parameters.save(gostKeysPath);
+            if (cliProcessor.isVerbose()) {
+                System.out.printf("Cryptor: GOST R34.10-94 parameters saved to '%s'%n", gostKeysPath);
+            }
+        }
+        return parameters;
+    }
+
+    // Keys only, the curve is fixed: generating them takes a scalar multiplication, nothing to keep warm
+    public GOST2012Keys loadGOST2012Keys() throws IOException {
+        Path gostKeysPath = cliProcessor.getGostKeysPath();
+        if (gostKeysPath != null && Files.exists(gostKeysPath) && !cliProcessor.isGostGenerate()) {
+            GOST2012Keys keys = GOST2012Keys.load(gostKeysPath);
+            if (cliProcessor.isVerbose()) {
+                System.out.printf("Cryptor: GOST R34.10-2012 keys loaded from '%s'%n", gostKeysPath);
+            }
+            return keys;
+        }
+        GOST2012Keys keys = GOST2012Keys.generate();
+        if (gostKeysPath != null) {
+            keys.save(gostKeysPath);
+            if (cliProcessor.isVerbose()) {
+                System.out.printf("Cryptor: GOST R34.10-2012 keys saved to '%s'%n", gostKeysPath);
+            }
+        }
+        return keys;
+    }
+
+    private SignatureDigester createGOST2012Digester() throws IOException {
+        return new GOST2012Digester(
+                loadGOST2012Keys(),
+                cliProcessor.getHashAlgorithm(GOST2012Digester.DEFAULT_HASH_ALGORITHM),
                 cliProcessor.isVerbose()
         );
     }
+
+    private SignatureDigester createGOST94Digester() throws IOException {
+        return new GOST94Digester(
+                loadGOST94Parameters(),
+                cliProcessor.getHashAlgorithm(),
+                cliProcessor.isVerbose()
+        );
+    }
+
+    // Scheme with everything its prepared digester depends on: a keys file is taken until it changes, generated
+    // parameters and keys by their lengths. Null when the digester must not be shared: the keys are regenerated
+    // on request, the cache is turned off or a seeded random source has to give the same signatures every run.
+    private String getDigesterKey() throws IOException {
+        if (cliProcessor.isGostGenerate() || cliProcessor.getEngineCacheTtlMillis() < 0
+                || RandomSource.current().isReproducible()) {
+            return null;
+        }
+        StringBuilder key = new StringBuilder(signatureScheme.getCode());
+        Path gostKeysPath = cliProcessor.getGostKeysPath();
+        if (gostKeysPath != null && Files.exists(gostKeysPath)) {
+            key.append(":file:").append(gostKeysPath).append(':')
+                    .append(Files.getLastModifiedTime(gostKeysPath).toMillis());
+        } else if (signatureScheme == SignatureScheme.GOST_34_10_94) {
+            key.append(":generated:").append(cliProcessor.getGostPLength())
+                    .append(':').append(cliProcessor.getGostQLength())
+                    .append(':').append(cliProcessor.getPrimeSearch().getCertainty());
+        } else {
+            key.append(":generated");
+        }
+        String hashAlgorithm = signatureScheme == SignatureScheme.GOST_34_10_94
+                ? cliProcessor.getHashAlgorithm()
+                : cliProcessor.getHashAlgorithm(GOST2012Digester.DEFAULT_HASH_ALGORITHM);
+        return key.append(':').append(hashAlgorithm)
+                .append(':').append(RandomSource.current().getName())
+                .append(':').append(cliProcessor.isVerbose())
+                .toString();
+    }
 }
@@ -0,0 +1,175 @@
+package ru.sibsutis.security.net;
+
+import ru.sibsutis.security.io.ChunkPipe;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// Stages of a send running on their own threads, each next stage reads what the previous one has written
+// through a bounded ChunkPipe, so the whole message costs about as much as its slowest stage
+public final class SendPipeline {
+
+    private final int depth;
+    private final int chunkSize;
+    private final List<Stage> stages = new ArrayList<>();
+    private final List<ChunkPipe> pipes = new ArrayList<>();
+
+    SendPipeline(int depth, int chunkSize) {
+        this.depth = depth;
+        this.chunkSize = chunkSize;
+    }
+
+    interface Task {
+        void run(InputStream input, OutputStream output) throws IOException;
+    }
+
+    SendPipeline addStage(String name, Task task) {
+        stages.add(new Stage(name, task));
+        return this;
+    }
+
+    // The first stage reads source, the last one writes into sink and closes it
+    void run(InputStream source, OutputStream sink) throws IOException {
+        for (int i = 1; i < stages.size(); i++) {
+            pipes.add(new ChunkPipe(
+                    stages.get(i - 1).name + " -> " + stages.get(i).name, depth, chunkSize
+            ));
+        }
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < stages.size(); i++) {
+            Stage stage = stages.get(i);
+            stage.input = i == 0 ? null : pipes.get(i - 1);
+            stage.output = i == stages.size() - 1 ? null : pipes.get(i);
+            InputStream input = stage.input == null ? source : stage.input.getInputStream();
+            OutputStream output = stage.output == null ? sink : stage.output.getOutputStream();
+            Thread thread = new Thread(() -> stage.execute(input, output), "send-" + stage.name);
+            thread.setDaemon(true);
+            threads.add(thread);
+            thread.start();
+        }
+
+        boolean interrupted = false;
+        for (Thread thread : threads) {
+            while (true) {
+                try {
+                    thread.join();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                    abort();
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        // The stage failed first is the cause, the others have just seen aborted pipes
+        for (Stage stage : stages) {
+            if (stage.failure != null && !stage.aborted) {
+                throw stage.failure instanceof IOException
+                        ? (IOException) stage.failure
+                        : new IOException(String.format("Send stage '%s' failed", stage.name), stage.failure);
+            }
+        }
+        for (Stage stage : stages) {
+            if (stage.failure != null) {
+                throw new IOException(String.format("Send stage '%s' failed", stage.name), stage.failure);
+            }
+        }
+    }
+
+    public List<Stage> getStages() {
+        return Collections.unmodifiableList(stages);
+    }
+
+    public List<ChunkPipe> getPipes() {
+        return Collections.unmodifiableList(pipes);
+    }
+
+    public void printStats() {
+        for (Stage stage : stages) {
+            System.out.printf(
+                    "Sender: stage '%s' busy %d ms of %d ms%n",
+                    stage.name,
+                    stage.getBusyNanos() / 1_000_000,
+                    stage.getWallNanos() / 1_000_000
+            );
+        }
+        for (ChunkPipe pipe : pipes) {
+            System.out.printf(
+                    "Sender: queue '%s' depth max %d, average %.1f of %d%n",
+                    pipe.getName(),
+                    pipe.getMaxDepth(),
+                    pipe.getAverageDepth(),
+                    pipe.getCapacity()
+            );
+        }
+    }
+
+    private synchronized void abort() {
+        for (ChunkPipe pipe : pipes) {
+            pipe.abort();
+        }
+    }
+
+    public final class Stage {
+        private final String name;
+        private final Task task;
+        private ChunkPipe input;
+        private ChunkPipe output;
+        private volatile long wallNanos;
+        private volatile Throwable failure;
+        private volatile boolean aborted;
+
+        private Stage(String name, Task task) {
+            this.name = name;
+            this.task = task;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getWallNanos() {
+            return wallNanos;
+        }
+
+        // Wall time without waiting for the neighbour stages
+        public long getBusyNanos() {
+            long waitNanos = (input == null ? 0 : input.getConsumerWaitNanos())
+                    + (output == null ? 0 : output.getProducerWaitNanos());
+            return Math.max(0, wallNanos - waitNanos);
+        }
+
+        private void execute(InputStream input, OutputStream output) {
+            long timeMark = System.nanoTime();
+            try {
+                task.run(input, output);
+                output.close();
+            } catch (Throwable e) {
+                synchronized (SendPipeline.this) {
+                    aborted = isAnotherStageFailed();
+                    failure = e;
+                    abort();
+                }
+            } finally {
+                wallNanos = System.nanoTime() - timeMark;
+            }
+        }
+
+        private boolean isAnotherStageFailed() {
+            for (Stage stage : stages) {
+                if (stage != this && stage.failure != null) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+}
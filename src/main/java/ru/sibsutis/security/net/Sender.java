@@ -1,19 +1,33 @@
 package ru.sibsutis.security.net;
 
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.CloseShieldOutputStream;
+import ru.sibsutis.security.io.BufferPool;
+import ru.sibsutis.security.io.ChunkPipe;
+import ru.sibsutis.security.io.Message;
+import ru.sibsutis.security.io.MessageFraming;
+import ru.sibsutis.security.io.MessageOutputStream;
+import ru.sibsutis.security.io.UnframingOutputStream;
+
 import javax.naming.OperationNotSupportedException;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.nio.IntBuffer;
+import java.io.InputStream;
+import java.io.OutputStream;
 
 public class Sender {
 
+    public static final int DEFAULT_PIPELINE_DEPTH = 8;
+
     private Communicator client;
     private Communicator server;
     private boolean verbose;
     private boolean needDigest = false;
     private Digester digester;
+    private int pipelineDepth = DEFAULT_PIPELINE_DEPTH;
+    private SendPipeline lastPipeline;
+    private BufferPool bufferPool = BufferPool.getDefault();
 
     public static Builder builder() {
         return new Builder();
@@ -27,26 +41,98 @@ public class Sender {
         client.sendMessage(messageToSend, server, verbose);
     }
 
-    public ByteArrayOutputStream getSentMessageStream() throws IOException {
-        if (server.hasMessageGot()) {
-            ByteArrayOutputStream messageStream = server.getMessageStream();
+    // Message send: the framed message is signed by appending the signature segment, delivered into pooled buffers
+    // and verified there. The payload comes back as a slice of those buffers without its header and signature,
+    // closing it returns them to the pool.
+    public Message send(Message message) throws IOException {
+        Message messageToSend = message;
+        if (needDigest) {
+            messageToSend = digester.digest(message);
+            if (messageToSend == null) {
+                throw new IOException("Message cannot be signed");
+            }
+        }
+        MessageOutputStream deliveredStream = new MessageOutputStream(bufferPool);
+        try {
+            client.sendMessage(messageToSend.asInputStream(), server, deliveredStream, verbose);
+        } catch (IOException | RuntimeException e) {
+            deliveredStream.close();
+            throw e;
+        } finally {
+            if (messageToSend != message) {
+                messageToSend.close();
+            }
+        }
+        try (Message delivered = deliveredStream.toMessage();
+             Message framed = needDigest ? digester.verify(delivered) : delivered.slice(0, delivered.size())) {
+            long messageSize = Integer.toUnsignedLong(framed.getInt(0));
+            return framed.slice(MessageFraming.HEADER_SIZE, messageSize);
+        }
+    }
+
+    // Streaming send: the framed message is read, signed, transferred, verified and unframed
+    // into deliveredStream chunk by chunk. deliveredStream is flushed but left open.
+    // With a positive pipeline depth every step runs on its own thread, see SendPipeline.
+    public void send(InputStream message, OutputStream deliveredStream) throws IOException {
+        OutputStream messageSink = new UnframingOutputStream(CloseShieldOutputStream.wrap(deliveredStream));
+        if (pipelineDepth > 0) {
+            sendPipelined(message, messageSink);
+        } else {
+            InputStream messageToSend = message;
             if (needDigest) {
-                messageStream = digester.verify(messageStream);
+                messageToSend = digester.signingStream(message);
+                messageSink = digester.verifyingStream(messageSink);
+            }
+            try (OutputStream sink = messageSink) {
+                client.sendMessage(messageToSend, server, sink, verbose);
+            }
+        }
+        deliveredStream.flush();
+    }
+
+    // Statistics of the last pipelined send, null before it
+    public SendPipeline getLastPipeline() {
+        return lastPipeline;
+    }
+
+    private void sendPipelined(InputStream message, OutputStream messageSink) throws IOException {
+        SendPipeline pipeline = new SendPipeline(pipelineDepth, ChunkPipe.DEFAULT_CHUNK_SIZE);
+        pipeline.addStage("read", (input, output) -> IOUtils.copy(input, output, ChunkPipe.DEFAULT_CHUNK_SIZE));
+        if (needDigest) {
+            pipeline.addStage("sign", (input, output) ->
+                    IOUtils.copy(digester.signingStream(input), output, ChunkPipe.DEFAULT_CHUNK_SIZE)
+            );
+        }
+        pipeline.addStage("exchange", (input, output) -> client.sendMessage(input, server, output, verbose));
+        if (needDigest) {
+            pipeline.addStage("verify", (input, output) -> {
+                try (OutputStream verifyingStream = digester.verifyingStream(CloseShieldOutputStream.wrap(output))) {
+                    IOUtils.copy(input, verifyingStream, ChunkPipe.DEFAULT_CHUNK_SIZE);
+                }
+            });
+        }
+        pipeline.addStage("write", (input, output) -> IOUtils.copy(input, output, ChunkPipe.DEFAULT_CHUNK_SIZE));
+
+        lastPipeline = pipeline;
+        try {
+            pipeline.run(message, messageSink);
+        } finally {
+            if (verbose) {
+                pipeline.printStats();
             }
+        }
+    }
 
-            // get message size
-            byte[] fullMessage = messageStream.toByteArray();
-            ByteBuffer fullMessageBuffer = ByteBuffer.wrap(fullMessage);
-            IntBuffer intBuffer = fullMessageBuffer.asIntBuffer();
-            int messageSize = intBuffer.get();
-
-            // get message
-            byte[] message = new byte[messageSize];
-            fullMessageBuffer.position(4);
-            fullMessageBuffer.get(message);
-            ByteArrayOutputStream sentMessageStream = new ByteArrayOutputStream();
-            sentMessageStream.write(message);
-            return sentMessageStream;
+    public ByteArrayOutputStream getSentMessageStream() throws IOException {
+        if (server.hasMessageGot()) {
+            // One copy out of the delivered stream and one into the payload stream
+            Message delivered = Message.wrap(server.getMessageStream().toByteArray());
+            try (Message framed = needDigest ? digester.verify(delivered) : delivered) {
+                int messageSize = framed.getInt(0);
+                ByteArrayOutputStream sentMessageStream = new ByteArrayOutputStream(messageSize);
+                framed.slice(MessageFraming.HEADER_SIZE, messageSize).writeTo(sentMessageStream);
+                return sentMessageStream;
+            }
         } else {
             throw new IllegalStateException("Server hasn't got a message");
         }
@@ -69,8 +155,26 @@ public class Sender {
             return this;
         }
 
+        // Chunks queued between pipeline stages, 0 runs the steps one after another on the caller thread
+        public Builder setPipelineDepth(int pipelineDepth) {
+            sender.pipelineDepth = pipelineDepth;
+            return this;
+        }
+
+        // Pool of the buffers the message send delivers into
+        public Builder setBufferPool(BufferPool bufferPool) {
+            sender.bufferPool = bufferPool;
+            return this;
+        }
+
+        // Digester shared between senders, it keeps no state between messages
+        public Builder setDigester(Digester digester) {
+            sender.digester = digester;
+            return this;
+        }
+
         public Sender build(EntityFactory entityFactory) throws OperationNotSupportedException {
-            if (sender.needDigest) {
+            if (sender.needDigest && sender.digester == null) {
                 sender.digester = entityFactory.createDigester();
             }
             sender.client = entityFactory.createCommunicator();
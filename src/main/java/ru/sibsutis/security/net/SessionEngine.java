@@ -0,0 +1,230 @@
+package ru.sibsutis.security.net;
+
+import ru.sibsutis.security.metrics.Metrics;
+import ru.sibsutis.security.metrics.Phase;
+import ru.sibsutis.security.metrics.PhaseStats;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+
+// Runs many sends at once. Communicators keep the keys and the delivered message of their exchange in fields,
+// so every session gets its own Sender with a fresh client and server pair; only stateless parts such as
+// the digester and the prime pool are shared. Sessions run on virtual threads where the JVM has them and
+// on a bounded platform pool otherwise. At most maxSessions are in flight, submit waits for a free slot.
+public final class SessionEngine implements AutoCloseable {
+
+    public static final int DEFAULT_MAX_SESSIONS = 256;
+
+    // Creates the Sender of one session
+    public interface SenderFactory {
+        Sender create() throws Exception;
+    }
+
+    private final SenderFactory senderFactory;
+    private final int maxSessions;
+    private final Semaphore slots;
+    private final ExecutorService executor;
+    private final boolean virtualThreads;
+
+    private final PhaseStats latency = new PhaseStats(Phase.SESSION);
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAccumulator maxInFlight = new LongAccumulator(Math::max, 0);
+    private final AtomicLong firstSubmitNanos = new AtomicLong();
+    private final LongAccumulator lastDoneNanos = new LongAccumulator(Math::max, 0);
+
+    private SessionEngine(SenderFactory senderFactory, int maxSessions, int threads, boolean preferVirtual) {
+        this.senderFactory = senderFactory;
+        this.maxSessions = maxSessions;
+        slots = new Semaphore(maxSessions);
+        ExecutorService virtualExecutor = preferVirtual ? newVirtualThreadExecutor() : null;
+        virtualThreads = virtualExecutor != null;
+        if (virtualThreads) {
+            executor = virtualExecutor;
+        } else {
+            AtomicInteger threadNumber = new AtomicInteger();
+            executor = new ThreadPoolExecutor(
+                    threads, threads, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+                    runnable -> {
+                        Thread thread = new Thread(runnable, "session-" + threadNumber.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+            );
+        }
+    }
+
+    public static Builder builder(SenderFactory senderFactory) {
+        return new Builder(senderFactory);
+    }
+
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    // Sends message into deliveredStream in a new session, waits while maxSessions are in flight.
+    // Both streams are closed when the session is over.
+    public CompletableFuture<Void> submit(InputStream message, OutputStream deliveredStream)
+            throws InterruptedException {
+        slots.acquire();
+        return start(message, deliveredStream);
+    }
+
+    // Like submit, but gives up after timeout; a refused session is counted as rejected and gets null
+    public CompletableFuture<Void> trySubmit(
+            InputStream message,
+            OutputStream deliveredStream,
+            long timeout,
+            TimeUnit unit
+    ) throws InterruptedException {
+        if (!slots.tryAcquire(timeout, unit)) {
+            rejected.incrementAndGet();
+            return null;
+        }
+        return start(message, deliveredStream);
+    }
+
+    // Waits until every submitted session is over
+    public void awaitIdle() throws InterruptedException {
+        slots.acquire(maxSessions);
+        slots.release(maxSessions);
+    }
+
+    public long getCompleted() {
+        return completed.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    public PhaseStats getLatency() {
+        return latency;
+    }
+
+    // Sessions completed per second from the first submit to the last finished session
+    public double getSessionsPerSecond() {
+        long elapsedNanos = lastDoneNanos.get() - firstSubmitNanos.get();
+        return elapsedNanos <= 0 ? 0 : completed.get() * 1e9 / elapsedNanos;
+    }
+
+    public void printReport() {
+        System.out.printf(
+                "Session engine: %s sessions completed, %s failed, %s rejected on %s, at most %s in flight%n",
+                completed.get(),
+                failed.get(),
+                rejected.get(),
+                virtualThreads ? "virtual threads" : "platform threads",
+                maxInFlight.get()
+        );
+        System.out.printf(
+                "Session engine: %.1f sessions/s, latency mean %.3f ms, p50 %.3f ms, p99 %.3f ms, max %.3f ms%n",
+                getSessionsPerSecond(),
+                latency.getMeanMicros() / 1e3,
+                latency.getP50Micros() / 1e3,
+                latency.getP99Micros() / 1e3,
+                latency.getMaxMicros() / 1e3
+        );
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+    private CompletableFuture<Void> start(InputStream message, OutputStream deliveredStream) {
+        long submitNanos = System.nanoTime();
+        firstSubmitNanos.compareAndSet(0, submitNanos);
+        maxInFlight.accumulate(inFlight.incrementAndGet());
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        try {
+            executor.execute(() -> run(message, deliveredStream, submitNanos, result));
+        } catch (RejectedExecutionException e) {
+            inFlight.decrementAndGet();
+            slots.release();
+            rejected.incrementAndGet();
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    private void run(InputStream message, OutputStream deliveredStream, long submitNanos,
+                     CompletableFuture<Void> result) {
+        try (InputStream input = message; OutputStream output = deliveredStream) {
+            senderFactory.create().send(input, output);
+            long doneNanos = System.nanoTime();
+            latency.record(doneNanos - submitNanos, 0);
+            Metrics.stop(Phase.SESSION, submitNanos);
+            lastDoneNanos.accumulate(doneNanos);
+            completed.incrementAndGet();
+            result.complete(null);
+        } catch (Exception e) {
+            failed.incrementAndGet();
+            result.completeExceptionally(e);
+        } finally {
+            inFlight.decrementAndGet();
+            slots.release();
+        }
+    }
+
+    // Executors.newVirtualThreadPerTaskExecutor() of Java 21, looked up at runtime to keep the Java 8 build
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method factory = java.util.concurrent.Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    public static class Builder {
+        private final SenderFactory senderFactory;
+        private int maxSessions = DEFAULT_MAX_SESSIONS;
+        private int threads = Runtime.getRuntime().availableProcessors();
+        private boolean virtualThreads = true;
+
+        private Builder(SenderFactory senderFactory) {
+            this.senderFactory = senderFactory;
+        }
+
+        // Sessions in flight at once, submit blocks above it
+        public Builder setMaxSessions(int maxSessions) {
+            this.maxSessions = Math.max(1, maxSessions);
+            return this;
+        }
+
+        // Platform threads used when there are no virtual threads
+        public Builder setThreads(int threads) {
+            this.threads = Math.max(1, threads);
+            return this;
+        }
+
+        public Builder setVirtualThreads(boolean virtualThreads) {
+            this.virtualThreads = virtualThreads;
+            return this;
+        }
+
+        public SessionEngine build() {
+            return new SessionEngine(senderFactory, maxSessions, threads, virtualThreads);
+        }
+    }
+
+}
@@ -0,0 +1,138 @@
+package ru.sibsutis.security.net;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// Binary framing of the Shamir TCP transport: [type: 1 byte][payload length: 4 bytes][payload].
+// Batches of passes carry [batch id: 4][count: 4][count values of the fixed width of p, big-endian].
+final class ShamirFrames {
+
+    static final byte HELLO = 1;    // [block mode: 1][p length in bytes: 4][p]
+    static final byte READY = 2;
+    static final byte X1 = 3;
+    static final byte X2 = 4;
+    static final byte X3 = 5;
+    static final byte REKEY = 6;
+    static final byte END = 7;
+    static final byte DONE = 8;     // [delivered bytes: 8]
+    static final byte ERROR = 9;    // [UTF-8 message]
+
+    static final int HEADER_SIZE = 5;
+    static final int MAX_PAYLOAD_SIZE = 16 * 1024 * 1024;
+
+    private ShamirFrames() {}
+
+    static int valueWidth(BigInteger p) {
+        return (p.bitLength() + 7) / 8;
+    }
+
+    static ByteBuffer frame(byte type, int payloadSize) {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + payloadSize);
+        buffer.put(type).putInt(payloadSize);
+        return buffer;
+    }
+
+    static ByteBuffer empty(byte type) {
+        return flip(frame(type, 0));
+    }
+
+    static ByteBuffer hello(BigInteger p, boolean blockMode) {
+        byte[] pBytes = p.toByteArray();
+        ByteBuffer buffer = frame(HELLO, 1 + 4 + pBytes.length);
+        buffer.put((byte) (blockMode ? 1 : 0)).putInt(pBytes.length).put(pBytes);
+        return flip(buffer);
+    }
+
+    static ByteBuffer batch(byte type, int batchId, BigInteger[] values, int count, int width) {
+        ByteBuffer buffer = frame(type, 8 + count * width);
+        buffer.putInt(batchId).putInt(count);
+        for (int i = 0; i < count; i++) {
+            putValue(buffer, values[i], width);
+        }
+        return flip(buffer);
+    }
+
+    static ByteBuffer done(long deliveredBytes) {
+        return flip(frame(DONE, 8).putLong(deliveredBytes));
+    }
+
+    static ByteBuffer error(String message) {
+        byte[] bytes = String.valueOf(message).getBytes(StandardCharsets.UTF_8);
+        return flip(frame(ERROR, bytes.length).put(bytes));
+    }
+
+    static String errorMessage(ByteBuffer payload) {
+        byte[] bytes = new byte[payload.remaining()];
+        payload.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Values of a batch payload positioned after the batch id
+    static BigInteger[] values(ByteBuffer payload, int width) throws IOException {
+        int count = payload.getInt();
+        if (count < 0 || (long) count * width != payload.remaining()) {
+            throw new IOException("Shamir transport: malformed batch frame");
+        }
+        BigInteger[] values = new BigInteger[count];
+        byte[] value = new byte[width];
+        for (int i = 0; i < count; i++) {
+            payload.get(value);
+            values[i] = new BigInteger(1, value);
+        }
+        return values;
+    }
+
+    private static void putValue(ByteBuffer buffer, BigInteger value, int width) {
+        byte[] bytes = value.toByteArray();
+        int length = Math.min(bytes.length, width);
+        for (int i = length; i < width; i++) {
+            buffer.put((byte) 0);
+        }
+        buffer.put(bytes, bytes.length - length, length);
+    }
+
+    private static ByteBuffer flip(ByteBuffer buffer) {
+        buffer.flip();
+        return buffer;
+    }
+
+    // Collects incoming bytes of one connection and cuts them into frames
+    static final class Reader {
+        private ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+
+        ByteBuffer buffer() {
+            return buffer;
+        }
+
+        // Next complete frame with the type at position 0 and the payload after the header, or null
+        ByteBuffer next() throws IOException {
+            buffer.flip();
+            try {
+                if (buffer.remaining() < HEADER_SIZE) {
+                    return null;
+                }
+                int payloadSize = buffer.getInt(buffer.position() + 1);
+                if (payloadSize < 0 || payloadSize > MAX_PAYLOAD_SIZE) {
+                    throw new IOException("Shamir transport: frame of " + payloadSize + " bytes is refused");
+                }
+                if (buffer.remaining() < HEADER_SIZE + payloadSize) {
+                    if (buffer.capacity() < HEADER_SIZE + payloadSize) {
+                        ByteBuffer larger = ByteBuffer.allocate(HEADER_SIZE + payloadSize);
+                        larger.put(buffer);
+                        larger.flip();
+                        buffer = larger;
+                    }
+                    return null;
+                }
+                byte[] frame = new byte[HEADER_SIZE + payloadSize];
+                buffer.get(frame);
+                return ByteBuffer.wrap(frame);
+            } finally {
+                buffer.compact();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,293 @@
+package ru.sibsutis.security.net;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.tuple.Pair;
+import ru.sibsutis.security.encrypt.CryptoUtils;
+import ru.sibsutis.security.encrypt.PrimePool;
+import ru.sibsutis.security.encrypt.RekeyPolicy;
+import ru.sibsutis.security.encrypt.ShamirCommunicator;
+import ru.sibsutis.security.metrics.Metrics;
+import ru.sibsutis.security.metrics.Phase;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+
+// Sending side of the Shamir three-pass protocol over TCP. Blocks travel in batches and up to window batches
+// are in flight at once, so the server works on one batch while the client encrypts the next.
+public final class ShamirTcpClient {
+
+    public static final int DEFAULT_BATCH_SIZE = 64;
+    public static final int DEFAULT_WINDOW = 8;
+
+    private final InetSocketAddress address;
+    private final int pLength;
+    private boolean blockMode;
+    private RekeyPolicy rekeyPolicy = RekeyPolicy.NEVER;
+    private PrimePool primePool;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private int window = DEFAULT_WINDOW;
+
+    private BigInteger p;
+    private BigInteger c;
+    private BigInteger d;
+    private long roundTripNanos;
+    private long roundTrips;
+
+    private ShamirTcpClient(InetSocketAddress address, int pLength) {
+        this.address = address;
+        this.pLength = pLength;
+    }
+
+    public static Builder builder(InetSocketAddress address, int pLength) {
+        return new Builder(address, pLength);
+    }
+
+    public double getAverageRoundTripMillis() {
+        return roundTrips == 0 ? 0 : roundTripNanos / 1e6 / roundTrips;
+    }
+
+    // Sends the whole message, returns the byte count the server has confirmed
+    public long send(InputStream messageStream, boolean verbose) throws IOException {
+        if (p == null) {
+            p = primePool != null ? primePool.take(pLength) : CryptoUtils.generateRandom(pLength, true);
+        }
+        try (Selector selector = Selector.open(); SocketChannel channel = SocketChannel.open()) {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            channel.connect(address);
+            SelectionKey key = channel.register(selector, SelectionKey.OP_CONNECT);
+            Transfer transfer = new Transfer(messageStream, channel, key);
+            if (verbose) {
+                System.out.printf("Shamir transport: sending to %s, p = %s%n", address, p);
+            }
+            long delivered = transfer.run(selector);
+            if (verbose) {
+                System.out.printf(
+                        "Shamir transport: %s bytes delivered, %s round trips of %.3f ms on average%n",
+                        delivered, roundTrips, getAverageRoundTripMillis()
+                );
+            }
+            return delivered;
+        }
+    }
+
+    private void initKeys() {
+        long timeMark = Metrics.start();
+        Pair<BigInteger, BigInteger> shamirPair = CryptoUtils.generateShamir(p);
+        Metrics.stop(Phase.KEY_SETUP, timeMark);
+        c = shamirPair.getLeft();
+        d = shamirPair.getRight();
+    }
+
+    private final class Transfer {
+        private final InputStream messageStream;
+        private final SocketChannel channel;
+        private final SelectionKey key;
+        private final ShamirFrames.Reader reader = new ShamirFrames.Reader();
+        private final Deque<ByteBuffer> writes = new ArrayDeque<>();
+        private final Deque<Long> sentAt = new ArrayDeque<>();
+        private final int blockSize = blockMode ? ShamirCommunicator.getBlockSize(pLength) : 1;
+        private final int width = ShamirFrames.valueWidth(p);
+
+        private boolean ready;
+        private boolean endOfMessage;
+        private boolean endSent;
+        private boolean rekeyPending;
+        private int nextBatchId;
+        private long keyBlocks;
+        private long keyBytes;
+        private long keyTimeMark;
+        private long delivered = -1;
+
+        private Transfer(InputStream messageStream, SocketChannel channel, SelectionKey key) {
+            this.messageStream = messageStream;
+            this.channel = channel;
+            this.key = key;
+        }
+
+        private long run(Selector selector) throws IOException {
+            initKeys();
+            keyTimeMark = System.currentTimeMillis();
+            send(ShamirFrames.hello(p, blockMode));
+            while (delivered < 0) {
+                if (ready && channel.isConnected()) {
+                    fillWindow();
+                }
+                selector.select();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey selected = keys.next();
+                    keys.remove();
+                    if (selected.isConnectable()) {
+                        channel.finishConnect();
+                        updateInterest();
+                    }
+                    if (selected.isValid() && selected.isReadable()) {
+                        read();
+                    }
+                    if (selected.isValid() && selected.isWritable()) {
+                        write();
+                    }
+                }
+            }
+            return delivered;
+        }
+
+        // Encrypts and queues X1 batches until the window is full, rekeys once all the batches are back
+        private void fillWindow() throws IOException {
+            while (!endOfMessage && !rekeyPending && sentAt.size() < window) {
+                BigInteger[] batch = new BigInteger[batchSize];
+                byte[] block = new byte[blockSize];
+                int count = 0;
+                int blockLength;
+                while (count < batchSize && (blockLength = IOUtils.read(messageStream, block, 0, blockSize)) > 0) {
+                    BigInteger message = ShamirCommunicator.packBlock(block, blockLength, blockMode);
+                    long timeMark = Metrics.start();
+                    batch[count++] = message.modPow(c, p);
+                    Metrics.stop(Phase.SHAMIR_PASS_1, timeMark);
+                    keyBytes += blockLength;
+                }
+                endOfMessage = count < batchSize;
+                if (count > 0) {
+                    send(ShamirFrames.batch(ShamirFrames.X1, nextBatchId++, batch, count, width));
+                    sentAt.add(System.nanoTime());
+                    keyBlocks += count;
+                    rekeyPending = rekeyPolicy.isRekeyNeeded(keyBlocks, keyBytes, keyTimeMark);
+                }
+            }
+            if (rekeyPending && sentAt.isEmpty()) {
+                initKeys();
+                send(ShamirFrames.empty(ShamirFrames.REKEY));
+                keyBlocks = 0;
+                keyBytes = 0;
+                keyTimeMark = System.currentTimeMillis();
+                rekeyPending = false;
+                fillWindow();
+                return;
+            }
+            if (endOfMessage && sentAt.isEmpty() && !endSent) {
+                send(ShamirFrames.empty(ShamirFrames.END));
+                endSent = true;
+            }
+        }
+
+        private void read() throws IOException {
+            if (channel.read(reader.buffer()) < 0) {
+                throw new IOException("Shamir transport: connection closed by the server");
+            }
+            ByteBuffer frame;
+            while ((frame = reader.next()) != null) {
+                byte type = frame.get();
+                frame.getInt();
+                switch (type) {
+                    case ShamirFrames.READY:
+                        ready = true;
+                        break;
+                    case ShamirFrames.X2:
+                        answer(frame);
+                        break;
+                    case ShamirFrames.DONE:
+                        delivered = frame.getLong();
+                        break;
+                    case ShamirFrames.ERROR:
+                        throw new IOException("Shamir transport: server error: " + ShamirFrames.errorMessage(frame));
+                    default:
+                        throw new IOException("Shamir transport: unexpected frame " + type);
+                }
+            }
+        }
+
+        private void answer(ByteBuffer frame) throws IOException {
+            Long batchSentAt = sentAt.poll();
+            if (batchSentAt == null) {
+                throw new IOException("Shamir transport: unexpected X2 batch");
+            }
+            long roundTrip = System.nanoTime() - batchSentAt;
+            roundTripNanos += roundTrip;
+            roundTrips++;
+            Metrics.stop(Phase.ROUND_TRIP, batchSentAt);
+            int batchId = frame.getInt();
+            BigInteger[] values = ShamirFrames.values(frame, width);
+            for (int i = 0; i < values.length; i++) {
+                long timeMark = Metrics.start();
+                values[i] = values[i].modPow(d, p);
+                Metrics.stop(Phase.SHAMIR_PASS_3, timeMark);
+            }
+            send(ShamirFrames.batch(ShamirFrames.X3, batchId, values, values.length, width));
+        }
+
+        private void send(ByteBuffer buffer) {
+            writes.add(buffer);
+            updateInterest();
+        }
+
+        private void write() throws IOException {
+            while (!writes.isEmpty()) {
+                ByteBuffer buffer = writes.peek();
+                channel.write(buffer);
+                if (buffer.hasRemaining()) {
+                    return;
+                }
+                writes.poll();
+            }
+            updateInterest();
+        }
+
+        private void updateInterest() {
+            if (!channel.isConnected()) {
+                key.interestOps(SelectionKey.OP_CONNECT);
+            } else {
+                key.interestOps(SelectionKey.OP_READ | (writes.isEmpty() ? 0 : SelectionKey.OP_WRITE));
+            }
+        }
+    }
+
+    public static class Builder {
+        private final ShamirTcpClient client;
+
+        private Builder(InetSocketAddress address, int pLength) {
+            client = new ShamirTcpClient(address, pLength);
+        }
+
+        public Builder setBlockMode(boolean blockMode) {
+            client.blockMode = blockMode;
+            return this;
+        }
+
+        public Builder setRekeyPolicy(RekeyPolicy rekeyPolicy) {
+            client.rekeyPolicy = rekeyPolicy;
+            return this;
+        }
+
+        public Builder setPrimePool(PrimePool primePool) {
+            client.primePool = primePool;
+            return this;
+        }
+
+        // Blocks in one frame
+        public Builder setBatchSize(int batchSize) {
+            client.batchSize = Math.max(1, batchSize);
+            return this;
+        }
+
+        // Batches sent before the first of them comes back
+        public Builder setWindow(int window) {
+            client.window = Math.max(1, window);
+            return this;
+        }
+
+        public ShamirTcpClient build() {
+            return client;
+        }
+    }
+
+}
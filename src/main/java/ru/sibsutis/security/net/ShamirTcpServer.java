@@ -0,0 +1,448 @@
+package ru.sibsutis.security.net;
+
+import org.apache.commons.lang3.tuple.Pair;
+import ru.sibsutis.security.encrypt.CryptoUtils;
+import ru.sibsutis.security.encrypt.ShamirCommunicator;
+import ru.sibsutis.security.metrics.Metrics;
+import ru.sibsutis.security.metrics.Phase;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Receiving side of the Shamir three-pass protocol over TCP. One selector thread reads and writes all the
+// connections, the frames of each session are handled in order on a worker pool: X1 batches are answered with
+// X2 = X1^c and X3 batches are turned into message blocks X3^d written to the session sink.
+public final class ShamirTcpServer implements AutoCloseable {
+
+    // Opens the output of one incoming message, the server closes it when the message is complete
+    public interface SinkFactory {
+        OutputStream open(int sessionId) throws IOException;
+    }
+
+    // p comes from the client: its size is capped and it is checked before the session keys are derived from it
+    public static final int DEFAULT_MAX_P_LENGTH = 4096;
+
+    private static final int P_CERTAINTY = 50;
+    // Frames queued for the workers before the session stops reading, a fast client cannot fill the heap
+    private static final int MAX_QUEUED_FRAMES = 4;
+
+    private final Selector selector;
+    private final ServerSocketChannel serverChannel;
+    private final SinkFactory sinkFactory;
+    private final int maxPLength;
+    private final ExecutorService workers;
+    // Work handed back to the selector thread, which owns the keys and the write queues
+    private final Queue<Runnable> selectorTasks = new ConcurrentLinkedQueue<>();
+    private final boolean verbose;
+    private int sessionLimit;
+    private int sessionCount;
+
+    public ShamirTcpServer(InetSocketAddress address, SinkFactory sinkFactory, boolean verbose) throws IOException {
+        this(address, sinkFactory, DEFAULT_MAX_P_LENGTH, Runtime.getRuntime().availableProcessors(), verbose);
+    }
+
+    public ShamirTcpServer(
+            InetSocketAddress address,
+            SinkFactory sinkFactory,
+            int maxPLength,
+            int workers,
+            boolean verbose
+    ) throws IOException {
+        this.sinkFactory = sinkFactory;
+        this.maxPLength = maxPLength;
+        this.verbose = verbose;
+        this.workers = Executors.newFixedThreadPool(Math.max(1, workers), runnable -> {
+            Thread thread = new Thread(runnable, "shamir-tcp-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(address);
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    public InetSocketAddress getAddress() throws IOException {
+        return (InetSocketAddress) serverChannel.getLocalAddress();
+    }
+
+    // Serves until the given count of sessions is over (0 is no limit) or the server is closed
+    public void serve(int sessions) throws IOException {
+        sessionLimit = sessions;
+        System.out.printf("Shamir transport: listening on %s%n", getAddress());
+        try {
+            while (selector.isOpen() && (sessionLimit <= 0 || sessionCount < sessionLimit || hasSessions())) {
+                selector.select();
+                Runnable task;
+                while ((task = selectorTasks.poll()) != null) {
+                    task.run();
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else {
+                        Session session = (Session) key.attachment();
+                        try {
+                            if (key.isReadable()) {
+                                session.read();
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                session.write();
+                            }
+                        } catch (IOException | RuntimeException e) {
+                            session.fail(e);
+                        }
+                    }
+                }
+            }
+        } catch (ClosedSelectorException e) {
+            // closed from another thread
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        workers.shutdownNow();
+        serverChannel.close();
+        if (selector.isOpen()) {
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() instanceof Session) {
+                    ((Session) key.attachment()).closeQuietly();
+                }
+            }
+        }
+        selector.close();
+    }
+
+    private void runOnSelector(Runnable task) {
+        selectorTasks.add(task);
+        selector.wakeup();
+    }
+
+    private boolean hasSessions() {
+        // A closed session keeps its cancelled key in keys() until the next select, which may never come
+        for (SelectionKey key : selector.keys()) {
+            if (key.isValid() && key.attachment() instanceof Session) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null) {
+            return;
+        }
+        if (sessionLimit > 0 && sessionCount >= sessionLimit) {
+            channel.close();
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        Session session = new Session(++sessionCount, channel);
+        session.key = channel.register(selector, SelectionKey.OP_READ, session);
+        if (verbose) {
+            System.out.printf("Shamir transport: session %s from %s%n", session.id, channel.getRemoteAddress());
+        }
+    }
+
+    private final class Session {
+        private final int id;
+        private final SocketChannel channel;
+        private final ShamirFrames.Reader reader = new ShamirFrames.Reader();
+        private final Deque<ByteBuffer> writes = new ArrayDeque<>();
+        private SelectionKey key;
+        private boolean closeAfterWrite;
+        private boolean endOfInput;
+
+        // Frames and sink closing run one at a time in arrival order, whichever worker picks them up
+        private final Queue<Runnable> work = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private final AtomicInteger queuedFrames = new AtomicInteger();
+        private volatile boolean failed;
+
+        // Worker side state
+        private boolean blockMode;
+        private BigInteger p;
+        private BigInteger c;
+        private BigInteger d;
+        private int width;
+        private OutputStream sink;
+        private long deliveredBytes;
+
+        private Session(int id, SocketChannel channel) {
+            this.id = id;
+            this.channel = channel;
+        }
+
+        private void read() throws IOException {
+            int count = channel.read(reader.buffer());
+            if (count < 0) {
+                // Frames already queued are handled before the session is closed
+                endOfInput = true;
+                key.interestOps(0);
+                submit(() -> runOnSelector(this::closeQuietly));
+                return;
+            }
+            ByteBuffer frame;
+            while (!closeAfterWrite && !failed && (frame = reader.next()) != null) {
+                queue(frame);
+            }
+        }
+
+        private void queue(ByteBuffer frame) {
+            if (queuedFrames.incrementAndGet() >= MAX_QUEUED_FRAMES) {
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            }
+            submit(() -> {
+                try {
+                    if (!failed) {
+                        handle(frame);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    failed = true;
+                    closeSink();
+                    runOnSelector(() -> fail(e));
+                }
+                if (queuedFrames.decrementAndGet() == MAX_QUEUED_FRAMES - 1) {
+                    runOnSelector(this::resumeReading);
+                }
+            });
+        }
+
+        private void resumeReading() {
+            if (key.isValid() && !closeAfterWrite && !endOfInput && queuedFrames.get() < MAX_QUEUED_FRAMES) {
+                key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+            }
+        }
+
+        private void submit(Runnable task) {
+            work.add(task);
+            schedule();
+        }
+
+        private void schedule() {
+            if (!work.isEmpty() && scheduled.compareAndSet(false, true)) {
+                try {
+                    workers.execute(this::runWork);
+                } catch (RejectedExecutionException e) {
+                    // the server is closed
+                    scheduled.set(false);
+                }
+            }
+        }
+
+        private void runWork() {
+            Runnable task;
+            while ((task = work.poll()) != null) {
+                task.run();
+            }
+            scheduled.set(false);
+            schedule();
+        }
+
+        private void handle(ByteBuffer frame) throws IOException {
+            byte type = frame.get();
+            frame.getInt();
+            switch (type) {
+                case ShamirFrames.HELLO:
+                    hello(frame);
+                    break;
+                case ShamirFrames.X1:
+                    answer(frame);
+                    break;
+                case ShamirFrames.X3:
+                    deliver(frame);
+                    break;
+                case ShamirFrames.REKEY:
+                    initKeys();
+                    break;
+                case ShamirFrames.END:
+                    finish();
+                    break;
+                default:
+                    throw new IOException("Shamir transport: unexpected frame " + type);
+            }
+        }
+
+        private void hello(ByteBuffer frame) throws IOException {
+            // A second hello would replace the keys mid-message and open another sink
+            if (p != null) {
+                throw new IOException("Shamir transport: session is already started");
+            }
+            blockMode = frame.get() != 0;
+            // The length comes from the client, it is checked before anything is allocated for it
+            int pSize = frame.getInt();
+            if (pSize <= 0 || pSize > frame.remaining()) {
+                throw new IOException("Shamir transport: malformed hello");
+            }
+            if (pSize > maxPLength / 8 + 1) {
+                throw new IOException(String.format("Shamir transport: p above %s bits is refused", maxPLength));
+            }
+            byte[] pBytes = new byte[pSize];
+            frame.get(pBytes);
+            p = new BigInteger(pBytes);
+            if (p.signum() <= 0 || p.bitLength() > maxPLength || !p.isProbablePrime(P_CERTAINTY)
+                    || (blockMode && p.bitLength() < ShamirCommunicator.MIN_BLOCK_P_LENGTH)) {
+                throw new IOException("Shamir transport: unusable p");
+            }
+            width = ShamirFrames.valueWidth(p);
+            initKeys();
+            sink = sinkFactory.open(id);
+            runOnSelector(() -> send(ShamirFrames.empty(ShamirFrames.READY)));
+        }
+
+        private void initKeys() throws IOException {
+            if (p == null) {
+                throw new IOException("Shamir transport: session is not started");
+            }
+            long timeMark = Metrics.start();
+            Pair<BigInteger, BigInteger> shamirPair = CryptoUtils.generateShamir(p);
+            Metrics.stop(Phase.KEY_SETUP, timeMark);
+            c = shamirPair.getLeft();
+            d = shamirPair.getRight();
+        }
+
+        private void answer(ByteBuffer frame) throws IOException {
+            checkStarted();
+            int batchId = frame.getInt();
+            BigInteger[] values = ShamirFrames.values(frame, width);
+            for (int i = 0; i < values.length; i++) {
+                long timeMark = Metrics.start();
+                values[i] = values[i].modPow(c, p);
+                Metrics.stop(Phase.SHAMIR_PASS_2, timeMark);
+            }
+            ByteBuffer answer = ShamirFrames.batch(ShamirFrames.X2, batchId, values, values.length, width);
+            runOnSelector(() -> send(answer));
+        }
+
+        private void deliver(ByteBuffer frame) throws IOException {
+            checkStarted();
+            frame.getInt();
+            BigInteger[] values = ShamirFrames.values(frame, width);
+            for (BigInteger value : values) {
+                long timeMark = Metrics.start();
+                BigInteger message = value.modPow(d, p);
+                Metrics.stop(Phase.SHAMIR_PASS_4, timeMark);
+                if (blockMode) {
+                    byte[] block = ShamirCommunicator.unpackBlock(message);
+                    sink.write(block, 0, block.length);
+                    deliveredBytes += block.length;
+                } else {
+                    sink.write(message.intValue());
+                    deliveredBytes++;
+                }
+            }
+        }
+
+        private void finish() throws IOException {
+            checkStarted();
+            OutputStream finishedSink = sink;
+            sink = null;
+            finishedSink.close();
+            if (verbose) {
+                System.out.printf("Shamir transport: session %s got %s bytes%n", id, deliveredBytes);
+            }
+            ByteBuffer done = ShamirFrames.done(deliveredBytes);
+            runOnSelector(() -> {
+                send(done);
+                closeAfterWrite = true;
+            });
+        }
+
+        private void checkStarted() throws IOException {
+            if (sink == null) {
+                throw new IOException("Shamir transport: session is not started");
+            }
+        }
+
+        private void send(ByteBuffer buffer) {
+            if (!key.isValid()) {
+                return;
+            }
+            writes.add(buffer);
+            key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+        }
+
+        private void write() throws IOException {
+            while (!writes.isEmpty()) {
+                ByteBuffer buffer = writes.peek();
+                channel.write(buffer);
+                if (buffer.hasRemaining()) {
+                    return;
+                }
+                writes.poll();
+            }
+            if (closeAfterWrite) {
+                closeQuietly();
+            } else {
+                // Reading stays as queue() and end of input left it, only resumeReading turns it back on
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            }
+        }
+
+        private void fail(Exception e) {
+            if (closeAfterWrite || !key.isValid()) {
+                return;
+            }
+            failed = true;
+            System.out.printf("Shamir transport: session %s failed: %s%n", id, e.getMessage());
+            if (verbose) {
+                e.printStackTrace();
+            }
+            writes.clear();
+            submit(this::closeSink);
+            send(ShamirFrames.error(e.getMessage()));
+            closeAfterWrite = true;
+        }
+
+        private void closeSink() {
+            if (sink != null) {
+                try {
+                    sink.close();
+                } catch (IOException ignored) {
+                    // the session has failed already
+                }
+                sink = null;
+            }
+        }
+
+        private void closeQuietly() {
+            failed = true;
+            submit(this::closeSink);
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+                // nothing to do with a broken connection
+            }
+        }
+    }
+
+}
@@ -0,0 +1,74 @@
+package ru.sibsutis.security.net;
+
+import ru.sibsutis.security.encrypt.GOST94Parameters;
+import ru.sibsutis.security.encrypt.PrimePool;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// State kept warm between the invocations served by one daemon: prime pools (an in-memory one for
+// invocations without -pc) and GOST parameters, loaded or generated once per key
+public final class SharedResources implements AutoCloseable {
+
+    interface ParametersLoader {
+        GOST94Parameters load() throws IOException;
+    }
+
+    private final PrimePool memoryPrimePool = new PrimePool(PrimePool.DEFAULT_CAPACITY, null);
+    private final Map<Path, PrimePool> primePools = new ConcurrentHashMap<>();
+    private final Map<String, GOST94Parameters> gost94Parameters = new ConcurrentHashMap<>();
+
+    PrimePool getPrimePool(Path cachePath) {
+        if (cachePath == null) {
+            return memoryPrimePool;
+        }
+        return primePools.computeIfAbsent(cachePath, path -> {
+            PrimePool pool = new PrimePool(PrimePool.DEFAULT_CAPACITY, path);
+            try {
+                pool.load();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return pool;
+        });
+    }
+
+    GOST94Parameters getGOST94Parameters(String key, ParametersLoader loader) throws IOException {
+        try {
+            return gost94Parameters.computeIfAbsent(key, ignored -> {
+                try {
+                    return loader.load();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    public int getCachedParameters() {
+        return gost94Parameters.size();
+    }
+
+    // Pools with a cache file save their primes
+    @Override
+    public void close() throws IOException {
+        memoryPrimePool.close();
+        IOException failure = null;
+        for (PrimePool pool : primePools.values()) {
+            try {
+                pool.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+}
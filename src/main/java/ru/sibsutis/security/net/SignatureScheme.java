@@ -1,7 +1,8 @@
 package ru.sibsutis.security.net;
 
 public enum SignatureScheme {
-    GOST_34_10_94("gost34.10-94");
+    GOST_34_10_94("gost34.10-94"),
+    GOST_34_10_2012("gost34.10-2012");
 
     private final String code;
 
@@ -17,6 +18,8 @@ public enum SignatureScheme {
         switch (code.toLowerCase()) {
             case "gost34.10-94":
                 return GOST_34_10_94;
+            case "gost34.10-2012":
+                return GOST_34_10_2012;
             default:
                 throw new IllegalArgumentException(
                         String.format("Incorrect signature type: %s", code)